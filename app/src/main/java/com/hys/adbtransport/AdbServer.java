@@ -1,24 +1,61 @@
 package com.hys.adbtransport;
 
+import android.net.LocalServerSocket;
+import android.net.LocalSocket;
+import android.net.LocalSocketAddress;
 import android.util.Log;
+import com.google.gson.Gson;
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.security.MessageDigest;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
 
 /**
  * ADB通信服务器核心类
- * 负责创建TCP服务器，监听指定端口，处理客户端连接
+ * 负责创建TCP服务器和Unix域套接字监听，处理客户端连接；两种监听可单独或同时启用
  */
 public class AdbServer {
     private static final String TAG = "AdbServer";
     private static final int DEFAULT_PORT = 9999;
     
-    private ServerSocket serverSocket;
+    // 默认的Unix域套接字名（抽象命名空间）
+    public static final String DEFAULT_LOCAL_SOCKET_NAME = "adb_transport";
+    // 默认排空时限
+    public static final long DEFAULT_DRAIN_TIMEOUT_MS = 5000;
+    
+    private volatile ServerSocket serverSocket;
+    private volatile LocalServerSocket localServerSocket;
+    private boolean tcpEnabled = true;
+    private String localSocketName = DEFAULT_LOCAL_SOCKET_NAME;
+    private volatile int maxFrameLength = LineDecoder.DEFAULT_MAX_FRAME_LENGTH;
+    // 管理口令，为null时任何会话都不能执行需要管理权限的命令
+    private volatile byte[] adminToken;
+    private final AtomicInteger localClientCounter = new AtomicInteger(0);
+    // 连接表：连接ID -> 连接
+    private final Map<String, ConnectionManager> connections = new ConcurrentHashMap<>();
+    private final Gson gson = new Gson();
     private ExecutorService executorService;
     private AtomicBoolean isRunning = new AtomicBoolean(false);
+    // 排空关闭中：不再接受新连接，已有连接继续服务到时限
+    private final AtomicBoolean draining = new AtomicBoolean(false);
+    // 本次运行已通知停止：接受循环退出与排空结束都可能通知，只通知一次
+    private final AtomicBoolean stopNotified = new AtomicBoolean(false);
+    private volatile Map<String, Object> lastDrainReport;
+    private volatile int drainNotified;
     private int port;
     private ServerListener listener;
 
@@ -56,91 +93,184 @@ public class AdbServer {
     
     /**
      * 启动服务器
+     * @return 端口绑定成功时以端口号完成的Future，绑定失败时异常完成
      */
-    public void start() {
+    public CompletableFuture<Integer> start() {
+        CompletableFuture<Integer> started = new CompletableFuture<>();
         if (isRunning.get()) {
             Log.w(TAG, "服务器已经在运行中");
-            return;
+            started.complete(port);
+            return started;
+        }
+        if (draining.get()) {
+            started.completeExceptionally(new IllegalStateException("服务器正在关闭"));
+            return started;
+        }
+        if (executorService.isShutdown()) {
+            // 停止后再次启动（服务器由服务长期持有，可能多次启停）
+            executorService = Executors.newCachedThreadPool();
         }
         
+        stopNotified.set(false);
         executorService.execute(() -> {
             try {
-                serverSocket = new ServerSocket(port);
+                if (tcpEnabled) {
+                    serverSocket = new ServerSocket(port);
+                }
+                if (localSocketName != null) {
+                    try {
+                        localServerSocket = new LocalServerSocket(localSocketName);
+                    } catch (IOException e) {
+                        if (serverSocket == null) {
+                            throw e;
+                        }
+                        // 抽象命名空间全局唯一，名称被其他实例占用时只提供TCP监听
+                        Log.e(TAG, "绑定本地套接字失败，仅使用TCP监听: " + e.getMessage());
+                        Metrics.increment("server.localSocketBindFailures");
+                        if (listener != null) {
+                            listener.onError("绑定本地套接字失败: " + e.getMessage());
+                        }
+                    }
+                }
+                if (serverSocket == null && localServerSocket == null) {
+                    throw new IOException("未启用任何监听方式");
+                }
                 isRunning.set(true);
+                started.complete(port);
                 
-                Log.i(TAG, "ADB服务器启动成功，监听端口: " + port);
+                Log.i(TAG, "ADB服务器启动成功，监听: " + describeListeners());
                 if (listener != null) {
                     listener.onServerStarted(port);
                 }
                 
-                // 监听客户端连接
-                while (isRunning.get() && !serverSocket.isClosed()) {
-                    try {
-                        Socket clientSocket = serverSocket.accept();
-                        String clientAddress = clientSocket.getRemoteSocketAddress().toString();
-
-                        Log.i(TAG, "客户端连接: " + clientAddress);
-
-                        // 为每个客户端创建连接管理器
-                        ConnectionManager connectionManager = new ConnectionManager(
-                            clientSocket,
-                            new ConnectionManager.ConnectionListener() {
-                                @Override
-                                public void onMessageReceived(String message) {
-                                    if (listener != null) {
-                                        listener.onMessageReceived(message, clientAddress);
-                                    }
-                                }
-
-                                @Override
-                                public void onConnectionClosed() {
-                                    Log.i(TAG, "客户端断开连接: " + clientAddress);
-                                    if (listener != null) {
-                                        listener.onClientDisconnected(clientAddress);
-                                    }
-                                }
-
-                                @Override
-                                public void onError(String error) {
-                                    Log.e(TAG, "连接错误: " + error);
-                                    if (listener != null) {
-                                        AdbServer.this.listener.onError(error);
-                                    }
-                                }
-                            },
-                            null  // 不再传递VoiceTestSDK
-                        );
-
-                        // 通知连接建立
-                        if (listener != null) {
-                            listener.onClientConnected(clientAddress);
-                        }
-
-                        // 在新线程中处理客户端连接
-                        executorService.execute(connectionManager);
-                        
-                    } catch (IOException e) {
-                        if (isRunning.get()) {
-                            Log.e(TAG, "接受客户端连接时出错: " + e.getMessage());
-                            if (listener != null) {
-                                listener.onError("接受连接失败: " + e.getMessage());
-                            }
-                        }
-                    }
+                // 两种监听同时启用时Unix域套接字在单独的线程接受连接
+                ServerSocket tcp = serverSocket;
+                LocalServerSocket local = localServerSocket;
+                if (tcp != null && local != null) {
+                    executorService.execute(() -> acceptLocalClients(local));
+                    acceptTcpClients(tcp);
+                } else if (tcp != null) {
+                    acceptTcpClients(tcp);
+                } else if (local != null) {
+                    acceptLocalClients(local);
                 }
                 
             } catch (IOException e) {
                 Log.e(TAG, "启动服务器失败: " + e.getMessage());
+                started.completeExceptionally(e);
                 if (listener != null) {
                     listener.onError("启动服务器失败: " + e.getMessage());
                 }
             } finally {
-                isRunning.set(false);
-                if (listener != null) {
-                    listener.onServerStopped();
+                // 排空开始时关闭监听，接受循环随即退出；此时连接仍在排空，由finishDrain通知停止
+                if (!draining.get()) {
+                    isRunning.set(false);
+                    notifyStopped();
                 }
             }
         });
+        return started;
+    }
+
+    private void notifyStopped() {
+        if (stopNotified.compareAndSet(false, true) && listener != null) {
+            listener.onServerStopped();
+        }
+    }
+    
+    /**
+     * TCP监听：接受客户端连接
+     */
+    private void acceptTcpClients(ServerSocket socket) {
+        while (isRunning.get() && !socket.isClosed()) {
+            try {
+                Socket clientSocket = socket.accept();
+                handleClient(ClientEndpoint.of(clientSocket));
+            } catch (IOException e) {
+                if (isRunning.get() && !draining.get()) {
+                    Log.e(TAG, "接受客户端连接时出错: " + e.getMessage());
+                    if (listener != null) {
+                        listener.onError("接受连接失败: " + e.getMessage());
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * Unix域套接字监听：接受经adb forward tcp:X localabstract:name转发的连接
+     */
+    private void acceptLocalClients(LocalServerSocket socket) {
+        while (isRunning.get()) {
+            try {
+                LocalSocket clientSocket = socket.accept();
+                if (!isRunning.get() || draining.get()) {
+                    // stop()或drain()为唤醒accept发起的连接
+                    clientSocket.close();
+                    break;
+                }
+                String address = "localabstract:" + localSocketName + "#" + localClientCounter.incrementAndGet();
+                handleClient(ClientEndpoint.of(clientSocket, address));
+            } catch (IOException e) {
+                if (isRunning.get() && !draining.get()) {
+                    Log.e(TAG, "接受本地套接字连接时出错: " + e.getMessage());
+                    if (listener != null) {
+                        listener.onError("接受连接失败: " + e.getMessage());
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * 为客户端创建连接管理器并在新线程中处理
+     */
+    private void handleClient(ClientEndpoint clientSocket) {
+        String clientAddress = clientSocket.getRemoteAddress();
+
+        Log.i(TAG, "客户端连接: " + clientAddress);
+
+        // 为每个客户端创建连接管理器
+        ConnectionManager[] created = new ConnectionManager[1];
+        ConnectionManager connectionManager = new ConnectionManager(
+            clientSocket,
+            new ConnectionManager.ConnectionListener() {
+                @Override
+                public void onMessageReceived(String message) {
+                    if (listener != null) {
+                        listener.onMessageReceived(message, clientAddress);
+                    }
+                }
+
+                @Override
+                public void onConnectionClosed() {
+                    Log.i(TAG, "客户端断开连接: " + clientAddress);
+                    connections.remove(created[0].getId());
+                    if (listener != null) {
+                        listener.onClientDisconnected(clientAddress);
+                    }
+                }
+
+                @Override
+                public void onError(String error) {
+                    Log.e(TAG, "连接错误: " + error);
+                    if (listener != null) {
+                        AdbServer.this.listener.onError(error);
+                    }
+                }
+            },
+            this
+        );
+        created[0] = connectionManager;
+        connections.put(connectionManager.getId(), connectionManager);
+
+        // 通知连接建立
+        if (listener != null) {
+            listener.onClientConnected(clientAddress);
+        }
+
+        // 在新线程中处理客户端连接
+        executorService.execute(connectionManager);
     }
     
     /**
@@ -153,6 +283,240 @@ public class AdbServer {
         
         isRunning.set(false);
         
+        closeListeners();
+        closeConnections();
+        
+        Log.i(TAG, "ADB服务器已停止");
+    }
+    
+    /**
+     * 排空后停止服务器
+     * 停止接受新连接和新测试，通知客户端服务器即将关闭，等待进行中的测试结束、
+     * 出站队列写完后关闭所有连接。时限到达时仍未结束的测试被取消，结果照常写入结果日志
+     * @param timeoutMs 排空时限（毫秒）
+     * @return 排空报告，包括时限到达时仍未结束的测试和未写完出站队列的连接
+     * @throws IllegalStateException 已在排空中
+     */
+    public Map<String, Object> drain(long timeoutMs) {
+        long startTime = beginDrain(timeoutMs);
+        return finishDrain(startTime, timeoutMs);
+    }
+    
+    /**
+     * 在后台排空后停止服务器
+     * 返回前已停止接受新连接和新测试，并已通知客户端
+     * @param timeoutMs 排空时限（毫秒）
+     * @return 以排空报告完成的Future
+     * @throws IllegalStateException 已在排空中
+     */
+    public CompletableFuture<Map<String, Object>> drainAsync(long timeoutMs) {
+        long startTime = beginDrain(timeoutMs);
+        CompletableFuture<Map<String, Object>> future = new CompletableFuture<>();
+        new Thread(() -> {
+            try {
+                future.complete(finishDrain(startTime, timeoutMs));
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+        }, "AdbServerDrain").start();
+        return future;
+    }
+    
+    /**
+     * 排空第一阶段：停止接受新连接和新测试，广播即将关闭的通知
+     * @return 排空开始时间
+     */
+    private long beginDrain(long timeoutMs) {
+        if (!draining.compareAndSet(false, true)) {
+            throw new IllegalStateException("服务器正在关闭");
+        }
+        long startTime = System.currentTimeMillis();
+        Log.i(TAG, "开始排空，时限: " + timeoutMs + "ms");
+        ZoneScheduler.getInstance().setAccepting(false);
+        closeListeners();
+        
+        // 通知所有客户端服务器即将关闭
+        Map<String, Object> notice = new HashMap<>();
+        notice.put("reason", "shutdown");
+        notice.put("timeoutMs", timeoutMs);
+        notice.put("deadline", startTime + Math.max(0, timeoutMs));
+        MessageHandler.Message event = new MessageHandler.Message();
+        event.type = MessageHandler.MSG_TYPE_SERVER_GOING_AWAY;
+        event.data = notice;
+        drainNotified = broadcast(event);
+        return startTime;
+    }
+    
+    /**
+     * 排空第二阶段：等待测试结束和出站队列写完，到时限后关闭所有连接
+     */
+    private Map<String, Object> finishDrain(long startTime, long timeoutMs) {
+        long deadline = startTime + Math.max(0, timeoutMs);
+        ZoneScheduler scheduler = ZoneScheduler.getInstance();
+        Map<String, Object> report = new HashMap<>();
+        try {
+            // 等待进行中的测试结束，时限到达后取消剩余的测试
+            boolean testsDone = false;
+            try {
+                testsDone = scheduler.awaitIdle(deadline - System.currentTimeMillis());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            List<String> outstandingTests = testsDone ? new ArrayList<>() : scheduler.getPendingTests();
+            if (!outstandingTests.isEmpty()) {
+                Log.w(TAG, "排空时限已到，取消未结束的测试: " + outstandingTests);
+                scheduler.cancelAll();
+            }
+            
+            // 等待结果和响应写出
+            List<Map<String, Object>> unflushed = awaitFlushed(deadline);
+            
+            long elapsed = System.currentTimeMillis() - startTime;
+            report.put("elapsedMs", elapsed);
+            report.put("notified", drainNotified);
+            report.put("completed", outstandingTests.isEmpty() && unflushed.isEmpty());
+            report.put("outstandingTests", outstandingTests);
+            report.put("unflushedConnections", unflushed);
+            report.put("closedConnections", connections.size());
+            Metrics.increment("server.drains");
+            Metrics.set("server.drainElapsedMs", elapsed);
+            Metrics.set("server.drainOutstandingTests", outstandingTests.size());
+            Metrics.set("server.drainUnflushedConnections", unflushed.size());
+            
+            lastDrainReport = report;
+            isRunning.set(false);
+            closeConnections();
+            Log.i(TAG, "排空完成，服务器已停止: " + report);
+            return report;
+        } finally {
+            // 服务器已停止，本地界面发起的测试不受影响
+            scheduler.setAccepting(true);
+            draining.set(false);
+            notifyStopped();
+        }
+    }
+    
+    /**
+     * 等待所有连接的出站队列写完
+     * @return 时限到达时仍有未写出数据的连接
+     */
+    private List<Map<String, Object>> awaitFlushed(long deadline) {
+        List<Map<String, Object>> unflushed = new ArrayList<>();
+        while (true) {
+            unflushed.clear();
+            for (ConnectionManager connection : connections.values()) {
+                if (connection.isConnected() && connection.getPendingFrames() > 0) {
+                    unflushed.add(connection.getInfo());
+                }
+            }
+            if (unflushed.isEmpty() || System.currentTimeMillis() >= deadline) {
+                return unflushed;
+            }
+            try {
+                Thread.sleep(Math.min(10, Math.max(1, deadline - System.currentTimeMillis())));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return unflushed;
+            }
+        }
+    }
+    
+    /**
+     * 关闭所有客户端连接和连接处理线程
+     */
+    private void closeConnections() {
+        for (ConnectionManager connection : new ArrayList<>(connections.values())) {
+            connection.closeConnection();
+        }
+        connections.clear();
+        
+        if (executorService != null && !executorService.isShutdown()) {
+            executorService.shutdown();
+        }
+    }
+    
+    public boolean isDraining() {
+        return draining.get();
+    }
+    
+    /**
+     * 最近一次排空的报告，尚未排空过时为null
+     */
+    public Map<String, Object> getLastDrainReport() {
+        return lastDrainReport;
+    }
+    
+    /**
+     * 按ID查找连接
+     * @return 连接不存在或已断开时返回null
+     */
+    public ConnectionManager getConnection(String id) {
+        return id == null ? null : connections.get(id);
+    }
+    
+    /**
+     * 当前所有连接
+     */
+    public Collection<ConnectionManager> getConnections() {
+        return Collections.unmodifiableCollection(connections.values());
+    }
+    
+    public int getConnectionCount() {
+        return connections.size();
+    }
+    
+    /**
+     * 向所有连接广播消息
+     * @return 成功入队的连接数
+     */
+    public int broadcast(Object message) {
+        return broadcast(message, null);
+    }
+    
+    /**
+     * 向选定的连接广播消息
+     * 消息只序列化一次，同一份编码后的字节放入每个连接的出站队列；
+     * 启用了主机时间换算的会话单独序列化，以附带该会话的hostTimestamp。
+     * 队列已满的连接按消息类型的OutboundPolicy处理，广播方不会等待
+     * @param message 消息对象
+     * @param filter 连接筛选条件，为null时发给所有连接
+     * @return 成功入队的连接数
+     */
+    public int broadcast(Object message, Predicate<ConnectionManager> filter) {
+        if (connections.isEmpty()) {
+            return 0;
+        }
+        byte[] frame = (gson.toJson(message) + "\n").getBytes(StandardCharsets.UTF_8);
+        String type = message instanceof MessageHandler.Message ? ((MessageHandler.Message) message).type : null;
+        int delivered = 0;
+        for (ConnectionManager connection : connections.values()) {
+            if (filter != null && !filter.test(connection)) {
+                continue;
+            }
+            byte[] encoded = type != null && connection.isHostTimeEnabled()
+                    ? (connection.toJson(message) + "\n").getBytes(StandardCharsets.UTF_8) : frame;
+            if (connection.sendEncoded(encoded, type)) {
+                delivered++;
+            }
+        }
+        return delivered;
+    }
+    
+    /**
+     * 连接列表信息
+     */
+    public List<Map<String, Object>> getConnectionInfo() {
+        List<Map<String, Object>> info = new ArrayList<>();
+        for (ConnectionManager connection : connections.values()) {
+            info.add(connection.getInfo());
+        }
+        return info;
+    }
+    
+    /**
+     * 关闭所有监听套接字
+     */
+    private void closeListeners() {
         try {
             if (serverSocket != null && !serverSocket.isClosed()) {
                 serverSocket.close();
@@ -160,12 +524,39 @@ public class AdbServer {
         } catch (IOException e) {
             Log.e(TAG, "关闭服务器时出错: " + e.getMessage());
         }
-        
-        if (executorService != null && !executorService.isShutdown()) {
-            executorService.shutdown();
+        serverSocket = null;
+
+        LocalServerSocket local = localServerSocket;
+        localServerSocket = null;
+        if (local != null) {
+            // 关闭LocalServerSocket不会唤醒阻塞的accept，先连接一次使其返回
+            try {
+                LocalSocket wakeup = new LocalSocket();
+                wakeup.connect(new LocalSocketAddress(localSocketName));
+                wakeup.close();
+            } catch (IOException e) {
+                Log.d(TAG, "唤醒本地套接字监听失败: " + e.getMessage());
+            }
+            try {
+                local.close();
+            } catch (IOException e) {
+                Log.e(TAG, "关闭本地套接字监听时出错: " + e.getMessage());
+            }
         }
-        
-        Log.i(TAG, "ADB服务器已停止");
+    }
+    
+    private String describeListeners() {
+        StringBuilder description = new StringBuilder();
+        if (serverSocket != null) {
+            description.append("tcp:").append(port);
+        }
+        if (localServerSocket != null) {
+            if (description.length() > 0) {
+                description.append(", ");
+            }
+            description.append("localabstract:").append(localSocketName);
+        }
+        return description.toString();
     }
     
     /**
@@ -191,6 +582,79 @@ public class AdbServer {
         }
         this.port = port;
     }
+    
+    /**
+     * 是否监听TCP端口
+     */
+    public boolean isTcpEnabled() {
+        return tcpEnabled;
+    }
+    
+    /**
+     * 设置是否监听TCP端口
+     */
+    public void setTcpEnabled(boolean enabled) {
+        if (isRunning.get()) {
+            throw new IllegalStateException("无法在服务器运行时更改监听方式");
+        }
+        this.tcpEnabled = enabled;
+    }
+    
+    /**
+     * 单条消息的最大长度（字节）
+     */
+    public int getMaxFrameLength() {
+        return maxFrameLength;
+    }
+    
+    /**
+     * 设置单条消息的最大长度，超长的消息被丢弃并返回错误；只影响之后建立的连接
+     */
+    public void setMaxFrameLength(int maxFrameLength) {
+        if (maxFrameLength < 1) {
+            throw new IllegalArgumentException("最大帧长至少为1字节");
+        }
+        this.maxFrameLength = maxFrameLength;
+    }
+    
+    /**
+     * 获取Unix域套接字名，为null表示不监听
+     */
+    public String getLocalSocketName() {
+        return localSocketName;
+    }
+    
+    /**
+     * 设置Unix域套接字名（抽象命名空间），为null时不监听
+     * PC端通过 adb forward tcp:LOCAL_PORT localabstract:name 连接
+     */
+    public void setLocalSocketName(String name) {
+        if (isRunning.get()) {
+            throw new IllegalStateException("无法在服务器运行时更改监听方式");
+        }
+        this.localSocketName = name == null || name.isEmpty() ? null : name;
+    }
+
+    /**
+     * 设置管理口令，为null或空字符串时不允许任何会话取得管理权限
+     * 口令由启动服务的一方（界面或adb shell启动参数）指定，主机脚本须经admin_auth出示后才能放宽限额、排空服务器等
+     */
+    public void setAdminToken(String token) {
+        this.adminToken = token == null || token.isEmpty() ? null : token.getBytes(StandardCharsets.UTF_8);
+    }
+
+    public boolean isAdminTokenSet() {
+        return adminToken != null;
+    }
+
+    /**
+     * 校验管理口令（比较耗时与口令内容无关）
+     */
+    public boolean checkAdminToken(String token) {
+        byte[] expected = adminToken;
+        return expected != null && token != null
+                && MessageDigest.isEqual(expected, token.getBytes(StandardCharsets.UTF_8));
+    }
 
 
 
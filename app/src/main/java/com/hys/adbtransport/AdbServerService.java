@@ -0,0 +1,258 @@
+package com.hys.adbtransport;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.ApplicationInfo;
+import android.os.Binder;
+import android.os.Build;
+import android.os.IBinder;
+import android.util.Log;
+import androidx.core.app.NotificationCompat;
+import androidx.core.content.ContextCompat;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ADB服务器前台服务
+ * 服务器和语音测试SDK的生命周期由服务持有，与界面无关：
+ * 旋转屏幕、切到后台或销毁Activity都不会断开连接、丢失正在执行的测试。
+ * Activity通过绑定服务获取服务器并接收转发的ServerListener事件
+ */
+public class AdbServerService extends Service implements AdbServer.ServerListener {
+    private static final String TAG = "AdbServerService";
+
+    private static final String CHANNEL_ID = "adb_server";
+    private static final int NOTIFICATION_ID = 1;
+
+    // 启动参数，如: adb shell am start-foreground-service -n com.hys.adbtransport/.AdbServerService
+    //   --ez tcp_enabled false --es local_socket adb_transport
+    public static final String EXTRA_PORT = "port";
+    public static final String EXTRA_TCP_ENABLED = "tcp_enabled";
+    public static final String EXTRA_LOCAL_SOCKET = "local_socket"; // 空字符串表示不监听
+    public static final String EXTRA_ADMIN_TOKEN = "admin_token";   // 管理口令，不指定时不开放管理权限
+
+    // 服务销毁时在主线程上排空，时限须远小于服务的ANR时限
+    private static final long SERVICE_DRAIN_TIMEOUT_MS = 3000;
+
+    private final IBinder binder = new LocalBinder();
+    private final List<AdbServer.ServerListener> listeners = new CopyOnWriteArrayList<>();
+    private final AtomicInteger connectionCount = new AtomicInteger(0);
+
+    private AdbServer adbServer;
+    private boolean started = false;
+
+    /**
+     * 本地绑定接口
+     */
+    public class LocalBinder extends Binder {
+        public AdbServerService getService() {
+            return AdbServerService.this;
+        }
+    }
+
+    /**
+     * 启动服务（以前台服务运行）
+     */
+    public static void start(Context context) {
+        ContextCompat.startForegroundService(context, new Intent(context, AdbServerService.class));
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        Log.i(TAG, "服务创建");
+
+        startForeground(NOTIFICATION_ID, buildNotification());
+
+        // 调试版本检测未归还的传输缓冲区
+        BufferPool.setLeakDetection((getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0);
+
+        adbServer = new AdbServer();
+        adbServer.setServerListener(this);
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        if (!started) {
+            started = true;
+            applyConfig(intent);
+            // 服务器绑定与SDK初始化在后台并行进行
+            StartupPipeline.getInstance().start(getApplication(), adbServer);
+        } else if (adbServer.isRunning()) {
+            Log.w(TAG, "服务器运行中，忽略新的监听配置");
+        } else {
+            // 服务器已停止时更新配置，下次启动服务器时生效
+            applyConfig(intent);
+        }
+        // 被系统回收后重新创建，恢复服务器
+        return START_STICKY;
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return binder;
+    }
+
+    @Override
+    public void onDestroy() {
+        Log.i(TAG, "服务销毁");
+        if (adbServer != null) {
+            // 排空后再释放SDK：进行中的测试结束、结果写出后才断开客户端
+            try {
+                adbServer.drain(SERVICE_DRAIN_TIMEOUT_MS);
+            } catch (IllegalStateException e) {
+                // 已在排空中（如刚点击了停止），直接关闭
+                adbServer.stop();
+            }
+        }
+        VoiceTestSDK.release();
+        StartupPipeline.getInstance().reset();
+        listeners.clear();
+        super.onDestroy();
+    }
+
+    /**
+     * 按启动参数选择监听方式：TCP端口、Unix域套接字或两者同时
+     */
+    private void applyConfig(Intent intent) {
+        if (intent == null) {
+            return;
+        }
+        if (intent.hasExtra(EXTRA_PORT)) {
+            adbServer.setPort(intent.getIntExtra(EXTRA_PORT, adbServer.getPort()));
+        }
+        if (intent.hasExtra(EXTRA_TCP_ENABLED)) {
+            adbServer.setTcpEnabled(intent.getBooleanExtra(EXTRA_TCP_ENABLED, true));
+        }
+        if (intent.hasExtra(EXTRA_LOCAL_SOCKET)) {
+            adbServer.setLocalSocketName(intent.getStringExtra(EXTRA_LOCAL_SOCKET));
+        }
+        if (intent.hasExtra(EXTRA_ADMIN_TOKEN)) {
+            adbServer.setAdminToken(intent.getStringExtra(EXTRA_ADMIN_TOKEN));
+        }
+        Log.i(TAG, "监听配置 - TCP: " + (adbServer.isTcpEnabled() ? adbServer.getPort() : "关闭")
+                + ", 本地套接字: " + adbServer.getLocalSocketName()
+                + ", 管理口令: " + (adbServer.isAdminTokenSet() ? "已设置" : "未设置"));
+    }
+
+    /**
+     * 获取服务持有的服务器
+     */
+    public AdbServer getServer() {
+        return adbServer;
+    }
+
+    /**
+     * 当前客户端连接数
+     */
+    public int getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    /**
+     * 注册服务器事件监听器（通常为绑定的Activity）
+     */
+    public void addServerListener(AdbServer.ServerListener listener) {
+        if (!listeners.contains(listener)) {
+            listeners.add(listener);
+        }
+    }
+
+    public void removeServerListener(AdbServer.ServerListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * 在指定端口启动服务器
+     */
+    public void startServer(int port) {
+        adbServer.setPort(port);
+        adbServer.start();
+    }
+
+    /**
+     * 排空后停止服务器，服务与SDK保持运行
+     */
+    public void stopServer() {
+        try {
+            adbServer.drainAsync(AdbServer.DEFAULT_DRAIN_TIMEOUT_MS);
+        } catch (IllegalStateException e) {
+            Log.w(TAG, "停止服务器: " + e.getMessage());
+        }
+    }
+
+    private Notification buildNotification() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            NotificationChannel channel = new NotificationChannel(CHANNEL_ID,
+                    getString(R.string.service_channel_name), NotificationManager.IMPORTANCE_LOW);
+            NotificationManager manager = getSystemService(NotificationManager.class);
+            if (manager != null) {
+                manager.createNotificationChannel(channel);
+            }
+        }
+
+        Intent intent = new Intent(this, MainActivity.class);
+        PendingIntent contentIntent = PendingIntent.getActivity(this, 0, intent,
+                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+
+        return new NotificationCompat.Builder(this, CHANNEL_ID)
+                .setSmallIcon(R.drawable.ic_launcher_foreground)
+                .setContentTitle(getString(R.string.app_name))
+                .setContentText(getString(R.string.service_notification_text))
+                .setContentIntent(contentIntent)
+                .setOngoing(true)
+                .build();
+    }
+
+    // AdbServer.ServerListener 接口实现：记录状态后转发给绑定的界面
+    @Override
+    public void onServerStarted(int port) {
+        for (AdbServer.ServerListener listener : listeners) {
+            listener.onServerStarted(port);
+        }
+    }
+
+    @Override
+    public void onServerStopped() {
+        // 连接数由各连接的断开回调递减，停止时连接都已关闭
+        for (AdbServer.ServerListener listener : listeners) {
+            listener.onServerStopped();
+        }
+    }
+
+    @Override
+    public void onClientConnected(String clientAddress) {
+        connectionCount.incrementAndGet();
+        for (AdbServer.ServerListener listener : listeners) {
+            listener.onClientConnected(clientAddress);
+        }
+    }
+
+    @Override
+    public void onClientDisconnected(String clientAddress) {
+        connectionCount.decrementAndGet();
+        for (AdbServer.ServerListener listener : listeners) {
+            listener.onClientDisconnected(clientAddress);
+        }
+    }
+
+    @Override
+    public void onError(String error) {
+        for (AdbServer.ServerListener listener : listeners) {
+            listener.onError(error);
+        }
+    }
+
+    @Override
+    public void onMessageReceived(String message, String clientAddress) {
+        for (AdbServer.ServerListener listener : listeners) {
+            listener.onMessageReceived(message, clientAddress);
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package com.hys.adbtransport;
+
+import android.util.Log;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * 测试产物存储
+ * 按执行ID（exeID）组织录音、日志等测试产物，并支持按偏移分块传输到PC端；
+ * 以一次测试的全部产物为单位按容量上限进行LRU淘汰
+ */
+public class ArtifactStore {
+    private static final String TAG = "ArtifactStore";
+
+    // 默认分块大小
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+    // 最大分块大小，限制单次传输占用的内存
+    public static final int MAX_CHUNK_SIZE = 1024 * 1024;
+    // 默认容量上限
+    public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+    private static volatile File rootDir;
+
+    // 访问顺序的LinkedHashMap：exeID -> 该次测试产物的总字节数
+    private static final LinkedHashMap<String, Long> tests = new LinkedHashMap<>(16, 0.75f, true);
+    private static long maxBytes = DEFAULT_MAX_BYTES;
+    private static long totalBytes = 0;
+    private static long evictions = 0;
+
+    /**
+     * 初始化产物存储目录，登记已有的产物并按容量上限淘汰
+     * @param dir 产物根目录
+     * @param capacity 容量上限（字节）
+     */
+    public static synchronized void init(File dir, long capacity) {
+        if (!dir.exists() && !dir.mkdirs()) {
+            Log.e(TAG, "创建产物目录失败: " + dir.getAbsolutePath());
+            return;
+        }
+        rootDir = dir;
+        maxBytes = capacity;
+        tests.clear();
+        totalBytes = 0;
+
+        // 以最后访问时间近似恢复LRU顺序
+        File[] dirs = dir.listFiles(File::isDirectory);
+        if (dirs != null) {
+            Arrays.sort(dirs, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+            for (File testDir : dirs) {
+                long size = sizeOf(testDir);
+                tests.put(testDir.getName(), size);
+                totalBytes += size;
+            }
+        }
+        evictIfNeeded();
+        Log.i(TAG, "产物目录: " + dir.getAbsolutePath() + ", " + tests.size() + "次测试, " + totalBytes + "字节");
+    }
+
+    /**
+     * 检查产物存储是否可用
+     */
+    public static boolean isAvailable() {
+        return rootDir != null;
+    }
+
+    /**
+     * 创建产物文件，用于写入
+     * @param exeID 执行ID
+     * @param name 产物名称
+     */
+    public static FileOutputStream createArtifact(String exeID, String name) throws IOException {
+        File dir = new File(requireRoot(), checkName(exeID));
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("创建产物目录失败: " + dir.getAbsolutePath());
+        }
+        return new FileOutputStream(new File(dir, checkName(name)));
+    }
+
+    /**
+     * 登记某次测试已写完的产物，超出容量上限时淘汰最久未访问的测试
+     * 须在该exeID的产物全部写完后调用
+     * @param exeID 执行ID
+     */
+    public static synchronized void commit(String exeID) throws IOException {
+        File dir = new File(requireRoot(), checkName(exeID));
+        long size = sizeOf(dir);
+        Long previous = tests.put(exeID, size);
+        totalBytes += size - (previous != null ? previous : 0);
+        evictIfNeeded();
+    }
+
+    /**
+     * 获取产物文件
+     * @param exeID 执行ID
+     * @param name 产物名称
+     * @return 产物文件，不存在时返回null
+     */
+    public static File getArtifact(String exeID, String name) throws IOException {
+        File file = new File(new File(requireRoot(), checkName(exeID)), checkName(name));
+        if (!file.isFile()) {
+            return null;
+        }
+        touch(exeID);
+        return file;
+    }
+
+    /**
+     * 获取存储统计信息
+     */
+    public static synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("tests", tests.size());
+        stats.put("totalBytes", totalBytes);
+        stats.put("maxBytes", maxBytes);
+        stats.put("evictions", evictions);
+        return stats;
+    }
+
+    /**
+     * 列出某次测试的全部产物
+     * @param exeID 执行ID
+     */
+    public static List<Map<String, Object>> listArtifacts(String exeID) throws IOException {
+        List<Map<String, Object>> artifacts = new ArrayList<>();
+        File[] files = new File(requireRoot(), checkName(exeID)).listFiles();
+        if (files == null) {
+            return artifacts;
+        }
+        for (File file : files) {
+            if (!file.isFile()) {
+                continue;
+            }
+            Map<String, Object> item = new HashMap<>();
+            item.put("name", file.getName());
+            item.put("size", file.length());
+            item.put("modified", file.lastModified());
+            artifacts.add(item);
+        }
+        return artifacts;
+    }
+
+    /**
+     * 从指定偏移开始分块发送产物文件
+     * 每块先发送一行JSON块头（偏移、长度、CRC32），紧跟长度为length的原始字节；
+     * 文件按块定位读取到从BufferPool租用的缓冲区，不为每块建立内存映射，传输结束后归还缓冲区
+     *
+     * @param connection 目标连接
+     * @param requestId 请求ID
+     * @param name 产物名称
+     * @param file 产物文件
+     * @param offset 起始偏移（断点续传）
+     * @param chunkSize 分块大小
+     * @return 传输摘要
+     */
+    public static Map<String, Object> streamArtifact(ConnectionManager connection, String requestId,
+                                                     String name, File file, long offset, int chunkSize)
+            throws IOException {
+        int size = Math.max(1, Math.min(chunkSize, MAX_CHUNK_SIZE));
+        long bytesSent = 0;
+        int chunks = 0;
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            long fileSize = channel.size();
+            if (offset < 0 || offset > fileSize) {
+                throw new IOException("无效的偏移: " + offset + ", 文件大小: " + fileSize);
+            }
+
+            int bufferSize = (int) Math.min(size, Math.max(1, fileSize - offset));
+            BufferPool.Lease lease = BufferPool.lease(bufferSize);
+            try {
+                byte[] buffer = lease.array();
+                ByteBuffer target = ByteBuffer.wrap(buffer);
+                CRC32 crc = new CRC32();
+                long position = offset;
+
+                while (position < fileSize) {
+                    int length = (int) Math.min(bufferSize, fileSize - position);
+                    target.clear().limit(length);
+                    while (target.hasRemaining()) {
+                        if (channel.read(target, position + target.position()) < 0) {
+                            throw new IOException("产物文件被截断: " + name + ", 偏移: " + position);
+                        }
+                    }
+
+                    crc.reset();
+                    crc.update(buffer, 0, length);
+
+                    MessageHandler.Message header = new MessageHandler.Message();
+                    header.type = MessageHandler.MSG_TYPE_FILE_CHUNK;
+                    header.id = requestId;
+                    Map<String, Object> data = new HashMap<>();
+                    data.put("name", name);
+                    data.put("offset", position);
+                    data.put("length", length);
+                    data.put("crc32", crc.getValue());
+                    header.data = data;
+
+                    if (!connection.sendBinaryFrame(header, buffer, 0, length)) {
+                        throw new IOException("连接已断开，传输中止于偏移: " + position);
+                    }
+
+                    position += length;
+                    bytesSent += length;
+                    chunks++;
+                }
+            } finally {
+                lease.release();
+            }
+
+            Map<String, Object> summary = new HashMap<>();
+            summary.put("name", name);
+            summary.put("size", fileSize);
+            summary.put("offset", offset);
+            summary.put("bytesSent", bytesSent);
+            summary.put("chunks", chunks);
+            return summary;
+        }
+    }
+
+    private static synchronized void touch(String exeID) {
+        if (tests.get(exeID) != null) {
+            // 持久化访问时间，重启后据此恢复LRU顺序
+            new File(rootDir, exeID).setLastModified(System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * 淘汰最久未访问的测试，最新登记的一次测试总是保留
+     * 正在传输的产物被删除时，已打开的文件仍可读完
+     */
+    private static void evictIfNeeded() {
+        Iterator<Map.Entry<String, Long>> iterator = tests.entrySet().iterator();
+        while (totalBytes > maxBytes && tests.size() > 1 && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            File dir = new File(rootDir, eldest.getKey());
+            File[] files = dir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    if (!file.delete()) {
+                        Log.w(TAG, "删除产物失败: " + file.getAbsolutePath());
+                    }
+                }
+            }
+            if (!dir.delete()) {
+                Log.w(TAG, "删除产物目录失败: " + dir.getAbsolutePath());
+            }
+            totalBytes -= eldest.getValue();
+            evictions++;
+            Metrics.increment("artifacts.evictions");
+            iterator.remove();
+            Log.d(TAG, "测试产物已淘汰: " + eldest.getKey());
+        }
+    }
+
+    private static long sizeOf(File dir) {
+        long size = 0;
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isFile()) {
+                    size += file.length();
+                }
+            }
+        }
+        return size;
+    }
+
+    private static File requireRoot() throws IOException {
+        File dir = rootDir;
+        if (dir == null) {
+            throw new IOException("产物存储未初始化");
+        }
+        return dir;
+    }
+
+    /**
+     * 校验路径片段，防止越出产物目录
+     */
+    private static String checkName(String name) throws IOException {
+        if (name == null || name.isEmpty() || name.contains("/") || name.contains("\\")
+                || name.equals(".") || name.equals("..")) {
+            throw new IOException("无效的名称: " + name);
+        }
+        return name;
+    }
+}
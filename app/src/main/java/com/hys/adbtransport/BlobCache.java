@@ -0,0 +1,266 @@
+package com.hys.adbtransport;
+
+import android.util.Log;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 内容寻址缓存
+ * 以SHA-256为键在设备上保存上传的测试语料和提示音，按容量上限进行LRU淘汰
+ */
+public class BlobCache {
+    private static final String TAG = "BlobCache";
+
+    // 默认容量上限
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    // 访问顺序的LinkedHashMap，迭代顺序即最近最少使用顺序
+    private static final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private static File cacheDir;
+    private static long maxBytes = DEFAULT_MAX_BYTES;
+    private static long totalBytes = 0;
+    private static long hits = 0;
+    private static long misses = 0;
+    private static long evictions = 0;
+
+    /**
+     * 初始化缓存，从磁盘恢复已有条目
+     * @param dir 缓存目录
+     * @param capacity 容量上限（字节）
+     */
+    public static synchronized void init(File dir, long capacity) {
+        if (!dir.exists() && !dir.mkdirs()) {
+            Log.e(TAG, "创建缓存目录失败: " + dir.getAbsolutePath());
+            return;
+        }
+        cacheDir = dir;
+        maxBytes = capacity;
+        entries.clear();
+        totalBytes = 0;
+
+        // 以最后访问时间近似恢复LRU顺序
+        File[] files = dir.listFiles();
+        if (files != null) {
+            Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+            for (File file : files) {
+                if (!file.isFile() || !isValidHash(file.getName())) {
+                    // 清理写入中断留下的临时文件
+                    if (!file.delete()) {
+                        Log.w(TAG, "清理无效缓存文件失败: " + file.getName());
+                    }
+                    continue;
+                }
+                entries.put(file.getName(), file.length());
+                totalBytes += file.length();
+            }
+        }
+        evictIfNeeded();
+        Log.i(TAG, "缓存已加载: " + entries.size() + "项, " + totalBytes + "字节");
+    }
+
+    /**
+     * 检查缓存是否可用
+     */
+    public static synchronized boolean isAvailable() {
+        return cacheDir != null;
+    }
+
+    /**
+     * 计算内容哈希
+     * @return 小写十六进制SHA-256
+     */
+    public static String hash(byte[] content) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+            char[] hex = new char[digest.length * 2];
+            for (int i = 0; i < digest.length; i++) {
+                hex[i * 2] = HEX[(digest[i] >> 4) & 0x0f];
+                hex[i * 2 + 1] = HEX[digest[i] & 0x0f];
+            }
+            return new String(hex);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256不可用", e);
+        }
+    }
+
+    /**
+     * 存入内容
+     * @param expectedHash 客户端声明的哈希，可为空
+     * @param content 内容
+     * @return 内容哈希
+     */
+    public static String put(String expectedHash, byte[] content) throws IOException {
+        String key = hash(content);
+        if (expectedHash != null && !expectedHash.equalsIgnoreCase(key)) {
+            throw new IOException("哈希校验失败，期望: " + expectedHash + ", 实际: " + key);
+        }
+        if (content.length > maxBytes) {
+            throw new IOException("内容超过缓存容量: " + content.length);
+        }
+
+        synchronized (BlobCache.class) {
+            File dir = requireDir();
+            if (entries.containsKey(key)) {
+                touch(key);
+                return key;
+            }
+
+            // 先写临时文件再重命名，避免崩溃留下不完整的条目
+            File tmp = new File(dir, key + ".tmp");
+            try (FileOutputStream out = new FileOutputStream(tmp)) {
+                out.write(content);
+                out.getFD().sync();
+            }
+            if (!tmp.renameTo(new File(dir, key))) {
+                tmp.delete();
+                throw new IOException("保存缓存条目失败: " + key);
+            }
+
+            entries.put(key, (long) content.length);
+            totalBytes += content.length;
+            evictIfNeeded();
+        }
+        Log.d(TAG, "缓存条目已保存: " + key + ", " + content.length + "字节");
+        return key;
+    }
+
+    /**
+     * 读取内容
+     * @param key 内容哈希
+     * @return 内容，未命中时返回null
+     */
+    public static byte[] get(String key) throws IOException {
+        FileInputStream opened;
+        long length;
+        synchronized (BlobCache.class) {
+            File dir = requireDir();
+            String normalized = key == null ? null : key.toLowerCase();
+            Long size = normalized == null ? null : entries.get(normalized);
+            if (size == null) {
+                misses++;
+                return null;
+            }
+            // 持锁打开文件：之后即使被淘汰删除，已打开的文件仍可完整读出
+            try {
+                opened = new FileInputStream(new File(dir, normalized));
+            } catch (FileNotFoundException e) {
+                // 文件已在缓存之外被删除，按未命中处理并移除该条目
+                entries.remove(normalized);
+                totalBytes -= size;
+                misses++;
+                return null;
+            }
+            hits++;
+            touch(normalized);
+            length = size;
+        }
+
+        byte[] content = new byte[(int) length];
+        try (FileInputStream in = opened) {
+            int read = 0;
+            while (read < content.length) {
+                int n = in.read(content, read, content.length - read);
+                if (n < 0) {
+                    throw new IOException("缓存条目被截断: " + key);
+                }
+                read += n;
+            }
+        }
+        return content;
+    }
+
+    /**
+     * 以UTF-8文本读取内容
+     * @param key 内容哈希
+     * @return 文本，未命中时返回null
+     */
+    public static String getText(String key) throws IOException {
+        byte[] content = get(key);
+        return content == null ? null : new String(content, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 查询缺失的哈希，供上传前去重
+     * @param keys 待查询的哈希
+     * @return 缓存中不存在的哈希
+     */
+    public static synchronized List<String> findMissing(List<String> keys) {
+        List<String> missing = new ArrayList<>();
+        for (String key : keys) {
+            // containsKey不影响访问顺序
+            if (key == null || !entries.containsKey(key.toLowerCase())) {
+                missing.add(key);
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * 获取缓存统计信息
+     */
+    public static synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("entries", entries.size());
+        stats.put("totalBytes", totalBytes);
+        stats.put("maxBytes", maxBytes);
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("evictions", evictions);
+        return stats;
+    }
+
+    private static void touch(String key) {
+        entries.get(key);
+        // 持久化访问时间，重启后据此恢复LRU顺序
+        new File(cacheDir, key).setLastModified(System.currentTimeMillis());
+    }
+
+    private static void evictIfNeeded() {
+        Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            if (!new File(cacheDir, eldest.getKey()).delete()) {
+                Log.w(TAG, "删除缓存条目失败: " + eldest.getKey());
+            }
+            totalBytes -= eldest.getValue();
+            evictions++;
+            iterator.remove();
+            Log.d(TAG, "缓存条目已淘汰: " + eldest.getKey());
+        }
+    }
+
+    private static File requireDir() throws IOException {
+        if (cacheDir == null) {
+            throw new IOException("缓存未初始化");
+        }
+        return cacheDir;
+    }
+
+    private static boolean isValidHash(String name) {
+        if (name.length() != 64) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
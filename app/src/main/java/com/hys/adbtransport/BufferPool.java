@@ -0,0 +1,192 @@
+package com.hys.adbtransport;
+
+import android.util.Log;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Collections;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 传输层共享缓冲池
+ * 按大小分级缓存堆上的字节数组，读、分帧和写路径租用后归还，连接频繁建立断开时不再反复分配大块缓冲区。
+ * 每级最多缓存固定个数，池的总内存有上限；超过最大级别的请求直接分配，不进入池
+ *
+ * 开启泄漏检测（调试版本）时记录每次租用的调用栈，租约未归还就被回收时输出日志
+ */
+public final class BufferPool {
+    private static final String TAG = "BufferPool";
+
+    // 大小级别及每级最多缓存的数组数
+    private static final int[] CLASS_SIZES = {1024, 8 * 1024, 64 * 1024, 1024 * 1024};
+    private static final int[] CLASS_LIMITS = {64, 64, 16, 4};
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static final Queue<byte[]>[] free = new Queue[CLASS_SIZES.length];
+    private static final AtomicInteger[] freeCounts = new AtomicInteger[CLASS_SIZES.length];
+
+    static {
+        for (int i = 0; i < CLASS_SIZES.length; i++) {
+            free[i] = new ConcurrentLinkedQueue<>();
+            freeCounts[i] = new AtomicInteger(0);
+        }
+    }
+
+    // 泄漏检测
+    private static volatile boolean leakDetection = false;
+    private static final ReferenceQueue<Lease> collected = new ReferenceQueue<>();
+    private static final Set<LeakTracker> trackers = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+    private BufferPool() {
+    }
+
+    /**
+     * 租用的缓冲区，用完后须调用release归还
+     */
+    public static final class Lease {
+        private byte[] array;
+        private final int sizeClass;
+        private LeakTracker tracker;
+
+        private Lease(byte[] array, int sizeClass) {
+            this.array = array;
+            this.sizeClass = sizeClass;
+        }
+
+        /**
+         * 底层数组，长度不小于租用时请求的大小
+         */
+        public byte[] array() {
+            byte[] current = array;
+            if (current == null) {
+                throw new IllegalStateException("缓冲区已归还");
+            }
+            return current;
+        }
+
+        public int capacity() {
+            return array().length;
+        }
+
+        /**
+         * 归还缓冲区，之后不得再使用该数组；重复归还无效
+         */
+        public synchronized void release() {
+            byte[] current = array;
+            if (current == null) {
+                return;
+            }
+            array = null;
+            if (tracker != null) {
+                trackers.remove(tracker);
+                tracker.clear();
+                tracker = null;
+            }
+            Metrics.add("bufferPool.inUse", -1);
+            Metrics.add("bufferPool.inUseBytes", -current.length);
+            recycle(current, sizeClass);
+        }
+    }
+
+    /**
+     * 跟踪一个租约，租约对象被回收时进入引用队列
+     */
+    private static final class LeakTracker extends PhantomReference<Lease> {
+        final Throwable allocation;
+        final int size;
+
+        LeakTracker(Lease lease, int size) {
+            super(lease, collected);
+            this.allocation = new Throwable("缓冲区租用位置");
+            this.size = size;
+        }
+    }
+
+    /**
+     * 开启或关闭泄漏检测，通常只在调试版本开启
+     */
+    public static void setLeakDetection(boolean enabled) {
+        leakDetection = enabled;
+        Log.i(TAG, "缓冲区泄漏检测: " + (enabled ? "开启" : "关闭"));
+    }
+
+    public static boolean isLeakDetection() {
+        return leakDetection;
+    }
+
+    /**
+     * 租用至少minSize字节的缓冲区
+     */
+    public static Lease lease(int minSize) {
+        if (leakDetection) {
+            reportLeaks();
+        }
+
+        int sizeClass = classOf(minSize);
+        byte[] array = null;
+        if (sizeClass >= 0) {
+            array = free[sizeClass].poll();
+            if (array != null) {
+                freeCounts[sizeClass].decrementAndGet();
+                Metrics.increment("bufferPool.hits");
+            } else {
+                array = new byte[CLASS_SIZES[sizeClass]];
+                Metrics.increment("bufferPool.misses");
+            }
+        } else {
+            // 超过最大级别，直接分配，归还时丢弃
+            array = new byte[minSize];
+            Metrics.increment("bufferPool.unpooled");
+        }
+        Metrics.increment("bufferPool.inUse");
+        Metrics.add("bufferPool.inUseBytes", array.length);
+
+        Lease lease = new Lease(array, sizeClass);
+        if (leakDetection) {
+            lease.tracker = new LeakTracker(lease, array.length);
+            trackers.add(lease.tracker);
+        }
+        return lease;
+    }
+
+    /**
+     * 输出已被回收但未归还的租约
+     */
+    private static void reportLeaks() {
+        Reference<? extends Lease> reference;
+        while ((reference = collected.poll()) != null) {
+            LeakTracker tracker = (LeakTracker) reference;
+            if (trackers.remove(tracker)) {
+                Metrics.increment("bufferPool.leaks");
+                Metrics.add("bufferPool.inUse", -1);
+                Metrics.add("bufferPool.inUseBytes", -tracker.size);
+                Log.e(TAG, "缓冲区泄漏: " + tracker.size + "字节未归还", tracker.allocation);
+            }
+        }
+    }
+
+    private static void recycle(byte[] array, int sizeClass) {
+        if (sizeClass < 0 || array.length != CLASS_SIZES[sizeClass]) {
+            return;
+        }
+        // 超过该级的缓存上限时交给GC回收
+        if (freeCounts[sizeClass].incrementAndGet() > CLASS_LIMITS[sizeClass]) {
+            freeCounts[sizeClass].decrementAndGet();
+            return;
+        }
+        free[sizeClass].offer(array);
+    }
+
+    private static int classOf(int size) {
+        for (int i = 0; i < CLASS_SIZES.length; i++) {
+            if (size <= CLASS_SIZES[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
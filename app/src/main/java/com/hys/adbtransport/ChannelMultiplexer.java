@@ -0,0 +1,342 @@
+package com.hys.adbtransport;
+
+import android.util.Log;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 逻辑通道多路复用器
+ * 在单条TCP连接内承载多个逻辑通道，每个通道独立排队、独立分发，并拥有各自的流控窗口
+ *
+ * 帧格式沿用 {@link MessageHandler.Message}，通过 channel 字段区分通道；
+ * channel 缺省或为0的消息仍走原有的同步处理路径。
+ */
+public class ChannelMultiplexer {
+    private static final String TAG = "ChannelMultiplexer";
+
+    // 主通道ID，保持原有处理方式
+    public static final int MAIN_CHANNEL = 0;
+    // 默认流控窗口（帧数）
+    public static final int DEFAULT_WINDOW = 16;
+    // 单连接允许的最大通道数
+    public static final int MAX_CHANNELS = 64;
+
+    // 通道控制消息类型
+    public static final String MSG_TYPE_CHANNEL_OPEN = "channel_open";
+    public static final String MSG_TYPE_CHANNEL_OPENED = "channel_opened";
+    public static final String MSG_TYPE_CHANNEL_CLOSE = "channel_close";
+    public static final String MSG_TYPE_CHANNEL_CLOSED = "channel_closed";
+    public static final String MSG_TYPE_CHANNEL_WINDOW = "channel_window";
+
+    // 所有连接共享的通道分发线程池，通道本身不独占线程
+    private static final ExecutorService dispatchExecutor = Executors.newCachedThreadPool();
+
+    private final ConnectionManager connection;
+    private final MessageHandler messageHandler;
+    private final Map<Integer, LogicalChannel> channels = new ConcurrentHashMap<>();
+
+    public ChannelMultiplexer(ConnectionManager connection, MessageHandler messageHandler) {
+        this.connection = connection;
+        this.messageHandler = messageHandler;
+    }
+
+    /**
+     * 判断消息是否属于逻辑通道
+     */
+    public static boolean isChannelFrame(MessageHandler.Message message) {
+        return message != null && message.channel != null && message.channel != MAIN_CHANNEL;
+    }
+
+    /**
+     * 处理一帧通道消息（在连接读线程中调用，不得阻塞）
+     */
+    public void onFrame(MessageHandler.Message message) {
+        int channelId = message.channel;
+
+        if (message.type == null) {
+            sendControl(channelId, MessageHandler.MSG_TYPE_ERROR, "无效的消息格式");
+            return;
+        }
+
+        switch (message.type) {
+            case MSG_TYPE_CHANNEL_OPEN:
+                openChannel(channelId, message);
+                return;
+
+            case MSG_TYPE_CHANNEL_CLOSE:
+                closeChannel(channelId);
+                return;
+
+            case MSG_TYPE_CHANNEL_WINDOW:
+                LogicalChannel target = channels.get(channelId);
+                if (target != null) {
+                    target.grantSendCredit(readInt(message.data, "increment", 0));
+                }
+                return;
+
+            default:
+                LogicalChannel channel = channels.get(channelId);
+                if (channel == null) {
+                    sendControl(channelId, MessageHandler.MSG_TYPE_ERROR, "通道未打开: " + channelId);
+                    return;
+                }
+                channel.enqueue(message);
+        }
+    }
+
+    /**
+     * 关闭所有通道（连接断开时调用）
+     */
+    public void closeAll() {
+        for (LogicalChannel channel : channels.values()) {
+            channel.close();
+        }
+        channels.clear();
+    }
+
+    /**
+     * 获取当前打开的通道数
+     */
+    public int getChannelCount() {
+        return channels.size();
+    }
+
+    /**
+     * 获取各通道的状态信息
+     */
+    public Map<String, Object> getChannelStats() {
+        Map<String, Object> stats = new HashMap<>();
+        for (LogicalChannel channel : channels.values()) {
+            Map<String, Object> item = new HashMap<>();
+            item.put("queued", channel.inFlight.get());
+            item.put("sendCredit", channel.sendCredit);
+            item.put("pendingOutbound", channel.pendingOutbound.size());
+            stats.put(String.valueOf(channel.id), item);
+        }
+        return stats;
+    }
+
+    private void openChannel(int channelId, MessageHandler.Message message) {
+        if (channelId < 0) {
+            sendControl(channelId, MessageHandler.MSG_TYPE_ERROR, "无效的通道ID: " + channelId);
+            return;
+        }
+        if (channels.containsKey(channelId)) {
+            sendControl(channelId, MessageHandler.MSG_TYPE_ERROR, "通道已打开: " + channelId);
+            return;
+        }
+        if (channels.size() >= MAX_CHANNELS) {
+            sendControl(channelId, MessageHandler.MSG_TYPE_ERROR, "通道数量已达上限: " + MAX_CHANNELS);
+            return;
+        }
+
+        // 客户端声明的窗口即服务器可向该通道发送的帧数
+        int sendWindow = Math.max(0, readInt(message.data, "window", DEFAULT_WINDOW));
+        LogicalChannel channel = new LogicalChannel(channelId, sendWindow, DEFAULT_WINDOW);
+        channels.put(channelId, channel);
+        Log.d(TAG, "通道已打开: " + channelId + ", 发送窗口: " + sendWindow);
+
+        Map<String, Object> data = new HashMap<>();
+        data.put("window", channel.recvWindow);
+        sendControl(channelId, MSG_TYPE_CHANNEL_OPENED, data);
+    }
+
+    private void closeChannel(int channelId) {
+        LogicalChannel channel = channels.remove(channelId);
+        if (channel == null) {
+            sendControl(channelId, MessageHandler.MSG_TYPE_ERROR, "通道未打开: " + channelId);
+            return;
+        }
+        channel.close();
+        Log.d(TAG, "通道已关闭: " + channelId);
+        sendControl(channelId, MSG_TYPE_CHANNEL_CLOSED, null);
+    }
+
+    /**
+     * 发送通道控制帧，控制帧不占用流控窗口
+     * 控制帧可能在读线程中发出，入队不等待
+     */
+    private void sendControl(int channelId, String type, Object data) {
+        MessageHandler.Message frame = new MessageHandler.Message();
+        frame.type = type;
+        frame.channel = channelId;
+        frame.data = data;
+        connection.offerMessage(messageHandler.objectToJson(frame));
+    }
+
+    /**
+     * 为已序列化的JSON响应补上通道ID，避免重新解析
+     */
+    private static String tagChannel(String response, int channelId) {
+        if (response.startsWith("{") && response.length() > 2) {
+            return "{\"channel\":" + channelId + "," + response.substring(1);
+        }
+        return response;
+    }
+
+    private static int readInt(Object data, String key, int defaultValue) {
+        if (data instanceof Map) {
+            Object value = ((Map<?, ?>) data).get(key);
+            if (value instanceof Number) {
+                return ((Number) value).intValue();
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * 逻辑通道
+     * 入站消息按顺序串行处理，出站消息受客户端授予的窗口约束
+     */
+    private class LogicalChannel {
+        final int id;
+        final int recvWindow;
+        final Queue<MessageHandler.Message> inbound = new ConcurrentLinkedQueue<>();
+        final AtomicInteger inFlight = new AtomicInteger(0);
+        final AtomicBoolean scheduled = new AtomicBoolean(false);
+        final Queue<String> pendingOutbound = new ArrayDeque<>();
+        volatile boolean closed = false;
+        int sendCredit;
+        int processedSinceUpdate = 0;
+
+        LogicalChannel(int id, int sendWindow, int recvWindow) {
+            this.id = id;
+            this.sendCredit = sendWindow;
+            this.recvWindow = recvWindow;
+        }
+
+        void enqueue(MessageHandler.Message message) {
+            if (inFlight.get() >= recvWindow) {
+                Log.w(TAG, "通道" + id + "超出接收窗口，丢弃消息: " + message.id);
+                sendControl(id, MessageHandler.MSG_TYPE_ERROR, "超出通道接收窗口: " + recvWindow);
+                return;
+            }
+            inFlight.incrementAndGet();
+            inbound.offer(message);
+            schedule();
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                dispatchExecutor.execute(this::drain);
+            }
+        }
+
+        /**
+         * 串行处理该通道的入站消息，不同通道之间互不阻塞
+         */
+        private void drain() {
+            while (true) {
+                MessageHandler.Message message = inbound.poll();
+                if (message == null) {
+                    scheduled.set(false);
+                    // 复查，避免与enqueue竞争导致消息滞留
+                    if (inbound.isEmpty() || !scheduled.compareAndSet(false, true)) {
+                        return;
+                    }
+                    continue;
+                }
+
+                // 响应因发送窗口耗尽而暂存时，接收额度在响应真正发出后才归还
+                boolean deferred = false;
+                if (!closed) {
+                    try {
+                        String response = messageHandler.processMessage(message);
+                        if (response != null) {
+                            deferred = !send(tagChannel(response, id));
+                        }
+                    } catch (Exception e) {
+                        Log.e(TAG, "通道" + id + "处理消息失败: " + e.getMessage());
+                        sendControl(id, MessageHandler.MSG_TYPE_ERROR, "处理消息失败: " + e.getMessage());
+                    }
+                }
+                if (!deferred) {
+                    onFrameReleased();
+                }
+            }
+        }
+
+        /**
+         * 一帧的处理和响应都已完成，释放其占用的接收窗口
+         * 暂存的响应计入inFlight，因此pendingOutbound不会超过接收窗口
+         */
+        private void onFrameReleased() {
+            inFlight.decrementAndGet();
+            onFrameProcessed();
+        }
+
+        /**
+         * 处理完一半窗口后批量归还接收额度
+         */
+        private void onFrameProcessed() {
+            int increment = 0;
+            synchronized (this) {
+                processedSinceUpdate++;
+                if (processedSinceUpdate >= Math.max(1, recvWindow / 2)) {
+                    increment = processedSinceUpdate;
+                    processedSinceUpdate = 0;
+                }
+            }
+            if (increment > 0 && !closed) {
+                Map<String, Object> data = new HashMap<>();
+                data.put("increment", increment);
+                sendControl(id, MSG_TYPE_CHANNEL_WINDOW, data);
+            }
+        }
+
+        /**
+         * 持锁只做不等待的入队，发送顺序与窗口扣减保持一致；
+         * 发送窗口已限制了未确认的帧数，出站队列仍满说明客户端已停止读取，按慢消费者断开
+         * @return 已发出或已丢弃时返回true，因发送窗口耗尽而暂存时返回false
+         */
+        synchronized boolean send(String frame) {
+            if (closed) {
+                return true;
+            }
+            if (sendCredit > 0 && pendingOutbound.isEmpty()) {
+                sendCredit--;
+                connection.offerMessage(frame);
+                return true;
+            }
+            pendingOutbound.offer(frame);
+            return false;
+        }
+
+        /**
+         * 在读线程中调用，不得阻塞
+         */
+        void grantSendCredit(int increment) {
+            if (increment <= 0) {
+                return;
+            }
+            int released = 0;
+            synchronized (this) {
+                // 饱和相加，客户端反复授予额度也不会溢出为负数
+                sendCredit = (int) Math.min((long) sendCredit + increment, Integer.MAX_VALUE);
+                while (sendCredit > 0 && !pendingOutbound.isEmpty()) {
+                    sendCredit--;
+                    connection.offerMessage(pendingOutbound.poll());
+                    released++;
+                }
+            }
+            // 归还接收额度可能发出窗口更新，放在锁外
+            for (int i = 0; i < released; i++) {
+                onFrameReleased();
+            }
+        }
+
+        synchronized void close() {
+            closed = true;
+            inbound.clear();
+            pendingOutbound.clear();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.hys.adbtransport;
+
+import android.net.LocalSocket;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+
+/**
+ * 客户端连接端点
+ * 屏蔽TCP Socket与Unix域套接字（LocalSocket）的差异，
+ * 使两种监听方式接入的连接走同一套ConnectionManager处理流程
+ */
+public interface ClientEndpoint {
+
+    InputStream getInputStream() throws IOException;
+
+    OutputStream getOutputStream() throws IOException;
+
+    /**
+     * 对端地址，用于日志和界面显示
+     */
+    String getRemoteAddress();
+
+    boolean isClosed();
+
+    void close() throws IOException;
+
+    static ClientEndpoint of(Socket socket) {
+        return new TcpEndpoint(socket);
+    }
+
+    static ClientEndpoint of(LocalSocket socket, String address) {
+        return new LocalEndpoint(socket, address);
+    }
+
+    /**
+     * TCP连接
+     */
+    class TcpEndpoint implements ClientEndpoint {
+        private final Socket socket;
+
+        TcpEndpoint(Socket socket) {
+            this.socket = socket;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return socket.getInputStream();
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            return socket.getOutputStream();
+        }
+
+        @Override
+        public String getRemoteAddress() {
+            return String.valueOf(socket.getRemoteSocketAddress());
+        }
+
+        @Override
+        public boolean isClosed() {
+            return socket.isClosed();
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    /**
+     * Unix域套接字连接（adb forward tcp:X localabstract:name）
+     */
+    class LocalEndpoint implements ClientEndpoint {
+        private final LocalSocket socket;
+        private final String address;
+        // LocalSocket没有isClosed，自行记录
+        private volatile boolean closed = false;
+
+        LocalEndpoint(LocalSocket socket, String address) {
+            this.socket = socket;
+            this.address = address;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return socket.getInputStream();
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            return socket.getOutputStream();
+        }
+
+        @Override
+        public String getRemoteAddress() {
+            return address;
+        }
+
+        @Override
+        public boolean isClosed() {
+            return closed;
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            socket.close();
+        }
+    }
+}
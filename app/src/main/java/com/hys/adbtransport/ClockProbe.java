@@ -0,0 +1,129 @@
+package com.hys.adbtransport;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 主机与设备的时钟偏差估计（NTP方式）
+ * 每个样本包含四个时间戳：主机发出t1、设备收到t2、设备回复t3、主机收到t4。
+ * 往返时延δ = (t4 - t1) - (t3 - t2)，偏差θ = ((t2 - t1) + (t3 - t4)) / 2，即设备时钟减主机时钟。
+ * 取往返时延最小的样本估计偏差，误差不超过该样本δ/2，另加设备墙上时钟的分辨率
+ */
+public final class ClockProbe {
+
+    // 设备墙上时钟（System.currentTimeMillis）的分辨率
+    public static final double DEVICE_CLOCK_RESOLUTION_MS = 1.0;
+
+    private ClockProbe() {
+    }
+
+    /**
+     * 某一时刻（System.nanoTime()）对应的设备墙上时间，毫秒，保留小数部分
+     */
+    public static double deviceTime(long nanos) {
+        return System.currentTimeMillis() - (System.nanoTime() - nanos) / 1e6;
+    }
+
+    /**
+     * 一次探测的四个时间戳（毫秒）
+     */
+    public static class Sample {
+        final double t1;
+        final double t2;
+        final double t3;
+        final double t4;
+
+        public Sample(double t1, double t2, double t3, double t4) {
+            this.t1 = t1;
+            this.t2 = t2;
+            this.t3 = t3;
+            this.t4 = t4;
+        }
+
+        double rtt() {
+            return (t4 - t1) - (t3 - t2);
+        }
+
+        double offset() {
+            return ((t2 - t1) + (t3 - t4)) / 2;
+        }
+    }
+
+    /**
+     * 偏差估计结果
+     */
+    public static class Estimate {
+        public final double offsetMs;     // 设备时钟减主机时钟
+        public final double errorMs;      // 偏差的误差上限（最小往返时延的一半加时钟分辨率）
+        public final double rttMs;        // 所用样本的往返时延
+        public final double medianRttMs;  // 全部有效样本往返时延的中位数
+        public final int samples;         // 有效样本数
+        public final int discarded;       // 时间戳不自洽而丢弃的样本数
+        public final long syncedAt;       // 估计时的设备时间
+
+        Estimate(double offsetMs, double errorMs, double rttMs, double medianRttMs, int samples, int discarded) {
+            this.offsetMs = offsetMs;
+            this.errorMs = errorMs;
+            this.rttMs = rttMs;
+            this.medianRttMs = medianRttMs;
+            this.samples = samples;
+            this.discarded = discarded;
+            this.syncedAt = System.currentTimeMillis();
+        }
+
+        /**
+         * 设备时间换算为主机时间
+         */
+        public long toHost(long deviceMillis) {
+            return Math.round(deviceMillis - offsetMs);
+        }
+
+        public Map<String, Object> toMap() {
+            Map<String, Object> map = new HashMap<>();
+            map.put("offsetMs", offsetMs);
+            map.put("errorMs", errorMs);
+            map.put("rttMs", rttMs);
+            map.put("medianRttMs", medianRttMs);
+            map.put("samples", samples);
+            map.put("discarded", discarded);
+            map.put("syncedAt", syncedAt);
+            return map;
+        }
+    }
+
+    /**
+     * 由一组样本估计时钟偏差
+     * @throws IllegalArgumentException 没有有效样本
+     */
+    public static Estimate estimate(List<Sample> samples) {
+        Sample best = null;
+        double bestRtt = 0;
+        List<Double> rtts = new ArrayList<>();
+        int discarded = 0;
+        for (Sample sample : samples) {
+            double rtt = sample.rtt();
+            // 往返时延为负且超出设备时钟分辨率，或设备处理时间为负，说明时间戳有误
+            if (rtt < -DEVICE_CLOCK_RESOLUTION_MS || sample.t3 < sample.t2) {
+                discarded++;
+                continue;
+            }
+            rtts.add(Math.max(0, rtt));
+            if (best == null || rtt < bestRtt) {
+                best = sample;
+                bestRtt = rtt;
+            }
+        }
+        if (best == null) {
+            throw new IllegalArgumentException("没有有效的时钟样本");
+        }
+        Collections.sort(rtts);
+        int n = rtts.size();
+        double median = n % 2 == 1 ? rtts.get(n / 2) : (rtts.get(n / 2 - 1) + rtts.get(n / 2)) / 2;
+        // 分辨率内的负时延按0计
+        bestRtt = Math.max(0, bestRtt);
+        return new Estimate(best.offset(), bestRtt / 2 + DEVICE_CLOCK_RESOLUTION_MS, bestRtt, median, n, discarded);
+    }
+}
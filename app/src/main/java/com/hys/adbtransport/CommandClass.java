@@ -0,0 +1,74 @@
+package com.hys.adbtransport;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 命令类别
+ * 按开销对命令分组，限流和配额按类别配置
+ */
+public enum CommandClass {
+    // 心跳、状态查询、取消等轻量控制命令
+    CONTROL("control"),
+    // 结果、统计等只读查询
+    QUERY("query"),
+    // 提交测试或测试计划
+    TEST("test"),
+    // 产物、导出、缓存等大块数据传输
+    TRANSFER("transfer"),
+    // 初始化与配置
+    ADMIN("admin");
+
+    private static final Map<String, CommandClass> COMMANDS = new HashMap<>();
+    private static final Map<String, CommandClass> BY_NAME = new HashMap<>();
+
+    static {
+        register(CONTROL, "get_time", "test", "voice_get_status", "voice_cancel", "get_metrics",
+                "list_connections", "plan_pause", "plan_resume", "plan_abort", "clock_probe", "clock_sync");
+        register(QUERY, "get_device_info", "voice_get_result", "voice_check_result", "voice_scheduler_stats",
+                "journal_stats", "voice_query_results", "voice_get_stats", "artifact_list", "cache_missing",
+                "cache_stats", "plan_status", "plan_results", "plan_subscribe", "trace_get");
+        register(TEST, "voice_start_test", "plan_upload", "plan_start");
+        register(TRANSFER, "artifact_pull", "voice_export_results", "cache_put", "link_test");
+        register(ADMIN, "voice_init", "voice_scheduler_config", "voice_sim_config", "journal_config",
+                "server_drain", "rate_limit_config", "trace_config", "outbound_config", "admin_auth");
+        for (CommandClass commandClass : values()) {
+            BY_NAME.put(commandClass.name, commandClass);
+        }
+    }
+
+    private final String name;
+
+    CommandClass(String name) {
+        this.name = name;
+    }
+
+    private static void register(CommandClass commandClass, String... commands) {
+        for (String command : commands) {
+            COMMANDS.put(command, commandClass);
+        }
+    }
+
+    /**
+     * 协议中使用的类别名
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * 命令所属类别，未登记的命令按查询处理
+     */
+    public static CommandClass of(String command) {
+        CommandClass commandClass = command == null ? null : COMMANDS.get(command);
+        return commandClass != null ? commandClass : QUERY;
+    }
+
+    /**
+     * 按类别名查找
+     * @return 名称无效时返回null
+     */
+    public static CommandClass fromName(String name) {
+        return name == null ? null : BY_NAME.get(name);
+    }
+}
@@ -1,12 +1,25 @@
 package com.hys.adbtransport;
 
 import android.util.Log;
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 连接管理器
@@ -15,12 +28,36 @@ import java.util.concurrent.atomic.AtomicBoolean;
 public class ConnectionManager implements Runnable {
     private static final String TAG = "ConnectionManager";
     
-    private Socket clientSocket;
-    private BufferedReader reader;
-    private PrintWriter writer;
+    // 所有连接共享的出站写线程池，每个连接同一时刻最多占用一个线程
+    private static final ExecutorService writerExecutor = Executors.newCachedThreadPool();
+    private static final AtomicInteger idCounter = new AtomicInteger(0);
+    // 文本消息编码时每次写出的块大小，缓冲区从BufferPool租用
+    private static final int WRITE_CHUNK_SIZE = 8192;
+    
+    private final String id = "conn-" + idCounter.incrementAndGet();
+    private final long connectedAt = System.currentTimeMillis();
+    private final AdbServer server;
+    private ClientEndpoint clientSocket;
+    private InputStream inputStream;
+    private LineDecoder reader;
+    private OutputStream outputStream;
+    // 保证文本消息与二进制帧不会交错写出，编码器也只在持有此锁时使用
+    private final Object writeLock = new Object();
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
     private AtomicBoolean isConnected = new AtomicBoolean(false);
     private ConnectionListener listener;
     private MessageHandler messageHandler;
+    private ChannelMultiplexer channelMultiplexer;
+    private PriorityDispatcher dispatcher;
+    
+    // 有界出站队列：文本消息和广播帧按入队顺序由写线程串行写出，队列满时按消息类型的策略处理
+    private final OutboundQueue outbound = new OutboundQueue();
+    private final AtomicBoolean writerScheduled = new AtomicBoolean(false);
+    private final AtomicLong sentBytes = new AtomicLong(0);
+    // 下行链路自测进行中时不为null，控制通道请求的延迟计入其中
+    private volatile LinkTest.LoadProbe loadProbe;
     
     /**
      * 连接监听器
@@ -36,15 +73,30 @@ public class ConnectionManager implements Runnable {
     }
 
     public ConnectionManager(Socket clientSocket, ConnectionListener listener, VoiceTestSDK voiceTestSDK) {
+        this(ClientEndpoint.of(clientSocket), listener, (AdbServer) null);
+    }
+
+    /**
+     * 以通用端点创建连接，TCP与Unix域套接字共用
+     * @param server 所属服务器，可为null
+     */
+    public ConnectionManager(ClientEndpoint clientSocket, ConnectionListener listener, AdbServer server) {
         this.clientSocket = clientSocket;
+        this.server = server;
         this.listener = listener;
-        this.messageHandler = new MessageHandler();
+        this.messageHandler = new MessageHandler(this);
+        this.channelMultiplexer = new ChannelMultiplexer(this, messageHandler);
+        this.messageHandler.setChannelMultiplexer(channelMultiplexer);
+        this.dispatcher = new PriorityDispatcher(this, messageHandler);
 
         // VoiceTestSDK参数已不再使用，MessageHandler直接使用静态方法
 
         try {
-            this.reader = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-            this.writer = new PrintWriter(clientSocket.getOutputStream(), true);
+            // 收发均显式使用UTF-8，与设备默认字符集无关
+            int maxFrameLength = server != null ? server.getMaxFrameLength() : LineDecoder.DEFAULT_MAX_FRAME_LENGTH;
+            this.inputStream = clientSocket.getInputStream();
+            this.reader = new LineDecoder(inputStream, maxFrameLength);
+            this.outputStream = clientSocket.getOutputStream();
             this.isConnected.set(true);
         } catch (IOException e) {
             Log.e(TAG, "初始化连接管理器失败: " + e.getMessage());
@@ -57,21 +109,32 @@ public class ConnectionManager implements Runnable {
     @Override
     public void run() {
         if (!isConnected.get()) {
+            if (reader != null) {
+                reader.release();
+            }
             return;
         }
         
         try {
-            String inputLine;
-            while (isConnected.get() && (inputLine = reader.readLine()) != null) {
+            while (isConnected.get()) {
+                String inputLine;
+                try {
+                    inputLine = reader.readLine();
+                } catch (LineDecoder.FrameTooLongException e) {
+                    // 超长消息被丢弃，连接继续可用
+                    Log.w(TAG, "丢弃超长消息: " + e.getMessage());
+                    Metrics.increment("transport.oversizeFrames");
+                    sendMessage(messageHandler.createFrameTooLongResponse(e.maxFrameLength));
+                    continue;
+                }
+                if (inputLine == null) {
+                    break;
+                }
+                long receivedNanos = System.nanoTime();
                 Log.d(TAG, "收到消息: " + inputLine);
                 
-                // 处理接收到的消息
-                String response = messageHandler.handleMessage(inputLine);
-                
-                // 发送响应
-                if (response != null) {
-                    sendMessage(response);
-                }
+                // 按优先级分发，响应由分发通道发送
+                dispatcher.submit(inputLine, receivedNanos);
                 
                 // 通知监听器
                 if (listener != null) {
@@ -87,32 +150,275 @@ public class ConnectionManager implements Runnable {
             }
         } finally {
             closeConnection();
+            // 读循环已结束，读缓冲可以安全归还
+            reader.release();
         }
     }
     
+    /**
+     * 上行链路自测：在读线程中接收主机发送的原始数据，完成后回复结果
+     * 接收期间不读取其他消息
+     */
+    void receiveLinkUpload(MessageHandler.Message message) {
+        String result = messageHandler.handleLinkUpload(message, reader);
+        if (result != null) {
+            sendMessage(result);
+        }
+    }
+
+    LinkTest.LoadProbe getLoadProbe() {
+        return loadProbe;
+    }
+
+    void setLoadProbe(LinkTest.LoadProbe probe) {
+        this.loadProbe = probe;
+    }
+
     /**
      * 发送消息到客户端
+     * 消息进入出站队列，由写线程写出；队列满时等待，超过慢消费者时限则断开连接
+     * @return 连接已断开或因慢消费者被断开时返回false
      */
     public boolean sendMessage(String message) {
-        if (!isConnected.get() || writer == null) {
+        return sendMessage(message, null);
+    }
+
+    /**
+     * 不等待地发送消息，可在持锁时或读线程中调用
+     * 队列已满时直接视为慢消费者断开连接
+     * @return 连接已断开或因慢消费者被断开时返回false
+     */
+    public boolean offerMessage(String message) {
+        if (!isConnected.get() || outputStream == null) {
+            return false;
+        }
+        return enqueue(OutboundQueue.Frame.text(message, null), OutboundPolicy.BLOCK, false);
+    }
+
+    /**
+     * 发送请求的响应，写出并刷新后在追踪中记录written阶段并结束该追踪
+     * @param trace 请求的追踪，可为null
+     */
+    public boolean sendMessage(String message, RequestTracer.Trace trace) {
+        boolean queued = false;
+        if (!isConnected.get() || outputStream == null) {
             Log.w(TAG, "连接已断开，无法发送消息");
+        } else {
+            OutboundQueue.Frame frame = OutboundQueue.Frame.text(message, null);
+            frame.trace = trace;
+            queued = enqueue(frame, OutboundPolicy.BLOCK, true);
+            if (queued) {
+                Log.d(TAG, "发送消息: " + message);
+            }
+        }
+        if (!queued && trace != null) {
+            RequestTracer.getInstance().complete(trace, this);
+        }
+        return queued;
+    }
+
+    /**
+     * 发送事件，队列满时按该类消息的策略处理（等待、合并为最新一条或丢弃）
+     * @param type 消息类型，决定策略
+     * @param id 消息ID，同类型同ID的可合并事件只保留最新一条
+     * @return 已入队或已合并时返回true
+     */
+    public boolean sendEvent(String type, String id, String message) {
+        return sendEvent(type, id, message, true);
+    }
+
+    /**
+     * @param wait 为false时不等待：block类消息在队列满时直接视为慢消费者，用于不能被单个连接拖住的发送方
+     */
+    public boolean sendEvent(String type, String id, String message, boolean wait) {
+        if (!isConnected.get() || outputStream == null) {
             return false;
         }
-        
+        String key = id == null ? type : type + ":" + id;
+        return enqueue(OutboundQueue.Frame.text(message, key), outbound.policyFor(type), wait);
+    }
+
+    /**
+     * 按策略入队并调度写线程；慢消费者在此断开
+     */
+    private boolean enqueue(OutboundQueue.Frame frame, OutboundPolicy policy, boolean wait) {
+        switch (outbound.offer(frame, policy, wait)) {
+            case QUEUED:
+                scheduleWriter();
+                return true;
+            case COALESCED:
+                return true;
+            case SLOW_CONSUMER:
+                Log.w(TAG, "客户端读取过慢，断开连接: " + id + "，出站队列: " + outbound.getStats());
+                Metrics.increment("outbound.slowConsumerDisconnects");
+                if (listener != null) {
+                    listener.onError("客户端读取过慢，连接已断开");
+                }
+                closeConnection();
+                return false;
+            default:
+                return false;
+        }
+    }
+
+    private void scheduleWriter() {
+        if (writerScheduled.compareAndSet(false, true)) {
+            writerExecutor.execute(this::drainOutbound);
+        }
+    }
+    
+    /**
+     * 发送二进制帧：一行JSON帧头，紧跟length个原始字节
+     */
+    public boolean sendBinaryFrame(Object header, byte[] data, int offset, int length) {
+        if (!isConnected.get() || outputStream == null) {
+            Log.w(TAG, "连接已断开，无法发送二进制帧");
+            return false;
+        }
+
+        String headerJson = messageHandler.objectToJson(header);
+        List<RequestTracer.Trace> traces = new ArrayList<>();
         try {
-            writer.println(message);
-            writer.flush();
-            Log.d(TAG, "发送消息: " + message);
+            synchronized (writeLock) {
+                // 先写出已入队的消息，保持与帧的先后顺序
+                writePending(traces);
+                writeLine(headerJson);
+                outputStream.write(data, offset, length);
+                outputStream.flush();
+                sentBytes.addAndGet(length);
+            }
+            finishTraces(traces, true);
             return true;
-        } catch (Exception e) {
-            Log.e(TAG, "发送消息失败: " + e.getMessage());
+        } catch (IOException e) {
+            Log.e(TAG, "发送二进制帧失败: " + e.getMessage());
+            finishTraces(traces, false);
             if (listener != null) {
-                listener.onError("发送消息失败: " + e.getMessage());
+                listener.onError("发送二进制帧失败: " + e.getMessage());
             }
             return false;
         }
     }
-    
+
+    /**
+     * 将一行文本按UTF-8编码后写出（含换行，不刷新），须持有writeLock
+     * 在租用的缓冲区中分块编码，不为每条消息分配完整的字节数组
+     */
+    private void writeLine(String text) throws IOException {
+        BufferPool.Lease lease = BufferPool.lease(WRITE_CHUNK_SIZE);
+        try {
+            ByteBuffer out = ByteBuffer.wrap(lease.array(), 0, WRITE_CHUNK_SIZE);
+            CharBuffer in = CharBuffer.wrap(text);
+            encoder.reset();
+            CoderResult result;
+            while ((result = encoder.encode(in, out, true)).isOverflow()) {
+                writeChunk(out);
+            }
+            if (result.isError()) {
+                result.throwException();
+            }
+            while (encoder.flush(out).isOverflow()) {
+                writeChunk(out);
+            }
+            if (!out.hasRemaining()) {
+                writeChunk(out);
+            }
+            out.put((byte) '\n');
+            writeChunk(out);
+        } finally {
+            lease.release();
+        }
+    }
+
+    private void writeChunk(ByteBuffer out) throws IOException {
+        outputStream.write(out.array(), 0, out.position());
+        sentBytes.addAndGet(out.position());
+        out.clear();
+    }
+
+    /**
+     * 将已编码的帧放入出站队列，由写线程异步写出
+     * 广播时同一个字节数组被放入多个连接的队列，不会逐个重新编码；
+     * 广播方不等待，按type的策略处理队列已满的连接，需等待的消息直接视为慢消费者
+     * @param frame 完整的帧（文本消息须以换行结尾）
+     * @param type 消息类型，决定队列满时的策略
+     * @return 连接已断开或消息被丢弃时返回false
+     */
+    public boolean sendEncoded(byte[] frame, String type) {
+        if (!isConnected.get()) {
+            return false;
+        }
+        return enqueue(OutboundQueue.Frame.encoded(frame, type), outbound.policyFor(type), false);
+    }
+
+    /**
+     * 串行写出出站队列，写完一批后统一刷新
+     */
+    private void drainOutbound() {
+        while (true) {
+            List<RequestTracer.Trace> traces = new ArrayList<>();
+            try {
+                synchronized (writeLock) {
+                    writePending(traces);
+                    if (isConnected.get()) {
+                        outputStream.flush();
+                    }
+                }
+                finishTraces(traces, true);
+            } catch (IOException e) {
+                Log.e(TAG, "写出出站队列失败: " + e.getMessage());
+                finishTraces(traces, false);
+                outbound.clear();
+                if (listener != null) {
+                    listener.onError("发送消息失败: " + e.getMessage());
+                }
+            }
+
+            writerScheduled.set(false);
+            // 复查，避免与入队竞争导致帧滞留
+            if (outbound.isEmpty() || !writerScheduled.compareAndSet(false, true)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 写出队列中的所有帧（不刷新），须持有writeLock
+     * @param traces 收集已取出的帧所带的请求追踪，写出失败时同样包含已取出的部分
+     */
+    private void writePending(List<RequestTracer.Trace> traces) throws IOException {
+        OutboundQueue.Frame frame;
+        while ((frame = outbound.poll()) != null) {
+            if (frame.trace != null) {
+                traces.add(frame.trace);
+            }
+            if (!isConnected.get()) {
+                continue;
+            }
+            if (frame.text != null) {
+                writeLine(frame.text);
+            } else {
+                outputStream.write(frame.bytes);
+                sentBytes.addAndGet(frame.bytes.length);
+            }
+        }
+    }
+
+    /**
+     * 结束已写出（或写出失败）的响应所属的请求追踪，须在writeLock之外调用
+     * @param written 已写出并刷新时记录written阶段
+     */
+    private void finishTraces(List<RequestTracer.Trace> traces, boolean written) {
+        for (RequestTracer.Trace trace : traces) {
+            if (written && isConnected.get()) {
+                trace.mark(RequestTracer.STAGE_WRITTEN);
+                if (trace.loadProbe != null) {
+                    trace.loadProbe.record(trace.elapsedNanos());
+                }
+            }
+            RequestTracer.getInstance().complete(trace, this);
+        }
+    }
+
     /**
      * 发送JSON响应
      */
@@ -125,34 +431,38 @@ public class ConnectionManager implements Runnable {
      * 关闭连接
      */
     public void closeConnection() {
-        if (!isConnected.get()) {
+        if (!isConnected.compareAndSet(true, false)) {
             return;
         }
         
-        isConnected.set(false);
+        dispatcher.close();
+        outbound.close();
+        channelMultiplexer.closeAll();
+        messageHandler.onConnectionClosed();
         
+        // 先关闭Socket，唤醒阻塞在读取上的读线程
         try {
-            if (reader != null) {
-                reader.close();
+            if (clientSocket != null && !clientSocket.isClosed()) {
+                clientSocket.close();
             }
         } catch (IOException e) {
-            Log.e(TAG, "关闭输入流时出错: " + e.getMessage());
+            Log.e(TAG, "关闭客户端Socket时出错: " + e.getMessage());
         }
         
         try {
-            if (writer != null) {
-                writer.close();
+            if (inputStream != null) {
+                inputStream.close();
             }
-        } catch (Exception e) {
-            Log.e(TAG, "关闭输出流时出错: " + e.getMessage());
+        } catch (IOException e) {
+            Log.e(TAG, "关闭输入流时出错: " + e.getMessage());
         }
         
         try {
-            if (clientSocket != null && !clientSocket.isClosed()) {
-                clientSocket.close();
+            if (outputStream != null) {
+                outputStream.close();
             }
-        } catch (IOException e) {
-            Log.e(TAG, "关闭客户端Socket时出错: " + e.getMessage());
+        } catch (Exception e) {
+            Log.e(TAG, "关闭输出流时出错: " + e.getMessage());
         }
         
         Log.i(TAG, "连接已关闭");
@@ -168,12 +478,88 @@ public class ConnectionManager implements Runnable {
         return isConnected.get() && clientSocket != null && !clientSocket.isClosed();
     }
     
+    /**
+     * 连接ID，在服务器的连接表中唯一
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * 按本会话的设置序列化消息（启用时钟换算时附带主机时间）
+     */
+    public String toJson(Object message) {
+        return messageHandler.objectToJson(message);
+    }
+
+    /**
+     * 本会话是否为发出的消息附带主机时间，此时广播消息须单独序列化
+     */
+    boolean isHostTimeEnabled() {
+        return messageHandler.isHostTimeEnabled();
+    }
+
+    /**
+     * 所属服务器，未经服务器创建时为null
+     */
+    public AdbServer getServer() {
+        return server;
+    }
+
+    /**
+     * 连接信息：地址、建立时间、通道数和出站队列
+     */
+    public Map<String, Object> getInfo() {
+        Map<String, Object> info = new HashMap<>();
+        info.put("id", id);
+        info.put("address", getClientAddress());
+        info.put("connectedAt", connectedAt);
+        info.put("channels", channelMultiplexer.getChannelCount());
+        Map<String, Object> queue = outbound.getStats();
+        info.put("outboundFrames", queue.get("frames"));
+        info.put("outboundBytes", queue.get("bytes"));
+        info.put("outbound", queue);
+        info.put("sentBytes", sentBytes.get());
+        info.put("outstandingTests", messageHandler.getRateLimiter().getOutstandingTests());
+        info.put("lanes", dispatcher.getStats());
+        return info;
+    }
+
+    /**
+     * 出站队列的容量、占用与丢弃/合并计数
+     */
+    public Map<String, Object> getOutboundStats() {
+        return outbound.getStats();
+    }
+
+    /**
+     * 修改本连接出站队列的容量与慢消费者时限
+     * @throws IllegalArgumentException 超出允许范围时
+     */
+    public void configureOutbound(int maxFrames, long maxBytes, long slowConsumerTimeoutMs) {
+        outbound.configure(maxFrames, maxBytes, slowConsumerTimeoutMs);
+    }
+
+    /**
+     * 设置本连接某类消息的溢出策略
+     */
+    public void setOutboundPolicy(String type, OutboundPolicy policy) {
+        outbound.setPolicy(type, policy);
+    }
+
+    /**
+     * 出站队列中尚未写出的帧数
+     */
+    public int getPendingFrames() {
+        return outbound.size();
+    }
+
     /**
      * 获取客户端地址
      */
     public String getClientAddress() {
         if (clientSocket != null) {
-            return clientSocket.getRemoteSocketAddress().toString();
+            return clientSocket.getRemoteAddress();
         }
         return "未知";
     }
@@ -0,0 +1,188 @@
+package com.hys.adbtransport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 按行读取UTF-8消息的解码器
+ * 直接在字节层面查找换行，读缓冲和行缓冲在消息之间复用；
+ * 单行超过最大帧长时不再缓存其内容，丢弃到下一个换行为止，内存占用与客户端发送的数据量无关
+ *
+ * 读缓冲和行缓冲从BufferPool租用，不再使用时须调用release归还
+ */
+public class LineDecoder {
+
+    // 默认最大帧长（字节，不含换行）
+    public static final int DEFAULT_MAX_FRAME_LENGTH = 4 * 1024 * 1024;
+
+    private static final int READ_BUFFER_SIZE = 8192;
+    private static final int INITIAL_LINE_BUFFER_SIZE = 1024;
+    // 行缓冲超过此大小时用完即释放，避免少数大消息让每个连接长期占用大块内存
+    private static final int RETAINED_LINE_BUFFER_SIZE = 64 * 1024;
+
+    private final InputStream in;
+    private final int maxFrameLength;
+    private final BufferPool.Lease readLease = BufferPool.lease(READ_BUFFER_SIZE);
+    private final byte[] readBuffer = readLease.array();
+    private int readPos = 0;
+    private int readLimit = 0;
+    private BufferPool.Lease lineLease = BufferPool.lease(INITIAL_LINE_BUFFER_SIZE);
+    private byte[] lineBuffer = lineLease.array();
+    private int lineLength = 0;
+    // 正在丢弃超长帧的剩余部分
+    private boolean discarding = false;
+
+    /**
+     * 帧超过最大长度，该帧的剩余部分会被丢弃，连接可继续使用
+     */
+    public static class FrameTooLongException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public final int maxFrameLength;
+
+        FrameTooLongException(int maxFrameLength) {
+            super("消息超过最大长度: " + maxFrameLength + "字节");
+            this.maxFrameLength = maxFrameLength;
+        }
+    }
+
+    public LineDecoder(InputStream in, int maxFrameLength) {
+        if (maxFrameLength < 1) {
+            throw new IllegalArgumentException("最大帧长至少为1字节");
+        }
+        this.in = in;
+        this.maxFrameLength = maxFrameLength;
+    }
+
+    /**
+     * 读取一行（不含行尾的\n或\r\n）
+     * @return 一行文本，流结束时返回null（结尾不完整的一行仍会返回）
+     * @throws FrameTooLongException 当前行超过最大帧长，再次调用会跳过该行的剩余部分
+     */
+    public String readLine() throws IOException {
+        while (true) {
+            if (readPos == readLimit && !fill()) {
+                if (discarding || lineLength == 0) {
+                    discarding = false;
+                    return null;
+                }
+                return takeLine();
+            }
+
+            // 在已读入的字节中查找换行
+            int start = readPos;
+            int newline = -1;
+            for (int i = start; i < readLimit; i++) {
+                if (readBuffer[i] == '\n') {
+                    newline = i;
+                    break;
+                }
+            }
+            int end = newline >= 0 ? newline : readLimit;
+            readPos = newline >= 0 ? newline + 1 : readLimit;
+
+            if (discarding) {
+                if (newline >= 0) {
+                    discarding = false;
+                }
+                continue;
+            }
+
+            int count = end - start;
+            if (lineLength + count > maxFrameLength) {
+                // 已缓存的部分一并作废，剩余部分不再缓存
+                lineLength = 0;
+                shrinkLineBuffer();
+                discarding = newline < 0;
+                throw new FrameTooLongException(maxFrameLength);
+            }
+            append(start, count);
+            if (newline >= 0) {
+                return takeLine();
+            }
+        }
+    }
+
+    /**
+     * 读取原始字节：先返回已缓冲的数据，再直接从流中读取
+     * 用于文本帧头之后紧跟的二进制数据
+     * @return 读取的字节数，流结束时返回-1
+     */
+    public int readRaw(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (readPos < readLimit) {
+            int count = Math.min(length, readLimit - readPos);
+            System.arraycopy(readBuffer, readPos, buffer, offset, count);
+            readPos += count;
+            return count;
+        }
+        return in.read(buffer, offset, length);
+    }
+
+    public int getMaxFrameLength() {
+        return maxFrameLength;
+    }
+
+    /**
+     * 归还读缓冲和行缓冲，之后不得再读取
+     * 须在读线程中调用（读循环结束后），避免缓冲区归还后仍被写入
+     */
+    public void release() {
+        if (lineLease == null) {
+            return;
+        }
+        readLease.release();
+        lineLease.release();
+        lineLease = null;
+    }
+
+    private boolean fill() throws IOException {
+        int count = in.read(readBuffer, 0, readBuffer.length);
+        if (count <= 0) {
+            readPos = 0;
+            readLimit = 0;
+            return false;
+        }
+        readPos = 0;
+        readLimit = count;
+        return true;
+    }
+
+    private void append(int start, int count) {
+        if (lineLength + count > lineBuffer.length) {
+            // 按倍数扩容，不超过最大帧长
+            int capacity = Math.min(maxFrameLength, Math.max(lineBuffer.length * 2, lineLength + count));
+            BufferPool.Lease grown = BufferPool.lease(capacity);
+            System.arraycopy(lineBuffer, 0, grown.array(), 0, lineLength);
+            replaceLineBuffer(grown);
+        }
+        System.arraycopy(readBuffer, start, lineBuffer, lineLength, count);
+        lineLength += count;
+    }
+
+    private String takeLine() {
+        int length = lineLength;
+        if (length > 0 && lineBuffer[length - 1] == '\r') {
+            length--;
+        }
+        lineLength = 0;
+        String line = new String(lineBuffer, 0, length, StandardCharsets.UTF_8);
+        shrinkLineBuffer();
+        return line;
+    }
+
+    private void shrinkLineBuffer() {
+        if (lineBuffer.length > RETAINED_LINE_BUFFER_SIZE) {
+            replaceLineBuffer(BufferPool.lease(INITIAL_LINE_BUFFER_SIZE));
+        }
+    }
+
+    private void replaceLineBuffer(BufferPool.Lease lease) {
+        lineLease.release();
+        lineLease = lease;
+        lineBuffer = lease.array();
+    }
+}
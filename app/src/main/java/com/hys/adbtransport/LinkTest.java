@@ -0,0 +1,198 @@
+package com.hys.adbtransport;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 链路吞吐自测
+ * 下行（设备到主机）：服务器按指定帧大小连续发送生成的数据，每帧为一行帧头加原始字节；
+ * 上行（主机到设备）：服务器回复就绪后，直接从连接读取指定字节数的原始数据并丢弃。
+ * 数据不经JSON编解码，测得的是链路本身能维持的速率
+ */
+public final class LinkTest {
+
+    public static final String DIRECTION_DOWN = "down";
+    public static final String DIRECTION_UP = "up";
+
+    public static final long DEFAULT_TOTAL_BYTES = 16L * 1024 * 1024;
+    public static final long MAX_TOTAL_BYTES = 1024L * 1024 * 1024;
+    public static final int DEFAULT_FRAME_SIZE = 64 * 1024;
+
+    /** 上行测试的计时起点 */
+    public static final String TIMED_FROM_FIRST_READ = "first_read";
+    public static final String TIMED_FROM_READY = "ready";
+
+    private LinkTest() {
+    }
+
+    /**
+     * 是否为上行测试命令（须在读线程中直接处理）
+     */
+    static boolean isUpload(MessageHandler.Message message) {
+        if (message == null || !MessageHandler.MSG_TYPE_COMMAND.equals(message.type)
+                || !(message.data instanceof Map) || !"link_test".equals(MessageHandler.commandOf(message))) {
+            return false;
+        }
+        return DIRECTION_UP.equals(((Map<?, ?>) message.data).get("direction"));
+    }
+
+    /**
+     * 校验测试参数
+     * @throws IllegalArgumentException 参数超出范围
+     */
+    static void validate(long totalBytes, int frameSize) {
+        if (totalBytes < 1 || totalBytes > MAX_TOTAL_BYTES) {
+            throw new IllegalArgumentException("totalBytes须在1到" + MAX_TOTAL_BYTES + "之间");
+        }
+        if (frameSize < 1 || frameSize > ArtifactStore.MAX_CHUNK_SIZE) {
+            throw new IllegalArgumentException("frameSize须在1到" + ArtifactStore.MAX_CHUNK_SIZE + "之间");
+        }
+    }
+
+    /**
+     * 负载下的延迟统计：下行测试期间，本连接控制通道上的请求从读到至响应写出的耗时
+     */
+    static final class LoadProbe {
+        private long count;
+        private long totalNanos;
+        private long maxNanos;
+
+        synchronized void record(long nanos) {
+            count++;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+        }
+
+        synchronized void addTo(Map<String, Object> result) {
+            result.put("controlRequests", count);
+            if (count > 0) {
+                result.put("avgControlLatencyMs", totalNanos / count / 1000 / 1000.0);
+                result.put("maxControlLatencyMs", maxNanos / 1000 / 1000.0);
+            }
+        }
+    }
+
+    /**
+     * 下行测试：发送totalBytes字节，每帧frameSize字节
+     * 帧内容为字节序号的低8位，主机可据此校验；
+     * 测试期间本连接控制通道上的请求（如ping）计入负载下的延迟
+     */
+    static Map<String, Object> sendDown(ConnectionManager connection, String requestId,
+                                        long totalBytes, int frameSize) throws IOException {
+        BufferPool.Lease lease = BufferPool.lease(frameSize);
+        LoadProbe probe = new LoadProbe();
+        connection.setLoadProbe(probe);
+        try {
+            byte[] buffer = lease.array();
+            for (int i = 0; i < frameSize; i++) {
+                buffer[i] = (byte) i;
+            }
+
+            long sent = 0;
+            long frames = 0;
+            long totalWriteNanos = 0;
+            long maxWriteNanos = 0;
+            long start = System.nanoTime();
+            while (sent < totalBytes) {
+                int length = (int) Math.min(frameSize, totalBytes - sent);
+                MessageHandler.Message header = new MessageHandler.Message();
+                header.type = MessageHandler.MSG_TYPE_LINK_DATA;
+                header.id = requestId;
+                Map<String, Object> data = new HashMap<>();
+                data.put("seq", frames);
+                data.put("length", length);
+                header.data = data;
+
+                // 单帧写出耗时反映主机读取跟不上时的背压
+                long writeStart = System.nanoTime();
+                if (!connection.sendBinaryFrame(header, buffer, 0, length)) {
+                    throw new IOException("连接已断开，下行测试中止于: " + sent + "字节");
+                }
+                long writeNanos = System.nanoTime() - writeStart;
+                totalWriteNanos += writeNanos;
+                maxWriteNanos = Math.max(maxWriteNanos, writeNanos);
+                sent += length;
+                frames++;
+            }
+            long elapsedNanos = System.nanoTime() - start;
+
+            Map<String, Object> result = summary(DIRECTION_DOWN, sent, sent, frames, frameSize, elapsedNanos);
+            result.put("avgFrameWriteMs", totalWriteNanos / frames / 1000 / 1000.0);
+            result.put("maxFrameWriteMs", maxWriteNanos / 1000 / 1000.0);
+            probe.addTo(result);
+            return result;
+        } finally {
+            connection.setLoadProbe(null);
+            lease.release();
+        }
+    }
+
+    /**
+     * 上行测试：从连接读取totalBytes字节原始数据
+     * 计时从第一次读到数据开始，不包含主机收到就绪回复之前的时间；第一次读到的字节不计入速率。
+     * 只读了一次时该区间为空，改为从就绪回复发出时开始计时，所有字节计入速率，结果偏低
+     * @param readyNanos 就绪回复发出时的System.nanoTime()
+     */
+    static Map<String, Object> receiveUp(LineDecoder reader, long totalBytes, int frameSize,
+                                         long readyNanos) throws IOException {
+        BufferPool.Lease lease = BufferPool.lease(frameSize);
+        try {
+            byte[] buffer = lease.array();
+            long received = 0;
+            long reads = 0;
+            long start = 0;
+            long last = 0;
+            long firstCount = 0;
+            long maxGapNanos = 0;
+            while (received < totalBytes) {
+                int count = reader.readRaw(buffer, 0, (int) Math.min(frameSize, totalBytes - received));
+                if (count < 0) {
+                    throw new EOFException("连接已关闭，上行测试中止于: " + received + "字节");
+                }
+                long now = System.nanoTime();
+                if (reads == 0) {
+                    start = now;
+                    firstCount = count;
+                } else {
+                    // 两次读取之间的最长间隔，反映链路停顿
+                    maxGapNanos = Math.max(maxGapNanos, now - last);
+                }
+                last = now;
+                received += count;
+                reads++;
+            }
+
+            long frames = (totalBytes + frameSize - 1) / frameSize;
+            boolean fromReady = reads < 2;
+            Map<String, Object> result = fromReady
+                    ? summary(DIRECTION_UP, received, received, frames, frameSize, last - readyNanos)
+                    : summary(DIRECTION_UP, received, received - firstCount, frames, frameSize, last - start);
+            result.put("timedFrom", fromReady ? TIMED_FROM_READY : TIMED_FROM_FIRST_READ);
+            result.put("reads", reads);
+            result.put("maxStallMs", maxGapNanos / 1000 / 1000.0);
+            return result;
+        } finally {
+            lease.release();
+        }
+    }
+
+    /**
+     * @param timedBytes 计时区间内传输的字节数，用于计算速率
+     */
+    private static Map<String, Object> summary(String direction, long bytes, long timedBytes, long frames,
+                                               int frameSize, long elapsedNanos) {
+        // 避免极小数据量时除以0
+        double seconds = Math.max(elapsedNanos, 1000) / 1e9;
+        Map<String, Object> result = new HashMap<>();
+        result.put("direction", direction);
+        result.put("bytes", bytes);
+        result.put("frames", frames);
+        result.put("frameSize", frameSize);
+        result.put("elapsedMs", elapsedNanos / 1000 / 1000.0);
+        result.put("bytesPerSec", Math.round(timedBytes / seconds));
+        result.put("framesPerSec", Math.round(frames * ((double) timedBytes / bytes) / seconds * 10) / 10.0);
+        return result;
+    }
+}
@@ -1,7 +1,12 @@
 package com.hys.adbtransport;
 
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.IBinder;
 import android.os.Looper;
 import android.text.method.ScrollingMovementMethod;
 import android.widget.Button;
@@ -19,14 +24,30 @@ import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicInteger;
 
 public class MainActivity extends AppCompatActivity implements AdbServer.ServerListener {
 
-    private AdbServer adbServer;
+    // 服务器和SDK由服务持有，Activity只是绑定的客户端
+    private AdbServerService serverService;
     private Handler mainHandler;
-    private AtomicInteger connectionCount = new AtomicInteger(0);
-    private VoiceTestSDK voiceTestSDK;
+
+    private final ServiceConnection serviceConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            serverService = ((AdbServerService.LocalBinder) binder).getService();
+            serverService.addServerListener(MainActivity.this);
+            appendLog("已连接服务器服务，默认端口: " + serverService.getServer().getPort());
+            etPort.setText(String.valueOf(serverService.getServer().getPort()));
+            watchSdkReady();
+            updateUI();
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            serverService = null;
+            updateUI();
+        }
+    };
 
     // UI组件
     private TextView tvStatus;
@@ -58,11 +79,9 @@ public class MainActivity extends AppCompatActivity implements AdbServer.ServerL
         initServer();
         setupClickListeners();
 
-        // 自动启动服务器
-        autoStartServer();
-
-        // 自动初始化语音SDK
-        autoInitVoiceSDK();
+        // 服务器在服务中运行，Activity重建时不会重启
+        AdbServerService.start(this);
+        bindService(new Intent(this, AdbServerService.class), serviceConnection, Context.BIND_AUTO_CREATE);
     }
 
     private void initViews() {
@@ -87,19 +106,11 @@ public class MainActivity extends AppCompatActivity implements AdbServer.ServerL
     }
 
     private void initServer() {
-        adbServer = new AdbServer();
-        adbServer.setServerListener(this);
-
-        // 初始化VoiceTestSDK
-        voiceTestSDK = new VoiceTestSDK();
-
-        appendLog("ADB Transport Server 初始化完成");
-        appendLog("语音测试SDK 已创建");
-        appendLog("默认端口: " + adbServer.getPort());
+        appendLog("ADB Transport Server 启动中（后台服务）");
         appendLog("使用说明:");
         appendLog("1. 设置端口号（默认9999）");
         appendLog("2. 点击'启动服务器'");
-        appendLog("3. 在PC端执行: adb forward tcp:LOCAL_PORT tcp:" + adbServer.getPort());
+        appendLog("3. 在PC端执行: adb forward tcp:LOCAL_PORT tcp:9999");
         appendLog("4. PC端即可通过LOCAL_PORT与Android通信");
         appendLog("5. 使用语音测试按钮测试语音功能");
         appendLog("6. PC端可通过JSON命令调用语音测试功能");
@@ -119,57 +130,21 @@ public class MainActivity extends AppCompatActivity implements AdbServer.ServerL
     }
 
     /**
-     * 自动启动服务器
+     * 等待服务中的启动流水线完成SDK初始化
      */
-    private void autoStartServer() {
-        // 延迟一点时间确保UI初始化完成
-        mainHandler.postDelayed(() -> {
-            try {
-                int defaultPort = 9999; // 默认端口
-                etPort.setText(String.valueOf(defaultPort));
-
-                appendLog("🚀 应用启动，自动启动服务器...");
-                adbServer.setPort(defaultPort);
-                adbServer.start();
-
-            } catch (Exception e) {
-                appendLog("❌ 自动启动服务器失败: " + e.getMessage());
-                Toast.makeText(this, "自动启动服务器失败", Toast.LENGTH_SHORT).show();
+    private void watchSdkReady() {
+        StartupPipeline.getInstance().getSdkReady().whenComplete((ignored, error) -> mainHandler.post(() -> {
+            if (isFinishing() || isDestroyed()) {
+                return;
             }
-        }, 500); // 延迟500毫秒
-    }
-
-    /**
-     * 自动初始化语音SDK
-     */
-    private void autoInitVoiceSDK() {
-        // 延迟一点时间确保服务器启动完成
-        mainHandler.postDelayed(() -> {
-            try {
-                if (voiceTestSDK == null) {
-                    appendLog("❌ 语音测试SDK未创建");
-                    return;
-                }
-
-                appendLog("🎤 应用启动，自动初始化语音测试SDK...");
-
-                voiceTestSDK.initSDK(getApplication(), this);
-
-                if (VoiceTestSDK.isSDKInitialized()) {
-                    appendLog("✅ 语音测试SDK自动初始化成功");
-                    Toast.makeText(this, "语音测试SDK已就绪", Toast.LENGTH_SHORT).show();
-                } else {
-                    appendLog("❌ 语音测试SDK自动初始化失败");
-                    Toast.makeText(this, "语音测试SDK初始化失败", Toast.LENGTH_SHORT).show();
-                }
-
-                updateUI();
-
-            } catch (Exception e) {
-                appendLog("❌ 自动初始化语音测试SDK异常: " + e.getMessage());
-                Toast.makeText(this, "语音测试SDK初始化异常", Toast.LENGTH_SHORT).show();
+            if (error == null) {
+                appendLog("✅ 语音测试SDK已就绪");
+            } else {
+                appendLog("❌ 语音测试SDK自动初始化失败: " + error.getMessage());
+                Toast.makeText(this, "语音测试SDK初始化失败", Toast.LENGTH_SHORT).show();
             }
-        }, 600); // 延迟600毫秒，确保服务器先启动
+            updateUI();
+        }));
     }
 
     private void startServer() {
@@ -180,8 +155,11 @@ public class MainActivity extends AppCompatActivity implements AdbServer.ServerL
                 return;
             }
 
-            adbServer.setPort(port);
-            adbServer.start();
+            if (serverService == null) {
+                Toast.makeText(this, "服务未连接", Toast.LENGTH_SHORT).show();
+                return;
+            }
+            serverService.startServer(port);
 
         } catch (NumberFormatException e) {
             Toast.makeText(this, "请输入有效的端口号", Toast.LENGTH_SHORT).show();
@@ -192,8 +170,8 @@ public class MainActivity extends AppCompatActivity implements AdbServer.ServerL
     }
 
     private void stopServer() {
-        if (adbServer != null) {
-            adbServer.stop();
+        if (serverService != null) {
+            serverService.stopServer();
         }
     }
 
@@ -205,12 +183,13 @@ public class MainActivity extends AppCompatActivity implements AdbServer.ServerL
 
     private void updateUI() {
         mainHandler.post(() -> {
-            boolean isRunning = adbServer != null && adbServer.isRunning();
+            boolean isRunning = serverService != null && serverService.getServer().isRunning();
             boolean voiceSDKInitialized = VoiceTestSDK.isSDKInitialized();
 
             String serverStatus = isRunning ? getString(R.string.server_running) : getString(R.string.server_stopped);
             tvStatus.setText(getString(R.string.server_status_format, serverStatus));
-            tvConnections.setText(getString(R.string.connection_count_format, connectionCount.get()));
+            int connections = serverService == null ? 0 : serverService.getConnectionCount();
+            tvConnections.setText(getString(R.string.connection_count_format, connections));
 
             // 更新语音SDK状态显示
             String voiceStatus = voiceSDKInitialized ? getString(R.string.voice_sdk_initialized) : getString(R.string.voice_sdk_not_initialized);
@@ -225,7 +204,7 @@ public class MainActivity extends AppCompatActivity implements AdbServer.ServerL
             btnVoiceInit.setEnabled(!voiceSDKInitialized);
             btnVoiceTest.setEnabled(voiceSDKInitialized);
             btnVoiceResult.setEnabled(voiceSDKInitialized);
-            btnVoiceStatus.setEnabled(voiceTestSDK != null);
+            btnVoiceStatus.setEnabled(true);
         });
     }
 
@@ -254,20 +233,17 @@ public class MainActivity extends AppCompatActivity implements AdbServer.ServerL
     @Override
     public void onServerStopped() {
         appendLog("✗ 服务器已停止");
-        connectionCount.set(0);
         updateUI();
     }
 
     @Override
     public void onClientConnected(String clientAddress) {
-        connectionCount.incrementAndGet();
         appendLog("✓ 客户端连接: " + clientAddress);
         updateUI();
     }
 
     @Override
     public void onClientDisconnected(String clientAddress) {
-        connectionCount.decrementAndGet();
         appendLog("✗ 客户端断开: " + clientAddress);
         updateUI();
     }
@@ -289,29 +265,19 @@ public class MainActivity extends AppCompatActivity implements AdbServer.ServerL
      * 初始化语音测试SDK
      */
     private void initializeVoiceSDK() {
-        if (voiceTestSDK == null) {
-            appendLog("❌ 语音测试SDK未创建");
-            return;
-        }
-
         appendLog("🔄 开始初始化语音测试SDK...");
         btnVoiceInit.setEnabled(false);
 
-        try {
-            voiceTestSDK.initSDK(getApplication(), this);
-
-            if (VoiceTestSDK.isSDKInitialized()) {
+        // 在后台初始化，完成后回到UI线程更新状态
+        StartupPipeline.getInstance().initializeSdk().whenComplete((ignored, error) -> mainHandler.post(() -> {
+            if (error == null) {
                 appendLog("✅ 语音测试SDK初始化成功");
             } else {
-                appendLog("❌ 语音测试SDK初始化失败");
+                appendLog("❌ 语音测试SDK初始化失败: " + error.getMessage());
                 btnVoiceInit.setEnabled(true);
             }
-        } catch (Exception e) {
-            appendLog("❌ 语音测试SDK初始化异常: " + e.getMessage());
-            btnVoiceInit.setEnabled(true);
-        }
-
-        updateUI();
+            updateUI();
+        }));
     }
 
     /**
@@ -335,7 +301,7 @@ public class MainActivity extends AppCompatActivity implements AdbServer.ServerL
         btnVoiceTest.setEnabled(false);
 
         try {
-            VoiceTestSDK.startTest(title, area);
+            ZoneScheduler.getInstance().submit(title, area, null);
             appendLog("✅ 语音测试已启动，请等待结果...");
 
             // 启动结果检查定时器
@@ -359,8 +325,8 @@ public class MainActivity extends AppCompatActivity implements AdbServer.ServerL
         }
 
         try {
-            if (VoiceTestSDK.ifRetrunAns()) {
-                String result = VoiceTestSDK.getAns();
+            String result = VoiceTestSDK.getAns();
+            if (result != null) {
                 appendLog("📋 语音测试结果:");
 
                 // 解析结果格式: "结果,执行ID"
@@ -421,11 +387,12 @@ public class MainActivity extends AppCompatActivity implements AdbServer.ServerL
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        if (adbServer != null && adbServer.isRunning()) {
-            adbServer.stop();
-        }
-        if (voiceTestSDK != null) {
-            VoiceTestSDK.release();
+        // 只解除绑定，服务器和SDK继续在服务中运行
+        if (serverService != null) {
+            serverService.removeServerListener(this);
+            serverService = null;
         }
+        unbindService(serviceConnection);
+        mainHandler.removeCallbacksAndMessages(null);
     }
 }
\ No newline at end of file
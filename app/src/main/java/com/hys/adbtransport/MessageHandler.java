@@ -1,12 +1,22 @@
 package com.hys.adbtransport;
 
+import android.util.Base64;
 import android.util.Log;
 import com.google.gson.Gson;
+import com.google.gson.JsonObject;
 import com.google.gson.JsonSyntaxException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.List;
+import java.util.Locale;
 
 /**
  * 消息处理器
@@ -15,8 +25,18 @@ import java.util.List;
 public class MessageHandler {
     private static final String TAG = "MessageHandler";
     private Gson gson;
+    private final ConnectionManager connection;
 
     private final Map<String, String> pendingOperations = new ConcurrentHashMap<>();
+    private ChannelMultiplexer channelMultiplexer;
+    private TestPlanEngine.PlanListener planListener;
+    // 本会话的限流器
+    private final RateLimiter rateLimiter = new RateLimiter();
+    // 本会话已出示管理口令
+    private volatile boolean admin = false;
+    // 本会话的时钟偏差估计，启用换算后响应附带主机时间
+    private volatile ClockProbe.Estimate clockEstimate;
+    private volatile boolean hostTimestamps = false;
 
     // 消息类型常量
     public static final String MSG_TYPE_PING = "ping";
@@ -27,37 +47,141 @@ public class MessageHandler {
 
     public static final String MSG_TYPE_VOICE_PROGRESS = "voice_progress";
     public static final String MSG_TYPE_VOICE_COMPLETE = "voice_complete";
+
+    public static final String MSG_TYPE_FILE_CHUNK = "file_chunk";
+    public static final String MSG_TYPE_FILE_COMPLETE = "file_complete";
+
+    public static final String MSG_TYPE_EXPORT_CHUNK = "export_chunk";
+    public static final String MSG_TYPE_EXPORT_COMPLETE = "export_complete";
+
+    public static final String MSG_TYPE_PLAN_PROGRESS = "plan_progress";
+    public static final String MSG_TYPE_PLAN_RESULT = "plan_result";
+    public static final String MSG_TYPE_PLAN_COMPLETE = "plan_complete";
+
+    public static final String MSG_TYPE_SERVER_GOING_AWAY = "server_going_away";
+    // 请求追踪：含异步阶段的追踪结束后补发
+    public static final String MSG_TYPE_TRACE = "trace";
+    // 链路吞吐自测
+    public static final String MSG_TYPE_LINK_DATA = "link_data";
+    public static final String MSG_TYPE_LINK_TEST_RESULT = "link_test_result";
+
+    // 限流错误类别
+    public static final String ERROR_RATE_LIMITED = "RATE_LIMITED";
+    public static final String ERROR_QUOTA_EXCEEDED = "QUOTA_EXCEEDED";
+    public static final String ERROR_QUEUE_FULL = "QUEUE_FULL";
+    public static final String ERROR_FRAME_TOO_LONG = "FRAME_TOO_LONG";
+
+    // voice_init等待SDK初始化的默认时限，也是允许的最大时限
+    private static final long VOICE_INIT_TIMEOUT_MS = 10000;
     
     public MessageHandler() {
+        this(null);
+    }
+
+    public MessageHandler(ConnectionManager connection) {
         this.gson = new Gson();
+        this.connection = connection;
     }
 
+    /**
+     * 设置逻辑通道多路复用器，带channel字段的消息将交由其分发
+     */
+    public void setChannelMultiplexer(ChannelMultiplexer channelMultiplexer) {
+        this.channelMultiplexer = channelMultiplexer;
+    }
 
     
+    /**
+     * 连接关闭时释放该连接持有的订阅
+     */
+    public void onConnectionClosed() {
+        if (planListener != null) {
+            TestPlanEngine.getInstance().removeListener(planListener);
+            planListener = null;
+        }
+    }
+
     /**
      * 处理接收到的消息
      */
     public String handleMessage(String rawMessage) {
+        return handleMessage(rawMessage, parse(rawMessage));
+    }
+
+    /**
+     * 处理已解析的消息
+     * @param message 解析结果，为null表示不是JSON消息
+     */
+    String handleMessage(String rawMessage, Message message) {
         if (rawMessage == null || rawMessage.trim().isEmpty()) {
             return createErrorResponse("空消息");
         }
-        
-        try {
-            // 尝试解析为JSON
-            Message message = gson.fromJson(rawMessage, Message.class);
-            return processMessage(message);
-            
-        } catch (JsonSyntaxException e) {
+        if (message == null) {
             // 如果不是JSON格式，作为普通文本处理
             Log.d(TAG, "收到非JSON消息，作为文本处理: " + rawMessage);
             return handleTextMessage(rawMessage);
         }
+
+        // 逻辑通道消息异步分发，响应由通道自行发送
+        if (channelMultiplexer != null && ChannelMultiplexer.isChannelFrame(message)) {
+            channelMultiplexer.onFrame(message);
+            return null;
+        }
+        return processMessage(message);
+    }
+
+    /**
+     * 尝试解析为JSON消息
+     * @return 不是JSON时返回null
+     */
+    Message parse(String rawMessage) {
+        if (rawMessage == null) {
+            return null;
+        }
+        try {
+            return gson.fromJson(rawMessage, Message.class);
+        } catch (JsonSyntaxException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 控制与健康检查类消息：ping、echo和控制类命令
+     */
+    static boolean isControlMessage(Message message) {
+        if (message == null || message.type == null) {
+            return false;
+        }
+        switch (message.type) {
+            case MSG_TYPE_PING:
+            case MSG_TYPE_ECHO:
+                return true;
+            case MSG_TYPE_COMMAND:
+                return CommandClass.of(commandOf(message)) == CommandClass.CONTROL;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * 提取命令名：字符串命令直接使用，JSON命令取command字段
+     * @return 缺少命令时返回null
+     */
+    static String commandOf(Message message) {
+        if (message.data == null) {
+            return null;
+        }
+        if (message.data instanceof Map) {
+            Object commandObj = ((Map<?, ?>) message.data).get("command");
+            return commandObj != null ? commandObj.toString() : null;
+        }
+        return message.data.toString();
     }
     
     /**
      * 处理JSON消息
      */
-    private String processMessage(Message message) {
+    String processMessage(Message message) {
         if (message == null || message.type == null) {
             return createErrorResponse("无效的消息格式");
         }
@@ -110,27 +234,22 @@ public class MessageHandler {
             return createErrorResponse("命令数据为空");
         }
 
-        String command;
-
-        // 处理不同类型的命令数据
-        if (message.data instanceof String) {
-            // 简单字符串命令
-            command = (String) message.data;
-        } else if (message.data instanceof Map) {
-            // 复杂JSON命令，提取command字段
-            Map<?, ?> dataMap = (Map<?, ?>) message.data;
-            Object commandObj = dataMap.get("command");
-            if (commandObj != null) {
-                command = commandObj.toString();
-            } else {
-                return createErrorResponse("JSON命令中缺少command字段");
-            }
-        } else {
-            command = message.data.toString();
+        // 简单字符串命令直接使用，复杂JSON命令提取command字段
+        String command = commandOf(message);
+        if (command == null) {
+            return createErrorResponse("JSON命令中缺少command字段");
         }
 
         Log.d(TAG, "执行命令: " + command);
 
+        // 按会话和命令类别限流
+        CommandClass commandClass = CommandClass.of(command);
+        long retryAfterMs = rateLimiter.tryAcquire(commandClass);
+        if (retryAfterMs > 0) {
+            return createRateLimitErrorResponse(message.id, ERROR_RATE_LIMITED,
+                    "请求过于频繁: " + command, commandClass, retryAfterMs);
+        }
+
         // 这里可以扩展各种命令处理
         switch (command) {
             case "get_device_info":
@@ -146,9 +265,45 @@ public class MessageHandler {
             case "voice_init":
                 return handleVoiceInit(message);
 
+            case "get_metrics":
+                return handleGetMetrics(message);
+
+            case "list_connections":
+                return handleListConnections(message);
+
+            case "trace_get":
+                return handleTraceGet(message);
+
+            case "clock_probe":
+                return handleClockProbe(message);
+
+            case "link_test":
+                return handleLinkTest(message);
+
+            case "outbound_config":
+                return handleOutboundConfig(message);
+
+            case "clock_sync":
+                return handleClockSync(message);
+
+            case "trace_config":
+                return handleTraceConfig(message);
+
+            case "server_drain":
+                return handleServerDrain(message);
+
+            case "admin_auth":
+                return handleAdminAuth(message);
+
+            case "rate_limit_config":
+                return handleRateLimitConfig(message);
+
             case "voice_start_test":
                 return handleVoiceStartTest(message);
 
+            case "voice_cancel":
+                return handleVoiceCancel(message);
+
             case "voice_get_result":
                 return handleVoiceGetResult(message);
 
@@ -158,6 +313,68 @@ public class MessageHandler {
             case "voice_get_status":
                 return handleVoiceGetStatus(message);
 
+            case "voice_scheduler_stats":
+                return createCommandResponse(message.id, ZoneScheduler.getInstance().getStats());
+
+            case "voice_scheduler_config":
+                return handleSchedulerConfig(message);
+
+            case "voice_sim_config":
+                return handleSimulationConfig(message);
+
+            // 结果日志命令
+            case "journal_stats":
+                return createCommandResponse(message.id, ResultJournal.getInstance().getStats());
+
+            case "journal_config":
+                return handleJournalConfig(message);
+
+            case "voice_export_results":
+                return handleExportResults(message);
+
+            case "voice_query_results":
+                return handleQueryResults(message);
+
+            case "voice_get_stats":
+                return handleGetStats(message);
+
+            // 测试产物传输命令
+            case "artifact_list":
+                return handleArtifactList(message);
+
+            case "artifact_pull":
+                return handleArtifactPull(message);
+
+            // 内容寻址缓存命令
+            case "cache_missing":
+                return handleCacheMissing(message);
+
+            case "cache_put":
+                return handleCachePut(message);
+
+            case "cache_stats":
+                return createCommandResponse(message.id, BlobCache.getStats());
+
+            // 测试计划命令
+            case "plan_upload":
+                return handlePlanUpload(message);
+
+            case "plan_start":
+            case "plan_pause":
+            case "plan_resume":
+            case "plan_abort":
+                return handlePlanControl(message, command);
+
+            case "plan_status":
+                return createCommandResponse(message.id, TestPlanEngine.getInstance().getStatus());
+
+            case "plan_results":
+                return handlePlanResults(message);
+
+            case "plan_subscribe":
+                subscribePlanEvents();
+                return createCommandResponse(message.id, TestPlanEngine.getInstance().getStatus());
+
             default:
                 return createErrorResponse("未知命令: " + command);
         }
@@ -185,7 +402,7 @@ public class MessageHandler {
         response.id = requestId;
         response.data = "pong";
         response.timestamp = System.currentTimeMillis();
-        return gson.toJson(response);
+        return toJson(response);
     }
     
     /**
@@ -197,7 +414,7 @@ public class MessageHandler {
         response.id = requestId;
         response.data = data;
         response.timestamp = System.currentTimeMillis();
-        return gson.toJson(response);
+        return toJson(response);
     }
     
     /**
@@ -209,7 +426,7 @@ public class MessageHandler {
         response.id = requestId;
         response.data = result;
         response.timestamp = System.currentTimeMillis();
-        return gson.toJson(response);
+        return toJson(response);
     }
     
     /**
@@ -220,17 +437,27 @@ public class MessageHandler {
         response.type = MSG_TYPE_ERROR;
         response.data = error;
         response.timestamp = System.currentTimeMillis();
-        return gson.toJson(response);
+        return toJson(response);
     }
 
     
     /**
-     * 将对象转换为JSON字符串
+     * 将对象转换为JSON字符串，消息对象按本会话的设置附带主机时间
      */
     public String objectToJson(Object object) {
+        if (object instanceof Message) {
+            return toJson((Message) object);
+        }
         return gson.toJson(object);
     }
 
+    /**
+     * 本会话是否为发出的消息附带主机时间
+     */
+    boolean isHostTimeEnabled() {
+        return hostTimestamps && clockEstimate != null;
+    }
+
     // ========== 语音测试SDK命令处理方法 ==========
 
     /**
@@ -238,18 +465,29 @@ public class MessageHandler {
      */
     private String handleVoiceInit(Message message) {
         try {
-            // 注意：实际的SDK初始化应该在MainActivity中完成
-            // 这里只是检查SDK是否已经初始化
-            if (VoiceTestSDK.isSDKInitialized()) {
-                Log.d(TAG, "语音测试SDK已初始化");
-                return createCommandResponse(message.id, "语音测试SDK已初始化");
-            } else {
-                Log.w(TAG, "语音测试SDK未初始化，请在Android端先初始化");
-                return createVoiceErrorResponse(message.id, "语音测试SDK未初始化，请在Android端先初始化");
+            // 未初始化时触发后台初始化，并在时限内等待其完成
+            // 等待占用bulk通道的工作线程，时限不超过默认值，更长的等待由主机重试voice_init
+            long timeoutMs = getNumberParam(message, "timeoutMs", VOICE_INIT_TIMEOUT_MS).longValue();
+            timeoutMs = Math.max(0, Math.min(timeoutMs, VOICE_INIT_TIMEOUT_MS));
+            StartupPipeline pipeline = StartupPipeline.getInstance();
+            try {
+                pipeline.initializeSdk().get(timeoutMs, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                Log.w(TAG, "等待语音测试SDK初始化超时");
+                return createVoiceErrorResponse(message.id, "语音测试SDK初始化中，等待超时: " + timeoutMs + "ms");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                Log.e(TAG, "语音测试SDK初始化失败: " + cause.getMessage());
+                return createVoiceErrorResponse(message.id, "语音测试SDK初始化失败: " + cause.getMessage());
             }
+
+            Log.d(TAG, "语音测试SDK已初始化");
+            Map<String, Object> response = pipeline.getStatus();
+            response.put("message", "语音测试SDK已初始化");
+            return createCommandResponse(message.id, response);
         } catch (Exception e) {
-            Log.e(TAG, "检查语音测试SDK状态异常: " + e.getMessage());
-            return createVoiceErrorResponse(message.id, "检查语音测试SDK状态异常: " + e.getMessage());
+            Log.e(TAG, "初始化语音测试SDK异常: " + e.getMessage());
+            return createVoiceErrorResponse(message.id, "初始化语音测试SDK异常: " + e.getMessage());
         }
     }
 
@@ -276,45 +514,700 @@ public class MessageHandler {
         }
 
         try {
-            VoiceTestSDK.startTest(title, area);
-            Log.d(TAG, "语音测试已开始 - 话术: " + title + ", 音区: " + area);
+            // 话术可引用缓存中的内容，避免每次重复传输
+            String titleRef = getStringParam(message, "titleRef");
+            if (titleRef != null) {
+                title = resolveCachedText(titleRef);
+                if (title == null) {
+                    return createVoiceErrorResponse(message.id, "缓存未命中: " + titleRef);
+                }
+            }
+
+            long timeoutMs = getNumberParam(message, "timeoutMs", 0).longValue();
+            if (timeoutMs < 0) {
+                return createVoiceErrorResponse(message.id, "时限不能为负数");
+            }
+
+            // 本会话未结束的测试数受配额限制，测试结束时归还
+            if (!rateLimiter.tryAcquireTest()) {
+                return createRateLimitErrorResponse(message.id, ERROR_QUOTA_EXCEEDED,
+                        "未结束的测试过多(" + rateLimiter.getMaxOutstandingTests() + ")",
+                        CommandClass.TEST, RateLimiter.QUOTA_RETRY_AFTER_MS);
+            }
+            // 追踪请求时等测试结束再记录SDK阶段
+            RequestTracer.Trace trace = message.trace;
+            ZoneScheduler.ScheduledTest[] submitted = new ZoneScheduler.ScheduledTest[1];
+            if (trace != null) {
+                trace.hold();
+            }
+            ZoneScheduler.ScheduledTest test;
+            try {
+                // 经音区调度器排队，同一音区的测试不会相互覆盖
+                test = ZoneScheduler.getInstance().submit(title, area, timeoutMs, result -> {
+                    rateLimiter.releaseTest();
+                    if (trace != null) {
+                        ZoneScheduler.ScheduledTest scheduled = submitted[0];
+                        if (scheduled != null && scheduled.startNanos != 0) {
+                            trace.markAtNanos(RequestTracer.STAGE_SDK_START, scheduled.startNanos);
+                        }
+                        trace.mark(RequestTracer.STAGE_SDK_COMPLETE);
+                        RequestTracer.getInstance().complete(trace, connection);
+                    }
+                });
+                submitted[0] = test;
+            } catch (RuntimeException e) {
+                rateLimiter.releaseTest();
+                RequestTracer.getInstance().complete(trace, connection);
+                throw e;
+            }
+            boolean started = test.startTime > 0;
+            Log.d(TAG, "语音测试已提交 - 话术: " + title + ", 音区: " + area + ", ID: " + test.exeID);
 
             Map<String, Object> response = new HashMap<>();
-            response.put("message", "语音测试已开始");
+            response.put("message", started ? "语音测试已开始" : "语音测试已排队");
             response.put("title", title);
             response.put("area", area);
-            response.put("status", "testing");
+            response.put("exeID", test.exeID);
+            response.put("queueDepth", ZoneScheduler.getInstance().getQueueDepth(area));
+            response.put("status", started ? "testing" : "queued");
 
             return createCommandResponse(message.id, response);
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            return createVoiceErrorResponse(message.id, "启动语音测试失败: " + e.getMessage());
         } catch (Exception e) {
             Log.e(TAG, "启动语音测试失败: " + e.getMessage());
             return createVoiceErrorResponse(message.id, "启动语音测试失败: " + e.getMessage());
         }
     }
 
+    /**
+     * 处理测试取消命令
+     * 排队中和正在执行的测试都可取消，测试以cancelled状态结束并释放其音区
+     */
+    private String handleVoiceCancel(Message message) {
+        String testExeID = getStringParam(message, "exeID");
+        if (testExeID == null) {
+            return createVoiceErrorResponse(message.id, "缺少exeID参数");
+        }
+        if (!ZoneScheduler.getInstance().cancel(testExeID)) {
+            return createVoiceErrorResponse(message.id, "测试不存在或已结束: " + testExeID);
+        }
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("exeID", testExeID);
+        response.put("status", VoiceTestResult.STATUS_CANCELLED);
+        return createCommandResponse(message.id, response);
+    }
+
+    /**
+     * 处理音区调度配置命令
+     * 支持maxConcurrent（全局并发上限）和zoneConcurrency（各音区并发数）
+     */
+    private String handleSchedulerConfig(Message message) {
+        if (!(message.data instanceof Map)) {
+            return createVoiceErrorResponse(message.id, "缺少配置参数");
+        }
+
+        ZoneScheduler scheduler = ZoneScheduler.getInstance();
+        try {
+            Map<?, ?> params = (Map<?, ?>) message.data;
+            Object maxConcurrent = params.get("maxConcurrent");
+            if (maxConcurrent instanceof Number) {
+                scheduler.setMaxConcurrent(((Number) maxConcurrent).intValue());
+            }
+            Object defaultTimeoutMs = params.get("defaultTimeoutMs");
+            if (defaultTimeoutMs instanceof Number) {
+                VoiceTestSDK.setDefaultTimeout(((Number) defaultTimeoutMs).longValue());
+            }
+            Object zoneConcurrency = params.get("zoneConcurrency");
+            if (zoneConcurrency instanceof Map) {
+                for (Map.Entry<?, ?> entry : ((Map<?, ?>) zoneConcurrency).entrySet()) {
+                    if (entry.getValue() instanceof Number) {
+                        scheduler.setZoneConcurrency(entry.getKey().toString(), ((Number) entry.getValue()).intValue());
+                    }
+                }
+            }
+            return createCommandResponse(message.id, scheduler.getStats());
+        } catch (IllegalArgumentException e) {
+            return createVoiceErrorResponse(message.id, "调度配置无效: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 处理结果日志刷盘策略配置命令
+     * fsync: always | interval | none，intervalMs为定时刷盘间隔
+     */
+    private String handleJournalConfig(Message message) {
+        String fsync = getStringParam(message, "fsync");
+        if (fsync == null) {
+            return createVoiceErrorResponse(message.id, "缺少fsync参数");
+        }
+
+        try {
+            ResultJournal.FsyncPolicy policy = ResultJournal.FsyncPolicy.valueOf(fsync.toUpperCase(Locale.ROOT));
+            long intervalMs = getNumberParam(message, "intervalMs", ResultJournal.DEFAULT_FSYNC_INTERVAL_MS).longValue();
+            ResultJournal.getInstance().setFsyncPolicy(policy, intervalMs);
+            return createCommandResponse(message.id, ResultJournal.getInstance().getStats());
+        } catch (IllegalArgumentException e) {
+            return createVoiceErrorResponse(message.id, "无效的刷盘策略: " + fsync);
+        }
+    }
+
+    /**
+     * 处理历史结果导出命令
+     * 结果以export_chunk分块直接写入连接，最后返回export_complete摘要（含下一页游标）
+     */
+    private String handleExportResults(Message message) {
+        if (connection == null || ChannelMultiplexer.isChannelFrame(message)) {
+            return createVoiceErrorResponse(message.id, "结果导出仅支持主通道");
+        }
+
+        try {
+            // 游标通常以字符串传回，兼容数值形式
+            Number cursorNumber = getNumberParam(message, "cursor", null);
+            String cursorParam = getStringParam(message, "cursor");
+            long cursor = cursorNumber != null ? cursorNumber.longValue()
+                    : cursorParam != null ? Long.parseLong(cursorParam) : 0;
+
+            ResultExporter.Filter filter = new ResultExporter.Filter();
+            filter.from = getNumberParam(message, "from", 0).longValue();
+            filter.to = getNumberParam(message, "to", Long.MAX_VALUE).longValue();
+            filter.area = getStringParam(message, "area");
+            filter.titlePrefix = getStringParam(message, "titlePrefix");
+
+            String format = getStringParam(message, "format");
+            int limit = getNumberParam(message, "limit", ResultExporter.DEFAULT_LIMIT).intValue();
+            int chunkSize = getNumberParam(message, "chunkSize", ResultExporter.DEFAULT_CHUNK_SIZE).intValue();
+
+            Map<String, Object> summary = ResultExporter.export(connection, message.id, cursor, filter,
+                    format == null ? ResultExporter.FORMAT_NDJSON : format, limit, chunkSize);
+
+            Message response = new Message();
+            response.type = MSG_TYPE_EXPORT_COMPLETE;
+            response.id = message.id;
+            response.data = summary;
+            return toJson(response);
+        } catch (Exception e) {
+            Log.e(TAG, "导出结果失败: " + e.getMessage());
+            return createVoiceErrorResponse(message.id, "导出结果失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 处理历史结果查询命令
+     * 支持按音区、话术、评分范围、完成时间和通过与否过滤，按时间或评分排序
+     */
+    private String handleQueryResults(Message message) {
+        try {
+            ResultIndex.Query query = new ResultIndex.Query();
+            query.area = getStringParam(message, "area");
+            query.title = getStringParam(message, "title");
+            Number minScore = getNumberParam(message, "minScore", null);
+            Number maxScore = getNumberParam(message, "maxScore", null);
+            Number from = getNumberParam(message, "from", null);
+            Number to = getNumberParam(message, "to", null);
+            query.minScore = minScore == null ? null : minScore.intValue();
+            query.maxScore = maxScore == null ? null : maxScore.intValue();
+            query.from = from == null ? null : from.longValue();
+            query.to = to == null ? null : to.longValue();
+
+            String passed = getStringParam(message, "passed");
+            query.passed = passed == null ? null : Boolean.valueOf(passed);
+
+            String sortBy = getStringParam(message, "sortBy");
+            if (sortBy != null) {
+                query.sortBy = sortBy;
+            }
+            query.descending = !"asc".equals(getStringParam(message, "order"));
+            query.limit = getNumberParam(message, "limit", ResultIndex.DEFAULT_QUERY_LIMIT).intValue();
+
+            return createCommandResponse(message.id, ResultIndex.getInstance().query(query));
+        } catch (Exception e) {
+            Log.e(TAG, "查询结果失败: " + e.getMessage());
+            return createVoiceErrorResponse(message.id, "查询结果失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 处理模拟参数配置命令
+     * 未提供的参数保持不变；不带参数时返回当前配置
+     */
+    private String handleSimulationConfig(Message message) {
+        SimulationEngine engine = SimulationEngine.getInstance();
+        if (!(message.data instanceof Map) || ((Map<?, ?>) message.data).size() <= 1) {
+            return createCommandResponse(message.id, engine.getStats());
+        }
+
+        try {
+            SimulationEngine.Config config = engine.getConfig();
+            String distribution = getStringParam(message, "distribution");
+            if (distribution != null) {
+                config.distribution = distribution;
+            }
+            config.minLatencyMs = getNumberParam(message, "minLatencyMs", config.minLatencyMs).longValue();
+            config.maxLatencyMs = getNumberParam(message, "maxLatencyMs", config.maxLatencyMs).longValue();
+            config.meanLatencyMs = getNumberParam(message, "meanLatencyMs", config.meanLatencyMs).longValue();
+            config.stdDevLatencyMs = getNumberParam(message, "stdDevLatencyMs", config.stdDevLatencyMs).longValue();
+            config.failureRate = getNumberParam(message, "failureRate", config.failureRate).doubleValue();
+            config.minScore = getNumberParam(message, "minScore", config.minScore).intValue();
+            config.maxScore = getNumberParam(message, "maxScore", config.maxScore).intValue();
+            // 种子超出双精度整数范围时应以字符串传递
+            Number seedNumber = getNumberParam(message, "seed", null);
+            String seed = getStringParam(message, "seed");
+            if (seedNumber != null) {
+                config.seed = seedNumber.longValue();
+            } else if (seed != null) {
+                config.seed = Long.parseLong(seed);
+            }
+            String virtualClock = getStringParam(message, "virtualClock");
+            if (virtualClock != null) {
+                config.virtualClock = Boolean.parseBoolean(virtualClock);
+            }
+
+            engine.configure(config);
+            return createCommandResponse(message.id, engine.getStats());
+        } catch (IllegalArgumentException e) {
+            return createVoiceErrorResponse(message.id, "模拟参数无效: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 列出服务器当前的所有连接
+     */
+    private String handleListConnections(Message message) {
+        AdbServer server = connection != null ? connection.getServer() : null;
+        if (server == null) {
+            return createVoiceErrorResponse(message.id, "当前连接不属于服务器");
+        }
+        Map<String, Object> response = new HashMap<>();
+        response.put("self", connection.getId());
+        response.put("count", server.getConnectionCount());
+        response.put("connections", server.getConnectionInfo());
+        return createCommandResponse(message.id, response);
+    }
+
+    /**
+     * 排空后停止服务器
+     * 回复前已停止接受新测试；排空在后台进行，所有连接收到server_going_away事件并在排空结束后断开
+     */
+    private String handleServerDrain(Message message) {
+        AdbServer server = connection != null ? connection.getServer() : null;
+        if (server == null) {
+            return createVoiceErrorResponse(message.id, "当前连接不属于服务器");
+        }
+        if (!isPrivileged()) {
+            return createVoiceErrorResponse(message.id, "排空服务器需要管理权限");
+        }
+        long timeoutMs = getNumberParam(message, "timeoutMs", AdbServer.DEFAULT_DRAIN_TIMEOUT_MS).longValue();
+        if (timeoutMs < 0) {
+            return createVoiceErrorResponse(message.id, "时限不能为负数");
+        }
+
+        try {
+            server.drainAsync(timeoutMs);
+        } catch (IllegalStateException e) {
+            return createVoiceErrorResponse(message.id, e.getMessage());
+        }
+        Map<String, Object> response = new HashMap<>();
+        response.put("draining", true);
+        response.put("timeoutMs", timeoutMs);
+        response.put("pendingTests", ZoneScheduler.getInstance().getPendingTests());
+        return createCommandResponse(message.id, response);
+    }
+
+    /**
+     * 查看或修改限流配置
+     * 指定commandClass时修改该类命令的速率限额；defaults为true时修改新会话的默认值，否则只修改当前会话。
+     * 未取得管理权限的会话只能收紧自身限额，放宽限额和修改默认值须先经admin_auth出示管理口令
+     */
+    private String handleRateLimitConfig(Message message) {
+        boolean defaults = Boolean.parseBoolean(getStringParam(message, "defaults"));
+        // 未取得管理权限的会话只能收紧自身限额，避免失控的脚本解除对自己的限制
+        boolean privileged = isPrivileged();
+        if (defaults && !privileged) {
+            return createVoiceErrorResponse(message.id, "修改默认限额需要管理权限");
+        }
+        Number requestedMax = getNumberParam(message, "maxOutstandingTests", null);
+        if (!privileged && requestedMax != null && requestedMax.intValue() > rateLimiter.getMaxOutstandingTests()) {
+            return createVoiceErrorResponse(message.id, "放宽未结束测试数上限需要管理权限");
+        }
+        try {
+            String className = getStringParam(message, "commandClass");
+            if (className != null) {
+                CommandClass commandClass = CommandClass.fromName(className);
+                if (commandClass == null) {
+                    return createVoiceErrorResponse(message.id, "无效的命令类别: " + className);
+                }
+                RateLimiter.Limit limit = new RateLimiter.Limit(
+                        getNumberParam(message, "ratePerSec", 0).doubleValue(),
+                        getNumberParam(message, "burst", 0).intValue());
+                if (!privileged && !rateLimiter.isTightening(commandClass, limit)) {
+                    return createVoiceErrorResponse(message.id, "放宽限额需要管理权限: " + className);
+                }
+                if (defaults) {
+                    RateLimiter.setDefaultLimit(commandClass, limit);
+                } else {
+                    rateLimiter.setLimit(commandClass, limit);
+                }
+            }
+            if (requestedMax != null) {
+                if (defaults) {
+                    RateLimiter.setDefaultMaxOutstandingTests(requestedMax.intValue());
+                } else {
+                    rateLimiter.setMaxOutstandingTests(requestedMax.intValue());
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            return createVoiceErrorResponse(message.id, "限流配置无效: " + e.getMessage());
+        }
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("session", rateLimiter.getStats());
+        response.put("defaults", RateLimiter.getDefaults());
+        return createCommandResponse(message.id, response);
+    }
+
+    /**
+     * 出示管理口令，通过后本会话可以放宽限额、修改全局配置和排空服务器
+     * 口令由服务启动参数指定；未设置口令时任何会话都不能取得管理权限
+     */
+    private String handleAdminAuth(Message message) {
+        AdbServer server = connection != null ? connection.getServer() : null;
+        if (server == null || !server.isAdminTokenSet()) {
+            return createVoiceErrorResponse(message.id, "服务器未设置管理口令");
+        }
+        if (!server.checkAdminToken(getStringParam(message, "token"))) {
+            Metrics.increment("auth.failures");
+            Log.w(TAG, "管理口令校验失败: " + connection.getId());
+            return createVoiceErrorResponse(message.id, "管理口令无效");
+        }
+        admin = true;
+        Log.i(TAG, "会话取得管理权限: " + connection.getId());
+        Map<String, Object> response = new HashMap<>();
+        response.put("admin", true);
+        return createCommandResponse(message.id, response);
+    }
+
+    /**
+     * 本会话是否有管理权限：出示过管理口令，或不经连接的进程内调用
+     */
+    private boolean isPrivileged() {
+        return connection == null || admin;
+    }
+
+    /**
+     * 时钟探测：回传主机发出时间t1，附上设备收到时间t2和回复时间t3
+     * t2取自读到该行的时刻，排队和处理时间计入t3 - t2，不影响往返时延
+     */
+    private String handleClockProbe(Message message) {
+        double received = ClockProbe.deviceTime(message.receivedNanos > 0 ? message.receivedNanos : System.nanoTime());
+        Map<String, Object> response = new HashMap<>();
+        Number t1 = getNumberParam(message, "t1", null);
+        if (t1 != null) {
+            response.put("t1", t1);
+        }
+        response.put("t2", received);
+        response.put("t3", ClockProbe.deviceTime(System.nanoTime()));
+        return createCommandResponse(message.id, response);
+    }
+
+    /**
+     * 查看或修改出站队列配置
+     * 默认只修改当前连接的队列容量、慢消费者时限和消息类型策略；scope为defaults时修改全局默认值与策略，需要管理权限
+     */
+    private String handleOutboundConfig(Message message) {
+        boolean global = "defaults".equals(getStringParam(message, "scope")) || connection == null;
+        if (global && !isPrivileged()) {
+            return createVoiceErrorResponse(message.id, "修改全局出站配置需要管理权限");
+        }
+        try {
+            String type = getStringParam(message, "type");
+            String policyName = getStringParam(message, "policy");
+            OutboundPolicy policy = null;
+            if (type != null || policyName != null) {
+                policy = OutboundPolicy.fromName(policyName);
+                if (type == null || policy == null) {
+                    return createVoiceErrorResponse(message.id, "须同时指定type和有效的policy(block/coalesce/drop)");
+                }
+            }
+            Map<String, Object> current = global ? OutboundQueue.getDefaults() : connection.getOutboundStats();
+            Number maxFrames = getNumberParam(message, "maxFrames", null);
+            Number maxBytes = getNumberParam(message, "maxBytes", null);
+            Number timeout = getNumberParam(message, "slowConsumerTimeoutMs", null);
+            if (maxFrames != null || maxBytes != null || timeout != null) {
+                // 先按long比较再收窄，超大的值不会截断成看似合法的帧数
+                long frames = maxFrames != null ? maxFrames.longValue()
+                        : ((Number) current.get("maxFrames")).longValue();
+                if (frames > OutboundQueue.MAX_FRAMES) {
+                    throw new IllegalArgumentException("队列容量不能超过" + OutboundQueue.MAX_FRAMES + "帧");
+                }
+                long bytes = maxBytes != null ? maxBytes.longValue() : ((Number) current.get("maxBytes")).longValue();
+                long timeoutMs = timeout != null ? timeout.longValue()
+                        : ((Number) current.get("slowConsumerTimeoutMs")).longValue();
+                if (global) {
+                    OutboundQueue.setDefaults((int) frames, bytes, timeoutMs);
+                } else {
+                    connection.configureOutbound((int) frames, bytes, timeoutMs);
+                }
+            }
+            if (policy != null) {
+                if (global) {
+                    OutboundPolicy.setPolicy(type, policy);
+                } else {
+                    connection.setOutboundPolicy(type, policy);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            return createVoiceErrorResponse(message.id, "出站队列配置无效: " + e.getMessage());
+        }
+
+        Map<String, Object> response = new HashMap<>();
+        if (connection != null) {
+            response.put("session", connection.getOutboundStats());
+        }
+        response.put("defaults", OutboundQueue.getDefaults());
+        return createCommandResponse(message.id, response);
+    }
+
+    /**
+     * 下行链路自测：连续发送生成的二进制帧，结束后回复link_test_result
+     * 上行测试在读线程中处理（见handleLinkUpload），到达这里说明不在主通道上
+     */
+    private String handleLinkTest(Message message) {
+        if (connection == null || ChannelMultiplexer.isChannelFrame(message)) {
+            return createVoiceErrorResponse(message.id, "链路自测仅支持主通道");
+        }
+        String direction = getStringParam(message, "direction");
+        if (direction != null && !LinkTest.DIRECTION_DOWN.equals(direction)) {
+            return createVoiceErrorResponse(message.id, "无效的测试方向: " + direction);
+        }
+        long totalBytes = getNumberParam(message, "totalBytes", LinkTest.DEFAULT_TOTAL_BYTES).longValue();
+        int frameSize = getNumberParam(message, "frameSize", LinkTest.DEFAULT_FRAME_SIZE).intValue();
+        try {
+            LinkTest.validate(totalBytes, frameSize);
+            Map<String, Object> result = LinkTest.sendDown(connection, message.id, totalBytes, frameSize);
+            Log.i(TAG, "下行链路自测完成: " + result);
+            return createLinkTestResult(message.id, result);
+        } catch (IllegalArgumentException e) {
+            return createVoiceErrorResponse(message.id, "链路自测参数无效: " + e.getMessage());
+        } catch (IOException e) {
+            Log.e(TAG, "下行链路自测失败: " + e.getMessage());
+            return createVoiceErrorResponse(message.id, "链路自测失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 上行链路自测，在连接读线程中调用
+     * 先回复就绪，主机收到后发送totalBytes字节原始数据，读完后返回link_test_result
+     */
+    String handleLinkUpload(Message message, LineDecoder reader) {
+        long retryAfterMs = rateLimiter.tryAcquire(CommandClass.TRANSFER);
+        if (retryAfterMs > 0) {
+            return createRateLimitErrorResponse(message.id, ERROR_RATE_LIMITED,
+                    "请求过于频繁: link_test", CommandClass.TRANSFER, retryAfterMs);
+        }
+        long totalBytes = getNumberParam(message, "totalBytes", LinkTest.DEFAULT_TOTAL_BYTES).longValue();
+        int frameSize = getNumberParam(message, "frameSize", LinkTest.DEFAULT_FRAME_SIZE).intValue();
+        try {
+            LinkTest.validate(totalBytes, frameSize);
+        } catch (IllegalArgumentException e) {
+            return createVoiceErrorResponse(message.id, "链路自测参数无效: " + e.getMessage());
+        }
+
+        Map<String, Object> ready = new HashMap<>();
+        ready.put("ready", true);
+        ready.put("direction", LinkTest.DIRECTION_UP);
+        ready.put("totalBytes", totalBytes);
+        ready.put("frameSize", frameSize);
+        if (!connection.sendMessage(createCommandResponse(message.id, ready))) {
+            return null;
+        }
+        long readyNanos = System.nanoTime();
+        try {
+            Map<String, Object> result = LinkTest.receiveUp(reader, totalBytes, frameSize, readyNanos);
+            Log.i(TAG, "上行链路自测完成: " + result);
+            return createLinkTestResult(message.id, result);
+        } catch (IOException e) {
+            Log.e(TAG, "上行链路自测失败: " + e.getMessage());
+            return createVoiceErrorResponse(message.id, "链路自测失败: " + e.getMessage());
+        }
+    }
+
+    private String createLinkTestResult(String requestId, Map<String, Object> result) {
+        Message response = new Message();
+        response.type = MSG_TYPE_LINK_TEST_RESULT;
+        response.id = requestId;
+        response.data = result;
+        return toJson(response);
+    }
+
+    /**
+     * 由主机收集的探测样本估计时钟偏差，结果保存在本会话
+     * hostTimestamps为true（默认）时，此后本会话的响应附带换算后的hostTimestamp；clear为true时清除估计
+     */
+    private String handleClockSync(Message message) {
+        if (Boolean.parseBoolean(getStringParam(message, "clear"))) {
+            clockEstimate = null;
+            hostTimestamps = false;
+            Map<String, Object> response = new HashMap<>();
+            response.put("synced", false);
+            return createCommandResponse(message.id, response);
+        }
+
+        Object samplesObj = message.data instanceof Map ? ((Map<?, ?>) message.data).get("samples") : null;
+        if (samplesObj != null) {
+            if (!(samplesObj instanceof List)) {
+                return createVoiceErrorResponse(message.id, "samples必须为数组");
+            }
+            List<ClockProbe.Sample> samples = new ArrayList<>();
+            for (Object item : (List<?>) samplesObj) {
+                ClockProbe.Sample sample = parseClockSample(item);
+                if (sample == null) {
+                    return createVoiceErrorResponse(message.id, "时钟样本须包含t1、t2、t3、t4");
+                }
+                samples.add(sample);
+            }
+            try {
+                clockEstimate = ClockProbe.estimate(samples);
+            } catch (IllegalArgumentException e) {
+                return createVoiceErrorResponse(message.id, "时钟同步失败: " + e.getMessage());
+            }
+            String flag = getStringParam(message, "hostTimestamps");
+            hostTimestamps = flag == null || Boolean.parseBoolean(flag);
+        }
+
+        ClockProbe.Estimate estimate = clockEstimate;
+        Map<String, Object> response = estimate != null ? estimate.toMap() : new HashMap<>();
+        response.put("synced", estimate != null);
+        response.put("hostTimestamps", estimate != null && hostTimestamps);
+        return createCommandResponse(message.id, response);
+    }
+
+    private static ClockProbe.Sample parseClockSample(Object item) {
+        if (!(item instanceof Map)) {
+            return null;
+        }
+        Map<?, ?> map = (Map<?, ?>) item;
+        Object t1 = map.get("t1");
+        Object t2 = map.get("t2");
+        Object t3 = map.get("t3");
+        Object t4 = map.get("t4");
+        if (!(t1 instanceof Number && t2 instanceof Number && t3 instanceof Number && t4 instanceof Number)) {
+            return null;
+        }
+        return new ClockProbe.Sample(((Number) t1).doubleValue(), ((Number) t2).doubleValue(),
+                ((Number) t3).doubleValue(), ((Number) t4).doubleValue());
+    }
+
+    /**
+     * 本会话的时钟偏差估计，未同步时为null
+     */
+    public ClockProbe.Estimate getClockEstimate() {
+        return clockEstimate;
+    }
+
+    /**
+     * 序列化本会话发出的消息，启用换算时附带主机时间
+     */
+    private String toJson(Message message) {
+        ClockProbe.Estimate estimate = clockEstimate;
+        if (!hostTimestamps || estimate == null) {
+            return gson.toJson(message);
+        }
+        // 广播的消息对象由多个会话共享，主机时间只写入本次的序列化结果，不改动对象本身
+        JsonObject tree = gson.toJsonTree(message).getAsJsonObject();
+        tree.addProperty("hostTimestamp", estimate.toHost(message.timestamp));
+        return gson.toJson(tree);
+    }
+
+    /**
+     * 取回环形缓冲中的追踪记录，按时间从新到旧
+     */
+    private String handleTraceGet(Message message) {
+        int limit = getNumberParam(message, "limit", 50).intValue();
+        if (limit < 1) {
+            return createVoiceErrorResponse(message.id, "limit至少为1");
+        }
+        boolean clear = Boolean.parseBoolean(getStringParam(message, "clear"));
+        RequestTracer tracer = RequestTracer.getInstance();
+        Map<String, Object> response = tracer.getConfig();
+        response.put("traces", tracer.getRecent(limit, clear));
+        return createCommandResponse(message.id, response);
+    }
+
+    /**
+     * 修改追踪抽样间隔与环形缓冲容量
+     */
+    private String handleTraceConfig(Message message) {
+        RequestTracer tracer = RequestTracer.getInstance();
+        try {
+            Number sampleEvery = getNumberParam(message, "sampleEvery", null);
+            if (sampleEvery != null) {
+                tracer.setSampleEvery(sampleEvery.intValue());
+            }
+            Number capacity = getNumberParam(message, "capacity", null);
+            if (capacity != null) {
+                // 先按long比较，超出int范围的值不会截断成合法容量
+                if (capacity.longValue() > RequestTracer.MAX_CAPACITY) {
+                    throw new IllegalArgumentException("追踪缓冲容量不能超过" + RequestTracer.MAX_CAPACITY);
+                }
+                tracer.setCapacity(capacity.intValue());
+            }
+        } catch (IllegalArgumentException e) {
+            return createVoiceErrorResponse(message.id, "追踪配置无效: " + e.getMessage());
+        }
+        return createCommandResponse(message.id, tracer.getConfig());
+    }
+
+    /**
+     * 处理运行指标查询命令
+     */
+    private String handleGetMetrics(Message message) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("metrics", Metrics.snapshot());
+        response.put("startup", StartupPipeline.getInstance().getStatus());
+        return createCommandResponse(message.id, response);
+    }
+
+    /**
+     * 处理统计查询命令
+     * 默认返回累计统计；windowMinutes为最近N分钟，lastN为最近N条
+     */
+    private String handleGetStats(Message message) {
+        try {
+            String area = getStringParam(message, "area");
+            String title = getStringParam(message, "title");
+            int windowMinutes = getNumberParam(message, "windowMinutes", 0).intValue();
+            int lastN = getNumberParam(message, "lastN", 0).intValue();
+            if (windowMinutes < 0 || lastN < 0) {
+                return createVoiceErrorResponse(message.id, "窗口参数不能为负数");
+            }
+            return createCommandResponse(message.id,
+                    StatsAggregator.getInstance().getStats(area, title, windowMinutes, lastN));
+        } catch (Exception e) {
+            Log.e(TAG, "获取统计失败: " + e.getMessage());
+            return createVoiceErrorResponse(message.id, "获取统计失败: " + e.getMessage());
+        }
+    }
+
     /**
      * 处理语音测试结果获取命令
      */
     private String handleVoiceGetResult(Message message) {
-        if (!VoiceTestSDK.isSDKInitialized()) {
+        // 与handleVoiceCheckResult一样只读一次快照，结果的检查与取走为同一次原子操作
+        VoiceTestSDK.State state = VoiceTestSDK.getState();
+        if (!state.initialized) {
             return createVoiceErrorResponse(message.id, "语音测试SDK未初始化");
         }
 
         try {
-            if (VoiceTestSDK.ifRetrunAns()) {
-                String result = VoiceTestSDK.getAns();
-                Log.d(TAG, "获取语音测试结果: " + result);
+            VoiceTestSDK.State taken = VoiceTestSDK.takeResult();
+            if (taken != null) {
+                Log.d(TAG, "获取语音测试结果: " + taken.result + "," + taken.resultExeID);
 
-                // 解析结果格式: "结果,执行ID"
-                String[] parts = result.split(",", 2);
                 Map<String, Object> response = new HashMap<>();
-                if (parts.length >= 2) {
-                    response.put("result", parts[0]);
-                    response.put("exeID", parts[1]);
-                } else {
-                    response.put("result", result);
-                    response.put("exeID", "");
-                }
+                response.put("result", taken.result);
+                response.put("exeID", taken.resultExeID != null ? taken.resultExeID : "");
                 response.put("status", "completed");
 
                 return createCommandResponse(message.id, response);
@@ -334,12 +1227,14 @@ public class MessageHandler {
      * 处理语音测试结果检查命令
      */
     private String handleVoiceCheckResult(Message message) {
-        if (!VoiceTestSDK.isSDKInitialized()) {
+        // 初始化状态与结果标记取自同一份快照
+        VoiceTestSDK.State state = VoiceTestSDK.getState();
+        if (!state.initialized) {
             return createVoiceErrorResponse(message.id, "语音测试SDK未初始化");
         }
 
         try {
-            boolean hasResult = VoiceTestSDK.ifRetrunAns();
+            boolean hasResult = state.hasResult;
             Map<String, Object> response = new HashMap<>();
             response.put("hasResult", hasResult);
             response.put("status", hasResult ? "completed" : "testing");
@@ -357,31 +1252,264 @@ public class MessageHandler {
      */
     private String handleVoiceGetStatus(Message message) {
         try {
-            Map<String, Object> status = VoiceTestSDK.getSDKStatus();
-            Log.d(TAG, "获取语音测试SDK状态: " + status);
-            return createCommandResponse(message.id, status);
+            // 直接返回快照中预先生成的状态表
+            return createCommandResponse(message.id, VoiceTestSDK.getSDKStatus());
         } catch (Exception e) {
             Log.e(TAG, "获取语音测试SDK状态失败: " + e.getMessage());
             return createVoiceErrorResponse(message.id, "获取语音测试SDK状态失败: " + e.getMessage());
         }
     }
 
+    // ========== 测试产物传输命令处理方法 ==========
+
     /**
-     * 创建语音测试进度响应
+     * 处理产物列表查询命令
      */
-    private String createVoiceProgressResponse(String requestId, String message, int progress) {
-        Message response = new Message();
-        response.type = MSG_TYPE_VOICE_PROGRESS;
-        response.id = requestId;
+    private String handleArtifactList(Message message) {
+        String exeID = getStringParam(message, "exeID");
+        if (exeID == null) {
+            return createVoiceErrorResponse(message.id, "缺少exeID参数");
+        }
 
-        Map<String, Object> data = new HashMap<>();
-        data.put("message", message);
-        data.put("progress", progress);
-        data.put("status", "in_progress");
+        try {
+            Map<String, Object> response = new HashMap<>();
+            response.put("exeID", exeID);
+            response.put("artifacts", ArtifactStore.listArtifacts(exeID));
+            response.put("storage", ArtifactStore.getStats());
+            return createCommandResponse(message.id, response);
+        } catch (Exception e) {
+            Log.e(TAG, "获取产物列表失败: " + e.getMessage());
+            return createVoiceErrorResponse(message.id, "获取产物列表失败: " + e.getMessage());
+        }
+    }
 
-        response.data = data;
-        response.timestamp = System.currentTimeMillis();
-        return gson.toJson(response);
+    /**
+     * 处理产物拉取命令
+     * 产物以分块二进制帧直接写入连接，最后返回file_complete摘要
+     */
+    private String handleArtifactPull(Message message) {
+        if (connection == null || ChannelMultiplexer.isChannelFrame(message)) {
+            return createVoiceErrorResponse(message.id, "产物传输仅支持主通道");
+        }
+
+        String exeID = getStringParam(message, "exeID");
+        String name = getStringParam(message, "name");
+        if (exeID == null || name == null) {
+            return createVoiceErrorResponse(message.id, "缺少exeID或name参数");
+        }
+
+        long offset = getNumberParam(message, "offset", 0).longValue();
+        int chunkSize = getNumberParam(message, "chunkSize", ArtifactStore.DEFAULT_CHUNK_SIZE).intValue();
+
+        try {
+            File file = ArtifactStore.getArtifact(exeID, name);
+            if (file == null) {
+                return createVoiceErrorResponse(message.id, "产物不存在: " + exeID + "/" + name);
+            }
+
+            Map<String, Object> summary = ArtifactStore.streamArtifact(connection, message.id, name, file, offset, chunkSize);
+            summary.put("exeID", exeID);
+            Log.d(TAG, "产物传输完成: " + summary);
+
+            Message response = new Message();
+            response.type = MSG_TYPE_FILE_COMPLETE;
+            response.id = message.id;
+            response.data = summary;
+            return toJson(response);
+        } catch (Exception e) {
+            Log.e(TAG, "产物传输失败: " + e.getMessage());
+            return createVoiceErrorResponse(message.id, "产物传输失败: " + e.getMessage());
+        }
+    }
+
+    // ========== 内容寻址缓存命令处理方法 ==========
+
+    /**
+     * 处理缺失哈希查询命令，PC端据此只上传设备上没有的内容
+     */
+    private String handleCacheMissing(Message message) {
+        Object hashes = message.data instanceof Map ? ((Map<?, ?>) message.data).get("hashes") : null;
+        if (!(hashes instanceof List)) {
+            return createVoiceErrorResponse(message.id, "缺少hashes参数");
+        }
+
+        List<String> keys = new ArrayList<>();
+        for (Object hash : (List<?>) hashes) {
+            keys.add(hash == null ? null : hash.toString());
+        }
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("missing", BlobCache.findMissing(keys));
+        return createCommandResponse(message.id, response);
+    }
+
+    /**
+     * 处理缓存上传命令
+     * content按encoding解码：utf8（默认）或base64
+     */
+    private String handleCachePut(Message message) {
+        String content = getStringParam(message, "content");
+        if (content == null) {
+            return createVoiceErrorResponse(message.id, "缺少content参数");
+        }
+
+        try {
+            byte[] bytes = "base64".equals(getStringParam(message, "encoding"))
+                    ? Base64.decode(content, Base64.DEFAULT)
+                    : content.getBytes(StandardCharsets.UTF_8);
+            String hash = BlobCache.put(getStringParam(message, "hash"), bytes);
+
+            Map<String, Object> response = new HashMap<>();
+            response.put("hash", hash);
+            response.put("size", bytes.length);
+            return createCommandResponse(message.id, response);
+        } catch (IllegalArgumentException | IOException e) {
+            Log.e(TAG, "保存缓存内容失败: " + e.getMessage());
+            return createVoiceErrorResponse(message.id, "保存缓存内容失败: " + e.getMessage());
+        }
+    }
+
+    // ========== 测试计划命令处理方法 ==========
+
+    /**
+     * 处理测试计划上传命令
+     * 话术引用（phraseRefs）在上传时从缓存解析，执行期间不再依赖PC端
+     */
+    private String handlePlanUpload(Message message) {
+        Object planData = message.data instanceof Map ? ((Map<?, ?>) message.data).get("plan") : null;
+        if (!(planData instanceof Map)) {
+            return createVoiceErrorResponse(message.id, "缺少plan参数");
+        }
+
+        try {
+            TestPlanEngine.TestPlan plan = gson.fromJson(gson.toJsonTree(planData), TestPlanEngine.TestPlan.class);
+            List<String> phrases = new ArrayList<>();
+            if (plan.phrases != null) {
+                phrases.addAll(plan.phrases);
+            }
+            if (plan.phraseRefs != null) {
+                for (String ref : plan.phraseRefs) {
+                    String phrase = resolveCachedText(ref);
+                    if (phrase == null) {
+                        return createVoiceErrorResponse(message.id, "缓存未命中: " + ref);
+                    }
+                    phrases.add(phrase);
+                }
+            }
+            plan.phrases = phrases;
+
+            TestPlanEngine engine = TestPlanEngine.getInstance();
+            String planId = engine.load(plan);
+            subscribePlanEvents();
+
+            Object start = ((Map<?, ?>) message.data).get("start");
+            if (Boolean.TRUE.equals(start)) {
+                engine.start(rateLimiter);
+            }
+
+            Log.d(TAG, "测试计划已上传: " + planId);
+            return createCommandResponse(message.id, engine.getStatus());
+        } catch (Exception e) {
+            Log.e(TAG, "上传测试计划失败: " + e.getMessage());
+            return createVoiceErrorResponse(message.id, "上传测试计划失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 处理测试计划开始、暂停、恢复、中止命令
+     */
+    private String handlePlanControl(Message message, String command) {
+        TestPlanEngine engine = TestPlanEngine.getInstance();
+        try {
+            boolean changed;
+            switch (command) {
+                case "plan_start":
+                    subscribePlanEvents();
+                    engine.start(rateLimiter);
+                    changed = true;
+                    break;
+                case "plan_pause":
+                    changed = engine.pause();
+                    break;
+                case "plan_resume":
+                    changed = engine.resume();
+                    break;
+                default:
+                    changed = engine.abort();
+                    break;
+            }
+
+            if (!changed) {
+                return createVoiceErrorResponse(message.id, "当前计划状态不支持该操作: " + engine.getStatus().get("state"));
+            }
+            return createCommandResponse(message.id, engine.getStatus());
+        } catch (IllegalStateException e) {
+            return createVoiceErrorResponse(message.id, e.getMessage());
+        }
+    }
+
+    /**
+     * 处理测试计划结果补取命令
+     */
+    private String handlePlanResults(Message message) {
+        int since = getNumberParam(message, "since", 0).intValue();
+        Map<String, Object> response = new HashMap<>();
+        response.put("status", TestPlanEngine.getInstance().getStatus());
+        response.put("results", TestPlanEngine.getInstance().getResultsSince(since));
+        return createCommandResponse(message.id, response);
+    }
+
+    /**
+     * 订阅测试计划的进度与结果事件，推送到当前连接
+     */
+    private void subscribePlanEvents() {
+        if (connection == null) {
+            return;
+        }
+        if (planListener == null) {
+            // 在计划线程上调用，不等待出站队列：进度按计划合并，结果在队列满时丢弃，由plan_results补取
+            planListener = (type, data) -> {
+                Message event = new Message();
+                event.type = type;
+                event.data = data;
+                connection.sendEvent(event.type, String.valueOf(data.get("planId")), toJson(event), false);
+            };
+        }
+        TestPlanEngine.getInstance().addListener(planListener);
+    }
+
+    /**
+     * 读取缓存中的文本内容
+     * @return 文本，未命中时返回null
+     */
+    private String resolveCachedText(String hash) throws IOException {
+        return BlobCache.isAvailable() ? BlobCache.getText(hash) : null;
+    }
+
+    /**
+     * 从命令数据中读取字符串参数
+     */
+    private String getStringParam(Message message, String key) {
+        if (message.data instanceof Map) {
+            Object value = ((Map<?, ?>) message.data).get(key);
+            if (value != null) {
+                return value.toString();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 从命令数据中读取数值参数
+     */
+    private Number getNumberParam(Message message, String key, Number defaultValue) {
+        if (message.data instanceof Map) {
+            Object value = ((Map<?, ?>) message.data).get(key);
+            if (value instanceof Number) {
+                return (Number) value;
+            }
+        }
+        return defaultValue;
     }
 
     /**
@@ -393,7 +1521,7 @@ public class MessageHandler {
         response.id = requestId;
         response.data = result;
         response.timestamp = System.currentTimeMillis();
-        return gson.toJson(response);
+        return toJson(response);
     }
 
     /**
@@ -410,7 +1538,51 @@ public class MessageHandler {
 
         response.data = errorData;
         response.timestamp = System.currentTimeMillis();
-        return gson.toJson(response);
+        return toJson(response);
+    }
+
+    /**
+     * 创建限流错误响应，retryAfterMs为建议的重试等待时间
+     */
+    String createRateLimitErrorResponse(String requestId, String category, String error,
+                                                CommandClass commandClass, long retryAfterMs) {
+        Message response = new Message();
+        response.type = MSG_TYPE_ERROR;
+        response.id = requestId;
+
+        Map<String, Object> errorData = new HashMap<>();
+        errorData.put("error", error);
+        errorData.put("category", category);
+        errorData.put("commandClass", commandClass.getName());
+        errorData.put("retryAfterMs", retryAfterMs);
+
+        response.data = errorData;
+        response.timestamp = System.currentTimeMillis();
+        return toJson(response);
+    }
+
+    /**
+     * 创建消息超长的错误响应，超长消息未经解析，响应不带id
+     */
+    public String createFrameTooLongResponse(int maxFrameLength) {
+        Message response = new Message();
+        response.type = MSG_TYPE_ERROR;
+
+        Map<String, Object> errorData = new HashMap<>();
+        errorData.put("error", "消息超过最大长度: " + maxFrameLength + "字节");
+        errorData.put("category", ERROR_FRAME_TOO_LONG);
+        errorData.put("maxFrameLength", maxFrameLength);
+
+        response.data = errorData;
+        response.timestamp = System.currentTimeMillis();
+        return toJson(response);
+    }
+
+    /**
+     * 本会话的限流器
+     */
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
     }
 
     /**
@@ -428,6 +1600,9 @@ public class MessageHandler {
         public String id;        // 消息ID（用于请求-响应匹配）
         public Object data;      // 消息数据
         public long timestamp;   // 时间戳
+        public Integer channel;  // 逻辑通道ID（为空或0表示主通道）
+        transient RequestTracer.Trace trace;  // 请求追踪，不参与序列化
+        transient long receivedNanos;  // 读到该消息时的System.nanoTime()，不参与序列化
         
         public Message() {
             this.timestamp = System.currentTimeMillis();
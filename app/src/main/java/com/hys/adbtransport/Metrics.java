@@ -0,0 +1,90 @@
+package com.hys.adbtransport;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 运行指标
+ * 以名称登记的计数器和测量值，供get_metrics命令统一导出；
+ * 名称按"模块.指标"分组，如startup.timeToReadyMs
+ */
+public final class Metrics {
+    private static final Map<String, AtomicLong> values = new ConcurrentHashMap<>();
+
+    private Metrics() {
+    }
+
+    /**
+     * 计数器加一
+     */
+    public static void increment(String name) {
+        add(name, 1);
+    }
+
+    /**
+     * 计数器增加指定值
+     */
+    public static void add(String name, long delta) {
+        valueOf(name).addAndGet(delta);
+    }
+
+    /**
+     * 设置测量值
+     */
+    public static void set(String name, long value) {
+        valueOf(name).set(value);
+    }
+
+    /**
+     * 记录最大值：新值更大时才更新
+     */
+    public static void max(String name, long value) {
+        AtomicLong current = valueOf(name);
+        long previous;
+        while ((previous = current.get()) < value) {
+            if (current.compareAndSet(previous, value)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 仅在尚未记录时设置测量值，用于只记录首次发生的事件
+     */
+    public static boolean setOnce(String name, long value) {
+        return values.putIfAbsent(name, new AtomicLong(value)) == null;
+    }
+
+    /**
+     * 读取指标，未记录时返回0
+     */
+    public static long get(String name) {
+        AtomicLong value = values.get(name);
+        return value == null ? 0 : value.get();
+    }
+
+    /**
+     * 按名称排序的指标快照
+     */
+    public static Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> entry : values.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().get());
+        }
+        return snapshot;
+    }
+
+    private static AtomicLong valueOf(String name) {
+        AtomicLong value = values.get(name);
+        if (value == null) {
+            AtomicLong created = new AtomicLong();
+            value = values.putIfAbsent(name, created);
+            if (value == null) {
+                value = created;
+            }
+        }
+        return value;
+    }
+}
@@ -0,0 +1,85 @@
+package com.hys.adbtransport;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 出站队列满时的处理策略，按消息类型配置
+ */
+public enum OutboundPolicy {
+    // 等待队列腾出空间，超过慢消费者时限则断开连接；响应和结果不会丢失
+    BLOCK("block"),
+    // 同类消息只保留最新一条，已在队列中的旧消息被原位替换；用于进度、状态
+    COALESCE("coalesce"),
+    // 队列满时丢弃并计数；用于日志等可丢失的消息
+    DROP("drop");
+
+    private static final Map<String, OutboundPolicy> BY_NAME = new HashMap<>();
+    // 按消息类型登记的策略，未登记的类型按BLOCK处理
+    private static final Map<String, OutboundPolicy> TYPES = new HashMap<>();
+
+    static {
+        for (OutboundPolicy policy : values()) {
+            BY_NAME.put(policy.name, policy);
+        }
+        // 计划进度只有计数，同一计划只保留最新一条
+        TYPES.put(MessageHandler.MSG_TYPE_PLAN_PROGRESS, COALESCE);
+        // 单条测试的结果可经plan_results或结果日志补取，队列满时丢弃，不拖住计划线程
+        TYPES.put(MessageHandler.MSG_TYPE_PLAN_RESULT, DROP);
+        TYPES.put(MessageHandler.MSG_TYPE_TRACE, DROP);
+    }
+
+    private final String name;
+
+    OutboundPolicy(String name) {
+        this.name = name;
+    }
+
+    /**
+     * 协议中使用的策略名
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * 消息类型对应的策略
+     */
+    public static OutboundPolicy of(String type) {
+        OutboundPolicy policy;
+        synchronized (TYPES) {
+            policy = type == null ? null : TYPES.get(type);
+        }
+        return policy != null ? policy : BLOCK;
+    }
+
+    /**
+     * 按策略名查找
+     * @return 名称无效时返回null
+     */
+    public static OutboundPolicy fromName(String name) {
+        return name == null ? null : BY_NAME.get(name);
+    }
+
+    /**
+     * 设置某类消息的策略，对所有连接立即生效
+     */
+    public static void setPolicy(String type, OutboundPolicy policy) {
+        synchronized (TYPES) {
+            TYPES.put(type, policy);
+        }
+    }
+
+    /**
+     * 已登记的消息类型及其策略
+     */
+    public static Map<String, String> getPolicies() {
+        Map<String, String> policies = new HashMap<>();
+        synchronized (TYPES) {
+            for (Map.Entry<String, OutboundPolicy> entry : TYPES.entrySet()) {
+                policies.put(entry.getKey(), entry.getValue().name);
+            }
+        }
+        return policies;
+    }
+}
@@ -0,0 +1,373 @@
+package com.hys.adbtransport;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 单个连接的有界出站队列
+ * 按帧数和字节数限制容量，队列满时按消息类型的OutboundPolicy处理：
+ * 等待（超时视为慢消费者）、合并为最新一条或丢弃计数。主机停止读取时设备内存占用保持有界
+ *
+ * 文本帧按UTF-8编码后的字节数计入，与写出的字节数一致
+ */
+class OutboundQueue {
+
+    static final int DEFAULT_MAX_FRAMES = 1024;
+    static final long DEFAULT_MAX_BYTES = 4L * 1024 * 1024;
+    static final long DEFAULT_SLOW_CONSUMER_TIMEOUT_MS = 10000;
+
+    // 可配置的上限，避免单个连接的队列占满设备内存或无限期拖住发送方
+    static final int MAX_FRAMES = 65536;
+    static final long MAX_BYTES = 64L * 1024 * 1024;
+    static final long MAX_SLOW_CONSUMER_TIMEOUT_MS = 60000;
+
+    // 新连接使用的默认值，可由outbound_config修改
+    private static volatile int defaultMaxFrames = DEFAULT_MAX_FRAMES;
+    private static volatile long defaultMaxBytes = DEFAULT_MAX_BYTES;
+    private static volatile long defaultSlowConsumerTimeoutMs = DEFAULT_SLOW_CONSUMER_TIMEOUT_MS;
+
+    /**
+     * 入队结果
+     */
+    enum Result {
+        QUEUED,
+        COALESCED,
+        DROPPED,
+        // 等待超时或不允许等待时队列已满，应断开慢消费者
+        SLOW_CONSUMER,
+        CLOSED
+    }
+
+    /**
+     * 出站帧：文本（写出时编码并加换行）或已编码的字节
+     */
+    static final class Frame {
+        String text;
+        byte[] bytes;
+        final String coalesceKey;
+        int size;
+        // 请求的响应帧写出后在该追踪中记录written阶段
+        RequestTracer.Trace trace;
+
+        private Frame(String text, byte[] bytes, String coalesceKey) {
+            this.text = text;
+            this.bytes = bytes;
+            this.coalesceKey = coalesceKey;
+            this.size = text != null ? utf8Length(text) : bytes.length;
+        }
+
+        /**
+         * 文本编码为UTF-8后的字节数（含换行），不实际编码
+         */
+        static int utf8Length(String text) {
+            int length = text.length();
+            int bytes = length + 1;
+            for (int i = 0; i < length; i++) {
+                char c = text.charAt(i);
+                if (c >= 0x800) {
+                    if (Character.isHighSurrogate(c) && i + 1 < length
+                            && Character.isLowSurrogate(text.charAt(i + 1))) {
+                        // 代理对编码为4字节
+                        bytes += 2;
+                        i++;
+                    } else {
+                        bytes += 2;
+                    }
+                } else if (c >= 0x80) {
+                    bytes += 1;
+                }
+            }
+            return bytes;
+        }
+
+        static Frame text(String text, String coalesceKey) {
+            return new Frame(text, null, coalesceKey);
+        }
+
+        static Frame encoded(byte[] bytes, String coalesceKey) {
+            return new Frame(null, bytes, coalesceKey);
+        }
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private final ArrayDeque<Frame> frames = new ArrayDeque<>();
+    // 尚未写出的可合并帧
+    private final Map<String, Frame> coalescing = new HashMap<>();
+    // 本连接覆盖的消息类型策略
+    private final Map<String, OutboundPolicy> policies = new HashMap<>();
+    private int maxFrames;
+    private long maxBytes;
+    private volatile long slowConsumerTimeoutMs;
+    private long queuedBytes = 0;
+    private boolean closed = false;
+
+    private long dropped = 0;
+    private long coalesced = 0;
+    private long blocked = 0;
+    private long maxBlockedMs = 0;
+
+    OutboundQueue() {
+        this.maxFrames = defaultMaxFrames;
+        this.maxBytes = defaultMaxBytes;
+        this.slowConsumerTimeoutMs = defaultSlowConsumerTimeoutMs;
+    }
+
+    /**
+     * 修改本连接的队列容量与慢消费者时限，立即生效；已入队的帧不受影响
+     */
+    void configure(int maxFrames, long maxBytes, long slowConsumerTimeoutMs) {
+        validate(maxFrames, maxBytes, slowConsumerTimeoutMs);
+        lock.lock();
+        try {
+            this.maxFrames = maxFrames;
+            this.maxBytes = maxBytes;
+            this.slowConsumerTimeoutMs = slowConsumerTimeoutMs;
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 设置本连接某类消息的策略，不影响其他连接
+     */
+    void setPolicy(String type, OutboundPolicy policy) {
+        lock.lock();
+        try {
+            policies.put(type, policy);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 某类消息在本连接上的策略：本连接的设置优先，否则取全局策略
+     */
+    OutboundPolicy policyFor(String type) {
+        if (type != null) {
+            lock.lock();
+            try {
+                OutboundPolicy policy = policies.get(type);
+                if (policy != null) {
+                    return policy;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        return OutboundPolicy.of(type);
+    }
+
+    /**
+     * 按策略入队
+     * @param wait BLOCK策略下是否允许等待；不允许时队列满即视为慢消费者
+     */
+    Result offer(Frame frame, OutboundPolicy policy, boolean wait) {
+        lock.lock();
+        try {
+            if (closed) {
+                return Result.CLOSED;
+            }
+            if (policy == OutboundPolicy.COALESCE && frame.coalesceKey != null) {
+                Frame pending = coalescing.get(frame.coalesceKey);
+                if (pending != null) {
+                    // 原位替换为最新内容，保持在队列中的位置
+                    queuedBytes += frame.size - pending.size;
+                    pending.text = frame.text;
+                    pending.bytes = frame.bytes;
+                    pending.size = frame.size;
+                    coalesced++;
+                    Metrics.increment("outbound.coalesced");
+                    return Result.COALESCED;
+                }
+            }
+
+            if (isFull(frame)) {
+                if (policy != OutboundPolicy.BLOCK) {
+                    dropped++;
+                    Metrics.increment("outbound.dropped");
+                    return Result.DROPPED;
+                }
+                if (!wait || !awaitSpace(frame)) {
+                    return closed ? Result.CLOSED : Result.SLOW_CONSUMER;
+                }
+            }
+
+            frames.offer(frame);
+            queuedBytes += frame.size;
+            if (policy == OutboundPolicy.COALESCE && frame.coalesceKey != null) {
+                coalescing.put(frame.coalesceKey, frame);
+            }
+            return Result.QUEUED;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 等待队列腾出空间，须持有lock
+     * @return 超时或队列关闭时返回false
+     */
+    private boolean awaitSpace(Frame frame) {
+        blocked++;
+        long start = System.nanoTime();
+        long remaining = TimeUnit.MILLISECONDS.toNanos(slowConsumerTimeoutMs);
+        try {
+            while (!closed && isFull(frame)) {
+                if (remaining <= 0) {
+                    return false;
+                }
+                remaining = notFull.awaitNanos(remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            maxBlockedMs = Math.max(maxBlockedMs, (System.nanoTime() - start) / 1_000_000);
+        }
+        return !closed;
+    }
+
+    /**
+     * 队列为空时总能放入一帧，超过字节上限的单条消息不会永远等待
+     */
+    private boolean isFull(Frame frame) {
+        return frames.size() >= maxFrames || (!frames.isEmpty() && queuedBytes + frame.size > maxBytes);
+    }
+
+    /**
+     * 取出下一帧
+     * @return 队列为空时返回null
+     */
+    Frame poll() {
+        lock.lock();
+        try {
+            Frame frame = frames.poll();
+            if (frame != null) {
+                queuedBytes -= frame.size;
+                if (frame.coalesceKey != null && coalescing.get(frame.coalesceKey) == frame) {
+                    coalescing.remove(frame.coalesceKey);
+                }
+                notFull.signalAll();
+            }
+            return frame;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 丢弃所有未写出的帧（写出失败时）
+     */
+    void clear() {
+        lock.lock();
+        try {
+            frames.clear();
+            coalescing.clear();
+            queuedBytes = 0;
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 连接关闭：丢弃未写出的帧并唤醒等待中的发送方
+     */
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            frames.clear();
+            coalescing.clear();
+            queuedBytes = 0;
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean isEmpty() {
+        lock.lock();
+        try {
+            return frames.isEmpty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int size() {
+        lock.lock();
+        try {
+            return frames.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long getSlowConsumerTimeoutMs() {
+        return slowConsumerTimeoutMs;
+    }
+
+    Map<String, Object> getStats() {
+        lock.lock();
+        try {
+            Map<String, Object> stats = new HashMap<>();
+            stats.put("frames", frames.size());
+            stats.put("bytes", queuedBytes);
+            stats.put("maxFrames", maxFrames);
+            stats.put("maxBytes", maxBytes);
+            stats.put("slowConsumerTimeoutMs", slowConsumerTimeoutMs);
+            stats.put("dropped", dropped);
+            stats.put("coalesced", coalesced);
+            stats.put("blocked", blocked);
+            stats.put("maxBlockedMs", maxBlockedMs);
+            if (!policies.isEmpty()) {
+                Map<String, String> names = new HashMap<>();
+                for (Map.Entry<String, OutboundPolicy> entry : policies.entrySet()) {
+                    names.put(entry.getKey(), entry.getValue().getName());
+                }
+                stats.put("policies", names);
+            }
+            return stats;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 设置新连接的队列容量与慢消费者时限，已建立的连接不受影响
+     */
+    static void setDefaults(int maxFrames, long maxBytes, long slowConsumerTimeoutMs) {
+        validate(maxFrames, maxBytes, slowConsumerTimeoutMs);
+        defaultMaxFrames = maxFrames;
+        defaultMaxBytes = maxBytes;
+        defaultSlowConsumerTimeoutMs = slowConsumerTimeoutMs;
+    }
+
+    private static void validate(int maxFrames, long maxBytes, long slowConsumerTimeoutMs) {
+        if (maxFrames < 1 || maxBytes < 1) {
+            throw new IllegalArgumentException("队列容量至少为1");
+        }
+        if (maxFrames > MAX_FRAMES || maxBytes > MAX_BYTES) {
+            throw new IllegalArgumentException("队列容量不能超过" + MAX_FRAMES + "帧、" + MAX_BYTES + "字节");
+        }
+        if (slowConsumerTimeoutMs < 0 || slowConsumerTimeoutMs > MAX_SLOW_CONSUMER_TIMEOUT_MS) {
+            throw new IllegalArgumentException("慢消费者时限须在0到" + MAX_SLOW_CONSUMER_TIMEOUT_MS + "ms之间");
+        }
+    }
+
+    static Map<String, Object> getDefaults() {
+        Map<String, Object> defaults = new HashMap<>();
+        defaults.put("maxFrames", defaultMaxFrames);
+        defaults.put("maxBytes", defaultMaxBytes);
+        defaults.put("slowConsumerTimeoutMs", defaultSlowConsumerTimeoutMs);
+        defaults.put("policies", OutboundPolicy.getPolicies());
+        return defaults;
+    }
+}
@@ -0,0 +1,311 @@
+package com.hys.adbtransport;
+
+import android.util.Log;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 优先级分发器
+ * 主通道的消息按类别分两条通道（lane）处理：ping、状态查询、取消等控制消息走控制通道，
+ * 其余命令走批量通道。两条通道各自排队、各自串行处理，并使用不同的线程池，
+ * 控制消息不会排在耗时的测试、传输命令之后，设备繁忙时心跳和取消的延迟保持平稳
+ *
+ * 同一通道内的响应按请求顺序返回，不同通道之间的响应可能交错，客户端应按id匹配。
+ * 取消、暂停、恢复、中止作用于批量通道提交的测试和计划，这些命令等到此前收到的批量请求
+ * 处理完后才执行，不会先于它们要作用的提交
+ */
+public class PriorityDispatcher {
+    private static final String TAG = "PriorityDispatcher";
+
+    public static final String LANE_CONTROL = "control";
+    public static final String LANE_BULK = "bulk";
+
+    // 批量通道每连接最多排队的消息数，超出时直接返回错误
+    public static final int MAX_BULK_QUEUE = 256;
+    // 控制通道的上限只为防止洪泛，正常使用时不会达到
+    public static final int MAX_CONTROL_QUEUE = 1024;
+    // 须排在此前收到的批量请求之后执行的控制命令
+    private static final Set<String> ORDERED_CONTROL_COMMANDS = new HashSet<>(Arrays.asList(
+            "voice_cancel", "plan_pause", "plan_resume", "plan_abort"));
+    // 批量通道已满时建议的重试等待时间
+    private static final long QUEUE_FULL_RETRY_AFTER_MS = 100;
+
+    // 两条通道使用独立的线程池，批量任务占满线程时不影响控制消息
+    private static final ExecutorService controlExecutor = Executors.newCachedThreadPool();
+    private static final ExecutorService bulkExecutor = Executors.newCachedThreadPool();
+
+    private final ConnectionManager connection;
+    private final MessageHandler messageHandler;
+    private final Lane control = new Lane(LANE_CONTROL, controlExecutor, MAX_CONTROL_QUEUE);
+    private final Lane bulk = new Lane(LANE_BULK, bulkExecutor, MAX_BULK_QUEUE);
+
+    public PriorityDispatcher(ConnectionManager connection, MessageHandler messageHandler) {
+        this.connection = connection;
+        this.messageHandler = messageHandler;
+    }
+
+    /**
+     * 分发一条原始消息（在连接读线程中调用，不阻塞）
+     * @param receivedNanos 读到该消息时的System.nanoTime()，用于请求追踪
+     */
+    public void submit(String rawMessage, long receivedNanos) {
+        MessageHandler.Message message = messageHandler.parse(rawMessage);
+        if (message != null && ChannelMultiplexer.isChannelFrame(message)) {
+            // 逻辑通道自行排队
+            messageHandler.handleMessage(rawMessage, message);
+            return;
+        }
+        if (LinkTest.isUpload(message)) {
+            // 上行自测的原始数据紧跟在命令之后，须由读线程直接接收
+            connection.receiveLinkUpload(message);
+            return;
+        }
+        if (message != null) {
+            message.receivedNanos = receivedNanos;
+        }
+        boolean isControl = MessageHandler.isControlMessage(message);
+        // 下行链路自测期间，控制请求都须追踪，以记录负载下的延迟
+        LinkTest.LoadProbe probe = isControl ? connection.getLoadProbe() : null;
+        RequestTracer.Trace trace = RequestTracer.getInstance().begin(connection, message, receivedNanos,
+                probe != null);
+        if (trace != null) {
+            trace.loadProbe = probe;
+            message.trace = trace;
+        }
+        Lane lane = isControl ? control : bulk;
+        lane.enqueue(new Request(rawMessage, message, trace));
+    }
+
+    private static boolean isOrdered(MessageHandler.Message message) {
+        return message != null && MessageHandler.MSG_TYPE_COMMAND.equals(message.type)
+                && ORDERED_CONTROL_COMMANDS.contains(MessageHandler.commandOf(message));
+    }
+
+    /**
+     * 连接关闭时丢弃尚未处理的消息
+     */
+    public void close() {
+        control.close();
+        bulk.close();
+    }
+
+    /**
+     * 各通道的排队与延迟统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put(LANE_CONTROL, control.getStats());
+        stats.put(LANE_BULK, bulk.getStats());
+        return stats;
+    }
+
+    /**
+     * 待处理的消息
+     */
+    private static class Request {
+        final String raw;
+        final MessageHandler.Message message;
+        final RequestTracer.Trace trace;
+        final long enqueuedAt = System.nanoTime();
+        // 在所属通道中的入队序号
+        long seq;
+        // 等待批量通道处理完该序号的请求后再执行
+        long after;
+
+        Request(String raw, MessageHandler.Message message, RequestTracer.Trace trace) {
+            this.raw = raw;
+            this.message = message;
+            this.trace = trace;
+        }
+    }
+
+    /**
+     * 分发通道：入站消息按顺序串行处理
+     */
+    private class Lane {
+        final String name;
+        final ExecutorService executor;
+        final int maxDepth;
+        final Queue<Request> queue = new ConcurrentLinkedQueue<>();
+        final AtomicInteger depth = new AtomicInteger(0);
+        final AtomicBoolean scheduled = new AtomicBoolean(false);
+        final AtomicLong processed = new AtomicLong(0);
+        final AtomicLong rejected = new AtomicLong(0);
+        final AtomicLong totalWaitMicros = new AtomicLong(0);
+        final AtomicLong maxWaitMicros = new AtomicLong(0);
+        final AtomicLong totalServiceMicros = new AtomicLong(0);
+        volatile boolean closed = false;
+        // 入队序号与已处理完的序号，用于控制命令排在批量请求之后
+        private final Object orderLock = new Object();
+        private long enqueuedSeq = 0;
+        private long doneSeq = 0;
+        private final Queue<Request> waiting = new ArrayDeque<>();
+
+        Lane(String name, ExecutorService executor, int maxDepth) {
+            this.name = name;
+            this.executor = executor;
+            this.maxDepth = maxDepth;
+        }
+
+        void enqueue(Request request) {
+            if (closed) {
+                return;
+            }
+            if (depth.get() >= maxDepth) {
+                rejected.incrementAndGet();
+                Metrics.increment("lane." + name + ".rejected");
+                String id = request.message != null ? request.message.id : null;
+                CommandClass commandClass = request.message != null
+                        ? CommandClass.of(MessageHandler.commandOf(request.message)) : CommandClass.QUERY;
+                // 响应写出后由连接结束追踪
+                connection.sendMessage(messageHandler.createRateLimitErrorResponse(id,
+                        MessageHandler.ERROR_QUEUE_FULL, "待处理的请求过多(" + maxDepth + ")",
+                        commandClass, QUEUE_FULL_RETRY_AFTER_MS), request.trace);
+                return;
+            }
+            if (request.trace != null) {
+                request.trace.mark(RequestTracer.STAGE_DISPATCHED);
+            }
+            depth.incrementAndGet();
+            if (this == control && isOrdered(request.message) && bulk.holdUntilDone(request)) {
+                return;
+            }
+            offer(request);
+        }
+
+        private void offer(Request request) {
+            synchronized (orderLock) {
+                request.seq = ++enqueuedSeq;
+            }
+            queue.offer(request);
+            if (scheduled.compareAndSet(false, true)) {
+                executor.execute(this::drain);
+            }
+        }
+
+        /**
+         * 本通道尚有未处理完的请求时，暂存控制请求，等这些请求处理完后再放入控制通道
+         * @return 已暂存时返回true
+         */
+        boolean holdUntilDone(Request request) {
+            synchronized (orderLock) {
+                if (closed || doneSeq >= enqueuedSeq) {
+                    return false;
+                }
+                request.after = enqueuedSeq;
+                waiting.offer(request);
+                return true;
+            }
+        }
+
+        /**
+         * 一条请求处理完毕，放行等待它的控制请求
+         */
+        private void onDone(Request request) {
+            List<Request> released = new ArrayList<>();
+            synchronized (orderLock) {
+                doneSeq = request.seq;
+                while (!waiting.isEmpty() && waiting.peek().after <= doneSeq) {
+                    released.add(waiting.poll());
+                }
+            }
+            for (Request ready : released) {
+                control.offer(ready);
+            }
+        }
+
+        /**
+         * 串行处理队列中的消息
+         */
+        private void drain() {
+            while (true) {
+                Request request = queue.poll();
+                if (request == null) {
+                    scheduled.set(false);
+                    // 复查，避免与enqueue竞争导致消息滞留
+                    if (queue.isEmpty() || !scheduled.compareAndSet(false, true)) {
+                        return;
+                    }
+                    continue;
+                }
+                depth.decrementAndGet();
+                if (closed) {
+                    continue;
+                }
+                try {
+                    process(request);
+                } finally {
+                    onDone(request);
+                }
+            }
+        }
+
+        private void process(Request request) {
+            long start = System.nanoTime();
+            long waitMicros = (start - request.enqueuedAt) / 1000;
+            totalWaitMicros.addAndGet(waitMicros);
+            if (waitMicros > maxWaitMicros.get()) {
+                maxWaitMicros.set(waitMicros);
+            }
+            Metrics.max("lane." + name + ".maxWaitMs", waitMicros / 1000);
+
+            RequestTracer.Trace trace = request.trace;
+            if (trace != null) {
+                trace.mark(RequestTracer.STAGE_HANDLER_START);
+            }
+            // 响应由写线程写出后记录written阶段并结束追踪；没有响应时在此结束
+            try {
+                String response = messageHandler.handleMessage(request.raw, request.message);
+                if (trace != null) {
+                    trace.mark(RequestTracer.STAGE_HANDLER_END);
+                    response = RequestTracer.getInstance().attach(response, trace);
+                }
+                if (response != null) {
+                    connection.sendMessage(response, trace);
+                } else {
+                    RequestTracer.getInstance().complete(trace, connection);
+                }
+            } catch (Exception e) {
+                Log.e(TAG, name + "通道处理消息失败: " + e.getMessage());
+                connection.sendMessage(messageHandler.createErrorResponse("处理消息失败: " + e.getMessage()), trace);
+            }
+            totalServiceMicros.addAndGet((System.nanoTime() - start) / 1000);
+            processed.incrementAndGet();
+            Metrics.increment("lane." + name + ".processed");
+        }
+
+        void close() {
+            closed = true;
+            queue.clear();
+            depth.set(0);
+            synchronized (orderLock) {
+                waiting.clear();
+            }
+        }
+
+        Map<String, Object> getStats() {
+            long count = processed.get();
+            Map<String, Object> stats = new HashMap<>();
+            stats.put("queued", depth.get());
+            stats.put("processed", count);
+            stats.put("rejected", rejected.get());
+            stats.put("avgWaitMs", count == 0 ? 0 : totalWaitMicros.get() / count / 1000.0);
+            stats.put("maxWaitMs", maxWaitMicros.get() / 1000.0);
+            stats.put("avgServiceMs", count == 0 ? 0 : totalServiceMicros.get() / count / 1000.0);
+            return stats;
+        }
+    }
+}
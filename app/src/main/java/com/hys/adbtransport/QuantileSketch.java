@@ -0,0 +1,111 @@
+package com.hys.adbtransport;
+
+import java.util.Arrays;
+
+/**
+ * 可合并的分位数草图
+ * 按对数刻度分桶，分位数估计的相对误差不超过给定精度；
+ * 两个精度相同的草图可直接按桶相加合并，适合按时间窗口或分片聚合
+ */
+public class QuantileSketch {
+    // 默认相对精度1%
+    public static final double DEFAULT_ACCURACY = 0.01;
+
+    private final double gamma;
+    private final double logGamma;
+    private long[] counts = new long[0];
+    private int offset = 0;       // counts[0]对应的桶编号
+    private long zeroCount = 0;   // 小于等于0的值
+    private long count = 0;
+
+    public QuantileSketch() {
+        this(DEFAULT_ACCURACY);
+    }
+
+    public QuantileSketch(double accuracy) {
+        this.gamma = (1 + accuracy) / (1 - accuracy);
+        this.logGamma = Math.log(gamma);
+    }
+
+    /**
+     * 记录一个值
+     */
+    public void add(double value) {
+        count++;
+        if (value <= 0) {
+            zeroCount++;
+            return;
+        }
+        int index = (int) Math.ceil(Math.log(value) / logGamma);
+        ensureRange(index);
+        counts[index - offset]++;
+    }
+
+    /**
+     * 合并另一个草图（精度须相同）
+     */
+    public void merge(QuantileSketch other) {
+        if (other.gamma != gamma) {
+            throw new IllegalArgumentException("草图精度不一致");
+        }
+        if (other.count == 0) {
+            return;
+        }
+        count += other.count;
+        zeroCount += other.zeroCount;
+        if (other.counts.length > 0) {
+            ensureRange(other.offset);
+            ensureRange(other.offset + other.counts.length - 1);
+            for (int i = 0; i < other.counts.length; i++) {
+                counts[other.offset + i - offset] += other.counts[i];
+            }
+        }
+    }
+
+    /**
+     * 估计分位数
+     * @param q 分位（0~1）
+     * @return 估计值，草图为空时返回0
+     */
+    public double quantile(double q) {
+        if (count == 0) {
+            return 0;
+        }
+        // 排名至少为1，q=0时返回最小值而不是0
+        long rank = Math.max(1, (long) Math.ceil(Math.max(0, Math.min(1, q)) * count));
+        if (rank <= zeroCount) {
+            return 0;
+        }
+        long seen = zeroCount;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                // 取桶的中点，使相对误差落在精度范围内
+                int index = i + offset;
+                return 2 * Math.pow(gamma, index) / (gamma + 1);
+            }
+        }
+        return 2 * Math.pow(gamma, offset + counts.length - 1) / (gamma + 1);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    private void ensureRange(int index) {
+        if (counts.length == 0) {
+            counts = new long[8];
+            offset = index;
+            return;
+        }
+        if (index < offset) {
+            int grow = offset - index;
+            long[] expanded = new long[counts.length + grow];
+            System.arraycopy(counts, 0, expanded, grow, counts.length);
+            counts = expanded;
+            offset = index;
+        } else if (index >= offset + counts.length) {
+            counts = Arrays.copyOf(counts, Math.max(index - offset + 1, counts.length * 2));
+        }
+    }
+}
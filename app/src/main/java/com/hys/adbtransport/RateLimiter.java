@@ -0,0 +1,249 @@
+package com.hys.adbtransport;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 客户端会话限流器
+ * 每个连接一个实例：按命令类别的令牌桶限制请求速率（允许一定突发），
+ * 并限制同一会话尚未结束的语音测试数，避免单个失控脚本占满设备
+ */
+public class RateLimiter {
+
+    // 并发配额拒绝时的重试提示：测试结束时间未知，给出固定值
+    public static final long QUOTA_RETRY_AFTER_MS = 1000;
+    // 每个会话默认允许的未结束测试数
+    public static final int DEFAULT_MAX_OUTSTANDING_TESTS = 64;
+
+    // 新会话使用的默认限额，可由rate_limit_config修改
+    private static final Map<CommandClass, Limit> defaultLimits = new EnumMap<>(CommandClass.class);
+    private static volatile int defaultMaxOutstandingTests = DEFAULT_MAX_OUTSTANDING_TESTS;
+
+    static {
+        // 控制类命令开销小，限额宽松，只防止失控的脚本刷满队列
+        defaultLimits.put(CommandClass.CONTROL, new Limit(200, 400));
+        defaultLimits.put(CommandClass.QUERY, new Limit(50, 100));
+        defaultLimits.put(CommandClass.TEST, new Limit(20, 50));
+        defaultLimits.put(CommandClass.TRANSFER, new Limit(5, 10));
+        defaultLimits.put(CommandClass.ADMIN, new Limit(5, 10));
+    }
+
+    private final Map<CommandClass, TokenBucket> buckets = new EnumMap<>(CommandClass.class);
+    private final AtomicInteger outstandingTests = new AtomicInteger(0);
+    private volatile int maxOutstandingTests;
+    private final AtomicLong quotaRejected = new AtomicLong(0);
+
+    /**
+     * 速率限额
+     */
+    public static class Limit {
+        public final double ratePerSec;  // 每秒补充的令牌数，不大于0表示不限
+        public final int burst;          // 桶容量，即允许的突发请求数
+
+        public Limit(double ratePerSec, int burst) {
+            if (ratePerSec > 0 && burst < 1) {
+                throw new IllegalArgumentException("突发容量至少为1");
+            }
+            this.ratePerSec = ratePerSec;
+            this.burst = burst;
+        }
+
+        boolean isUnlimited() {
+            return ratePerSec <= 0;
+        }
+
+        /**
+         * 是否不比另一限额宽松：速率和突发容量都不更大，且不是不限
+         */
+        boolean isWithin(Limit other) {
+            if (other.isUnlimited()) {
+                return true;
+            }
+            return !isUnlimited() && ratePerSec <= other.ratePerSec && burst <= other.burst;
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new HashMap<>();
+            map.put("ratePerSec", ratePerSec);
+            map.put("burst", burst);
+            return map;
+        }
+    }
+
+    /**
+     * 令牌桶：按速率连续补充，容量为突发上限
+     */
+    private static class TokenBucket {
+        Limit limit;
+        double tokens;
+        long lastRefill = System.nanoTime();
+        long allowed = 0;
+        long rejected = 0;
+
+        TokenBucket(Limit limit) {
+            this.limit = limit;
+            this.tokens = limit.burst;
+        }
+
+        synchronized long tryAcquire() {
+            if (limit.isUnlimited()) {
+                allowed++;
+                return 0;
+            }
+            long now = System.nanoTime();
+            tokens = Math.min(limit.burst, tokens + (now - lastRefill) / 1e9 * limit.ratePerSec);
+            lastRefill = now;
+            if (tokens >= 1) {
+                tokens -= 1;
+                allowed++;
+                return 0;
+            }
+            rejected++;
+            // 补足一个令牌所需的时间
+            return Math.max(1, (long) Math.ceil((1 - tokens) * 1000 / limit.ratePerSec));
+        }
+
+        synchronized void setLimit(Limit newLimit) {
+            // 由不限改为限速时从满桶开始
+            tokens = limit.isUnlimited() ? newLimit.burst : Math.min(tokens, newLimit.burst);
+            limit = newLimit;
+        }
+
+        synchronized Limit getLimit() {
+            return limit;
+        }
+
+        synchronized Map<String, Object> toMap() {
+            Map<String, Object> map = limit.toMap();
+            map.put("allowed", allowed);
+            map.put("rejected", rejected);
+            return map;
+        }
+    }
+
+    public RateLimiter() {
+        synchronized (defaultLimits) {
+            for (Map.Entry<CommandClass, Limit> entry : defaultLimits.entrySet()) {
+                buckets.put(entry.getKey(), new TokenBucket(entry.getValue()));
+            }
+        }
+        maxOutstandingTests = defaultMaxOutstandingTests;
+    }
+
+    /**
+     * 为一条命令取令牌
+     * @return 0表示放行，否则为建议的重试等待时间（毫秒）
+     */
+    public long tryAcquire(CommandClass commandClass) {
+        long retryAfterMs = buckets.get(commandClass).tryAcquire();
+        if (retryAfterMs > 0) {
+            Metrics.increment("ratelimit.rejected." + commandClass.getName());
+        }
+        return retryAfterMs;
+    }
+
+    /**
+     * 占用一个未结束测试的配额，测试结束时须调用releaseTest
+     * @return 配额已满时返回false
+     */
+    public boolean tryAcquireTest() {
+        while (true) {
+            int current = outstandingTests.get();
+            if (current >= maxOutstandingTests) {
+                quotaRejected.incrementAndGet();
+                Metrics.increment("ratelimit.quotaRejected");
+                return false;
+            }
+            if (outstandingTests.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    public void releaseTest() {
+        outstandingTests.decrementAndGet();
+    }
+
+    public int getOutstandingTests() {
+        return outstandingTests.get();
+    }
+
+    public int getMaxOutstandingTests() {
+        return maxOutstandingTests;
+    }
+
+    /**
+     * 新限额是否只会收紧本会话某类命令的限额
+     */
+    public boolean isTightening(CommandClass commandClass, Limit limit) {
+        return limit.isWithin(buckets.get(commandClass).getLimit());
+    }
+
+    /**
+     * 设置本会话某类命令的速率限额
+     */
+    public void setLimit(CommandClass commandClass, Limit limit) {
+        buckets.get(commandClass).setLimit(limit);
+    }
+
+    /**
+     * 设置本会话允许的未结束测试数，已在执行的测试不受影响
+     */
+    public void setMaxOutstandingTests(int max) {
+        if (max < 1) {
+            throw new IllegalArgumentException("未结束测试数上限至少为1");
+        }
+        maxOutstandingTests = max;
+    }
+
+    /**
+     * 设置新会话的默认限额，已建立的会话不受影响
+     */
+    public static void setDefaultLimit(CommandClass commandClass, Limit limit) {
+        synchronized (defaultLimits) {
+            defaultLimits.put(commandClass, limit);
+        }
+    }
+
+    public static void setDefaultMaxOutstandingTests(int max) {
+        if (max < 1) {
+            throw new IllegalArgumentException("未结束测试数上限至少为1");
+        }
+        defaultMaxOutstandingTests = max;
+    }
+
+    /**
+     * 新会话的默认限额
+     */
+    public static Map<String, Object> getDefaults() {
+        Map<String, Object> defaults = new HashMap<>();
+        Map<String, Object> limits = new HashMap<>();
+        synchronized (defaultLimits) {
+            for (Map.Entry<CommandClass, Limit> entry : defaultLimits.entrySet()) {
+                limits.put(entry.getKey().getName(), entry.getValue().toMap());
+            }
+        }
+        defaults.put("limits", limits);
+        defaults.put("maxOutstandingTests", defaultMaxOutstandingTests);
+        return defaults;
+    }
+
+    /**
+     * 本会话的限额与计数
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        Map<String, Object> limits = new HashMap<>();
+        for (Map.Entry<CommandClass, TokenBucket> entry : buckets.entrySet()) {
+            limits.put(entry.getKey().getName(), entry.getValue().toMap());
+        }
+        stats.put("limits", limits);
+        stats.put("outstandingTests", outstandingTests.get());
+        stats.put("maxOutstandingTests", maxOutstandingTests);
+        stats.put("quotaRejected", quotaRejected.get());
+        return stats;
+    }
+}
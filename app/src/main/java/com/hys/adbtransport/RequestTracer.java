@@ -0,0 +1,292 @@
+package com.hys.adbtransport;
+
+import android.util.Log;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 请求追踪
+ * 记录一条请求在设备端各阶段的时间点：收到、解析完成、分发、处理开始/结束、SDK开始/完成、写出。
+ * 请求数据中带"trace": true时，响应附带已知阶段的耗时；此外按配置每N条请求抽样一条。
+ * 所有追踪结束后进入固定容量的环形缓冲，可用trace_get取回
+ */
+public class RequestTracer {
+    private static final String TAG = "RequestTracer";
+
+    public static final String STAGE_RECEIVED = "received";
+    public static final String STAGE_PARSED = "parsed";
+    public static final String STAGE_DISPATCHED = "dispatched";
+    public static final String STAGE_HANDLER_START = "handlerStart";
+    public static final String STAGE_HANDLER_END = "handlerEnd";
+    public static final String STAGE_WRITTEN = "written";
+    public static final String STAGE_SDK_START = "sdkStart";
+    public static final String STAGE_SDK_COMPLETE = "sdkComplete";
+
+    public static final int DEFAULT_CAPACITY = 256;
+    // 环形缓冲容量上限，避免一次配置分配过大的数组
+    public static final int MAX_CAPACITY = 4096;
+    // 默认每100条请求抽样1条，0表示只追踪显式要求的请求
+    public static final int DEFAULT_SAMPLE_EVERY = 100;
+
+    private static final RequestTracer instance = new RequestTracer();
+    private static final Gson gson = new Gson();
+
+    private final Object ringLock = new Object();
+    private Trace[] ring = new Trace[DEFAULT_CAPACITY];
+    private int ringNext = 0;
+    private int ringSize = 0;
+    private volatile int sampleEvery = DEFAULT_SAMPLE_EVERY;
+    private final AtomicLong requestCounter = new AtomicLong(0);
+    private final AtomicLong recorded = new AtomicLong(0);
+
+    public static RequestTracer getInstance() {
+        return instance;
+    }
+
+    private RequestTracer() {
+    }
+
+    /**
+     * 单条请求的追踪记录
+     * 阶段时间以收到请求为起点，单位毫秒
+     */
+    public static class Trace {
+        final String id;
+        final String command;
+        final String connectionId;
+        // 显式要求追踪（响应中附带追踪信息）
+        final boolean requested;
+        final long receivedAt;
+        private final long receivedNanos;
+        private final Map<String, Double> stages = new LinkedHashMap<>();
+        // 尚未结束的参与方：分发通道，以及异步执行的测试
+        private final AtomicInteger pending = new AtomicInteger(1);
+        private volatile boolean deferred = false;
+        // 下行链路自测期间收到的控制请求，写出时记录负载下的延迟
+        LinkTest.LoadProbe loadProbe;
+
+        Trace(String id, String command, String connectionId, boolean requested, long receivedNanos) {
+            this.id = id;
+            this.command = command;
+            this.connectionId = connectionId;
+            this.requested = requested;
+            this.receivedNanos = receivedNanos;
+            this.receivedAt = System.currentTimeMillis() - (System.nanoTime() - receivedNanos) / 1_000_000;
+            stages.put(STAGE_RECEIVED, 0.0);
+        }
+
+        /**
+         * 以当前时间记录一个阶段
+         */
+        public void mark(String stage) {
+            double elapsedMs = (System.nanoTime() - receivedNanos) / 1000 / 1000.0;
+            synchronized (stages) {
+                stages.put(stage, elapsedMs);
+            }
+        }
+
+        /**
+         * 从读到请求至今的耗时
+         */
+        long elapsedNanos() {
+            return System.nanoTime() - receivedNanos;
+        }
+
+        /**
+         * 以过去某一时刻记录一个阶段
+         * @param nanos 该时刻的System.nanoTime()，与收到请求的时刻同一时基
+         */
+        public void markAtNanos(String stage, long nanos) {
+            double elapsedMs = (nanos - receivedNanos) / 1000 / 1000.0;
+            synchronized (stages) {
+                stages.put(stage, elapsedMs);
+            }
+        }
+
+        /**
+         * 追踪在响应写出后仍需等待异步阶段（如测试执行），须由对应方调用complete
+         */
+        public void hold() {
+            pending.incrementAndGet();
+            deferred = true;
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new HashMap<>();
+            map.put("id", id);
+            map.put("command", command);
+            map.put("connection", connectionId);
+            map.put("requested", requested);
+            map.put("receivedAt", receivedAt);
+            List<Map.Entry<String, Double>> entries;
+            synchronized (stages) {
+                entries = new ArrayList<>(stages.entrySet());
+            }
+            // 异步阶段可能晚于写出才记录，按时间先后排列
+            Collections.sort(entries, (x, y) -> Double.compare(x.getValue(), y.getValue()));
+            Map<String, Double> ordered = new LinkedHashMap<>();
+            for (Map.Entry<String, Double> entry : entries) {
+                ordered.put(entry.getKey(), entry.getValue());
+            }
+            map.put("stages", ordered);
+            map.put("totalMs", entries.get(entries.size() - 1).getValue());
+            return map;
+        }
+    }
+
+    /**
+     * 为解析后的请求决定是否追踪
+     * @param receivedNanos 读到该行时的System.nanoTime()
+     * @return 不追踪时返回null
+     */
+    public Trace begin(ConnectionManager connection, MessageHandler.Message message, long receivedNanos) {
+        return begin(connection, message, receivedNanos, false);
+    }
+
+    /**
+     * @param force 不论是否抽样都追踪（如链路自测期间的控制请求）
+     */
+    public Trace begin(ConnectionManager connection, MessageHandler.Message message, long receivedNanos,
+                       boolean force) {
+        if (message == null) {
+            return null;
+        }
+        boolean requested = message.data instanceof Map
+                && Boolean.parseBoolean(String.valueOf(((Map<?, ?>) message.data).get("trace")));
+        int every = sampleEvery;
+        boolean sampled = every > 0 && requestCounter.incrementAndGet() % every == 0;
+        if (!requested && !sampled && !force) {
+            return null;
+        }
+        String command = MessageHandler.MSG_TYPE_COMMAND.equals(message.type)
+                ? MessageHandler.commandOf(message) : message.type;
+        Trace trace = new Trace(message.id, command, connection != null ? connection.getId() : null,
+                requested, receivedNanos);
+        trace.mark(STAGE_PARSED);
+        return trace;
+    }
+
+    /**
+     * 在响应中附带追踪信息（只对显式要求追踪的请求）
+     * @return 附带追踪信息的响应，响应不是JSON对象时原样返回
+     */
+    public String attach(String response, Trace trace) {
+        if (trace == null || !trace.requested || response == null) {
+            return response;
+        }
+        try {
+            JsonElement element = JsonParser.parseString(response);
+            if (!element.isJsonObject()) {
+                return response;
+            }
+            JsonObject object = element.getAsJsonObject();
+            object.add("trace", gson.toJsonTree(trace.toMap()));
+            return gson.toJson(object);
+        } catch (RuntimeException e) {
+            return response;
+        }
+    }
+
+    /**
+     * 一个参与方结束；全部结束后记入环形缓冲
+     * 追踪在响应写出后才结束时（含异步阶段），向显式要求追踪的客户端补发完整的追踪事件
+     */
+    public void complete(Trace trace, ConnectionManager connection) {
+        if (trace == null || trace.pending.decrementAndGet() != 0) {
+            return;
+        }
+        record(trace);
+        if (trace.requested && trace.deferred && connection != null) {
+            MessageHandler.Message event = new MessageHandler.Message();
+            event.type = MessageHandler.MSG_TYPE_TRACE;
+            event.id = trace.id;
+            event.data = trace.toMap();
+            connection.sendEvent(event.type, event.id, connection.toJson(event));
+        }
+    }
+
+    private void record(Trace trace) {
+        synchronized (ringLock) {
+            ring[ringNext] = trace;
+            ringNext = (ringNext + 1) % ring.length;
+            ringSize = Math.min(ringSize + 1, ring.length);
+        }
+        recorded.incrementAndGet();
+        Metrics.increment("trace.recorded");
+    }
+
+    /**
+     * 最近的追踪记录，按时间从新到旧
+     * @param limit 最多返回的条数
+     * @param clear 取回后清空环形缓冲
+     */
+    public List<Map<String, Object>> getRecent(int limit, boolean clear) {
+        List<Trace> traces = new ArrayList<>();
+        synchronized (ringLock) {
+            for (int i = 1; i <= ringSize && traces.size() < limit; i++) {
+                traces.add(ring[(ringNext - i + ring.length) % ring.length]);
+            }
+            if (clear) {
+                ring = new Trace[ring.length];
+                ringNext = 0;
+                ringSize = 0;
+            }
+        }
+        List<Map<String, Object>> result = new ArrayList<>(traces.size());
+        for (Trace trace : traces) {
+            result.add(trace.toMap());
+        }
+        return result;
+    }
+
+    /**
+     * 设置抽样间隔，0表示只追踪显式要求的请求
+     */
+    public void setSampleEvery(int every) {
+        if (every < 0) {
+            throw new IllegalArgumentException("抽样间隔不能为负数");
+        }
+        sampleEvery = every;
+        Log.i(TAG, "追踪抽样间隔: " + every);
+    }
+
+    /**
+     * 设置环形缓冲容量，已有记录中较新的部分保留
+     */
+    public void setCapacity(int capacity) {
+        if (capacity < 1 || capacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("追踪缓冲容量须在1到" + MAX_CAPACITY + "之间");
+        }
+        synchronized (ringLock) {
+            Trace[] resized = new Trace[capacity];
+            int keep = Math.min(ringSize, capacity);
+            for (int i = 0; i < keep; i++) {
+                resized[keep - 1 - i] = ring[(ringNext - 1 - i + ring.length) % ring.length];
+            }
+            ring = resized;
+            ringSize = keep;
+            ringNext = keep % capacity;
+        }
+    }
+
+    public Map<String, Object> getConfig() {
+        Map<String, Object> config = new HashMap<>();
+        synchronized (ringLock) {
+            config.put("capacity", ring.length);
+            config.put("size", ringSize);
+        }
+        config.put("sampleEvery", sampleEvery);
+        config.put("recorded", recorded.get());
+        return config;
+    }
+}
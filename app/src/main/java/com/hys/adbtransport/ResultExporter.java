@@ -0,0 +1,203 @@
+package com.hys.adbtransport;
+
+import android.util.Log;
+import com.google.gson.Gson;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 历史结果导出
+ * 从结果日志按游标分页导出，按块直接写入连接，不在内存中构建完整响应
+ */
+public class ResultExporter {
+    private static final String TAG = "ResultExporter";
+
+    public static final String FORMAT_NDJSON = "ndjson";
+    public static final String FORMAT_BINARY = "binary";
+
+    // 默认分块大小
+    public static final int DEFAULT_CHUNK_SIZE = 256 * 1024;
+    // 单次导出默认记录数上限
+    public static final int DEFAULT_LIMIT = 10000;
+
+    private static final Gson gson = new Gson();
+
+    /**
+     * 导出过滤条件
+     */
+    public static class Filter {
+        public long from = 0;           // 完成时间下限（含）
+        public long to = Long.MAX_VALUE; // 完成时间上限（不含）
+        public String area;             // 音区
+        public String titlePrefix;      // 话术前缀
+
+        boolean matches(VoiceTestResult result) {
+            if (result.endTime < from || result.endTime >= to) {
+                return false;
+            }
+            if (area != null && !area.equals(result.area)) {
+                return false;
+            }
+            return titlePrefix == null || (result.title != null && result.title.startsWith(titlePrefix));
+        }
+    }
+
+    /**
+     * 从游标位置导出结果
+     * 每块先发送一行export_chunk块头，紧跟length个原始字节：
+     * ndjson格式为每行一条JSON记录；binary格式为日志中的原始记录（[长度][CRC32][负载]）
+     *
+     * @param connection 目标连接
+     * @param requestId 请求ID
+     * @param cursor 起始游标，0表示从头开始
+     * @param filter 过滤条件
+     * @param format 导出格式
+     * @param limit 本次最多导出的记录数
+     * @param chunkSize 分块大小
+     * @return 导出摘要，nextCursor用于继续导出
+     */
+    public static Map<String, Object> export(ConnectionManager connection, String requestId, long cursor,
+                                             Filter filter, String format, int limit, int chunkSize)
+            throws IOException {
+        boolean binary = FORMAT_BINARY.equals(format);
+        if (!binary && !FORMAT_NDJSON.equals(format)) {
+            throw new IOException("不支持的导出格式: " + format);
+        }
+
+        ChunkWriter writer = new ChunkWriter(connection, requestId, format,
+                Math.max(1024, Math.min(chunkSize, ArtifactStore.MAX_CHUNK_SIZE)));
+        int[] exported = new int[1];
+        boolean[] limited = new boolean[1];
+        long nextCursor;
+
+        try {
+            nextCursor = ResultJournal.getInstance().scan(cursor, (position, record) -> {
+                if (exported[0] >= limit) {
+                    limited[0] = true;
+                    return false;
+                }
+                VoiceTestResult result = ResultJournal.decodeRecord(record);
+                if (!filter.matches(result)) {
+                    return true;
+                }
+
+                boolean written = binary
+                        ? writer.write(record)
+                        : writer.write(gson.toJson(result) + "\n");
+                if (!written) {
+                    return false;
+                }
+                exported[0]++;
+                return true;
+            });
+
+            if (writer.failed) {
+                throw new IOException("连接已断开，导出中止于游标: " + nextCursor);
+            }
+            if (!writer.flush()) {
+                throw new IOException("连接已断开，导出中止于游标: " + nextCursor);
+            }
+        } finally {
+            writer.release();
+        }
+
+        Map<String, Object> summary = new HashMap<>();
+        summary.put("format", format);
+        summary.put("records", exported[0]);
+        summary.put("bytes", writer.totalBytes);
+        summary.put("chunks", writer.chunks);
+        // 游标以字符串返回，避免客户端按双精度解析丢失精度
+        summary.put("nextCursor", String.valueOf(nextCursor));
+        summary.put("done", !limited[0]);
+        Log.d(TAG, "导出完成: " + summary);
+        return summary;
+    }
+
+    /**
+     * 分块写出器，复用一个从BufferPool租用的分块缓冲区，用完须调用release
+     */
+    private static class ChunkWriter {
+        final ConnectionManager connection;
+        final String requestId;
+        final String format;
+        final int capacity;
+        final BufferPool.Lease lease;
+        final byte[] buffer;
+        int length = 0;
+        int records = 0;
+        int chunks = 0;
+        long totalBytes = 0;
+        boolean failed = false;
+
+        ChunkWriter(ConnectionManager connection, String requestId, String format, int chunkSize) {
+            this.connection = connection;
+            this.requestId = requestId;
+            this.format = format;
+            this.capacity = chunkSize;
+            this.lease = BufferPool.lease(chunkSize);
+            this.buffer = lease.array();
+        }
+
+        boolean write(String line) {
+            return write(ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8)));
+        }
+
+        boolean write(ByteBuffer data) {
+            int size = data.remaining();
+            if (length + size > capacity && !flush()) {
+                return false;
+            }
+            if (size > capacity) {
+                // 超过分块大小的单条记录单独成块
+                BufferPool.Lease large = BufferPool.lease(size);
+                try {
+                    data.get(large.array(), 0, size);
+                    records = 1;
+                    return send(large.array(), size);
+                } finally {
+                    large.release();
+                }
+            }
+            data.get(buffer, length, size);
+            length += size;
+            records++;
+            return true;
+        }
+
+        boolean flush() {
+            if (length == 0) {
+                return !failed;
+            }
+            boolean sent = send(buffer, length);
+            length = 0;
+            return sent;
+        }
+
+        private boolean send(byte[] data, int size) {
+            MessageHandler.Message header = new MessageHandler.Message();
+            header.type = MessageHandler.MSG_TYPE_EXPORT_CHUNK;
+            header.id = requestId;
+            Map<String, Object> info = new HashMap<>();
+            info.put("format", format);
+            info.put("length", size);
+            info.put("records", records);
+            header.data = info;
+
+            records = 0;
+            if (!connection.sendBinaryFrame(header, data, 0, size)) {
+                failed = true;
+                return false;
+            }
+            chunks++;
+            totalBytes += size;
+            return true;
+        }
+
+        void release() {
+            lease.release();
+        }
+    }
+}
@@ -0,0 +1,406 @@
+package com.hys.adbtransport;
+
+import android.util.Log;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * 测试结果二级索引
+ * 在每条结果写入日志时同步维护按音区、话术、评分、完成时间和通过与否的索引，
+ * 查询时选择最小的候选集合再逐条校验其余条件，耗时与匹配数成正比而不是全量扫描
+ *
+ * 索引只保存记录位置和用于过滤的列，完整结果按需从日志读取
+ */
+public class ResultIndex implements ResultJournal.AppendListener {
+    private static final String TAG = "ResultIndex";
+
+    // 时间索引的分桶粒度
+    private static final long TIME_BUCKET_MS = 60 * 1000;
+    // 单次查询返回的最大条数
+    public static final int MAX_QUERY_LIMIT = 1000;
+    public static final int DEFAULT_QUERY_LIMIT = 100;
+
+    public static final String SORT_TIME = "time";
+    public static final String SORT_SCORE = "score";
+
+    private static final ResultIndex instance = new ResultIndex();
+
+    // 按写入顺序编号的列存储
+    private long[] positions = new long[1024];
+    private long[] endTimes = new long[1024];
+    private int[] scores = new int[1024];
+    private int[] areaIds = new int[1024];
+    private int[] titleIds = new int[1024];
+    private boolean[] passed = new boolean[1024];
+    private int size = 0;
+
+    // 字典：音区、话术去重后以编号保存
+    private final Map<String, Integer> areaDict = new HashMap<>();
+    private final Map<String, Integer> titleDict = new HashMap<>();
+
+    // 二级索引：键 -> 记录编号列表（升序）
+    private final Map<Integer, IntList> byArea = new HashMap<>();
+    private final Map<Integer, IntList> byTitle = new HashMap<>();
+    private final TreeMap<Integer, IntList> byScore = new TreeMap<>();
+    private final TreeMap<Long, IntList> byTimeBucket = new TreeMap<>();
+    private final IntList passedList = new IntList();
+    private final IntList failedList = new IntList();
+
+    /**
+     * 查询条件，为空的字段不参与过滤
+     */
+    public static class Query {
+        public String area;
+        public String title;
+        public Integer minScore;
+        public Integer maxScore;
+        public Long from;           // 完成时间下限（含）
+        public Long to;             // 完成时间上限（不含）
+        public Boolean passed;
+        public String sortBy = SORT_TIME;
+        public boolean descending = true;
+        public int limit = DEFAULT_QUERY_LIMIT;
+    }
+
+    private ResultIndex() {
+    }
+
+    public static ResultIndex getInstance() {
+        return instance;
+    }
+
+    /**
+     * 从日志重建索引并开始跟踪新写入的记录
+     * 重建期间持有日志锁，保证扫描与后续追加之间不遗漏也不重复
+     */
+    public void attach(ResultJournal journal) throws IOException {
+        synchronized (journal) {
+            journal.removeAppendListener(this);
+            synchronized (this) {
+                clear();
+            }
+            journal.scan(0, (position, record) -> {
+                add(position, ResultJournal.decodeRecord(record));
+                return true;
+            });
+            journal.addAppendListener(this);
+        }
+        Log.i(TAG, "结果索引已建立: " + size() + "条记录");
+    }
+
+    @Override
+    public void onAppend(long position, VoiceTestResult result) {
+        add(position, result);
+    }
+
+    /**
+     * 已索引的记录数
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * 执行查询
+     * @return total为匹配总数，results为排序并截断后的结果
+     */
+    public Map<String, Object> query(Query query) throws IOException {
+        int limit = Math.max(1, Math.min(query.limit, MAX_QUERY_LIMIT));
+        long[] matchedPositions;
+        int total;
+
+        synchronized (this) {
+            IntList matches = collectMatches(query);
+            total = matches.size;
+            int[] ordinals = sortMatches(matches, query);
+            int count = Math.min(limit, ordinals.length);
+            matchedPositions = new long[count];
+            for (int i = 0; i < count; i++) {
+                matchedPositions[i] = positions[ordinals[i]];
+            }
+        }
+
+        // 完整记录在索引锁外从日志读取
+        ResultJournal journal = ResultJournal.getInstance();
+        List<Map<String, Object>> results = new ArrayList<>(matchedPositions.length);
+        for (long position : matchedPositions) {
+            VoiceTestResult result = journal.read(position);
+            if (result != null) {
+                results.add(result.toMap());
+            }
+        }
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("total", total);
+        response.put("returned", results.size());
+        response.put("results", results);
+        return response;
+    }
+
+    private synchronized void add(long position, VoiceTestResult result) {
+        ensureCapacity(size + 1);
+        int ordinal = size++;
+        int areaId = intern(areaDict, result.area);
+        int titleId = intern(titleDict, result.title);
+        boolean ok = result.isPassed();
+
+        positions[ordinal] = position;
+        endTimes[ordinal] = result.endTime;
+        scores[ordinal] = result.score;
+        areaIds[ordinal] = areaId;
+        titleIds[ordinal] = titleId;
+        passed[ordinal] = ok;
+
+        listFor(byArea, areaId).add(ordinal);
+        listFor(byTitle, titleId).add(ordinal);
+        listFor(byScore, result.score).add(ordinal);
+        listFor(byTimeBucket, Math.floorDiv(result.endTime, TIME_BUCKET_MS)).add(ordinal);
+        (ok ? passedList : failedList).add(ordinal);
+    }
+
+    /**
+     * 选择最小的候选集合，逐条校验其余条件
+     */
+    private IntList collectMatches(Query query) {
+        Integer areaId = query.area == null ? null : areaDict.get(query.area);
+        Integer titleId = query.title == null ? null : titleDict.get(query.title);
+        if ((query.area != null && areaId == null) || (query.title != null && titleId == null)) {
+            return new IntList();
+        }
+
+        List<IntList> candidates = null;
+        int candidateSize = Integer.MAX_VALUE;
+
+        if (areaId != null) {
+            IntList list = byArea.get(areaId);
+            candidates = singleton(list);
+            candidateSize = list.size;
+        }
+        if (titleId != null) {
+            IntList list = byTitle.get(titleId);
+            if (list.size < candidateSize) {
+                candidates = singleton(list);
+                candidateSize = list.size;
+            }
+        }
+        if (query.passed != null) {
+            IntList list = query.passed ? passedList : failedList;
+            if (list.size < candidateSize) {
+                candidates = singleton(list);
+                candidateSize = list.size;
+            }
+        }
+        if (query.minScore != null || query.maxScore != null) {
+            int low = query.minScore == null ? Integer.MIN_VALUE : query.minScore;
+            int high = query.maxScore == null ? Integer.MAX_VALUE : query.maxScore;
+            if (low > high) {
+                return new IntList();
+            }
+            List<IntList> lists = new ArrayList<>(byScore.subMap(low, true, high, true).values());
+            int total = sizeOf(lists);
+            if (total < candidateSize) {
+                candidates = lists;
+                candidateSize = total;
+            }
+        }
+        if (query.from != null || query.to != null) {
+            long low = query.from == null ? Long.MIN_VALUE : Math.floorDiv(query.from, TIME_BUCKET_MS);
+            long high = query.to == null ? Long.MAX_VALUE : Math.floorDiv(query.to, TIME_BUCKET_MS);
+            if (low > high) {
+                return new IntList();
+            }
+            NavigableMap<Long, IntList> buckets = byTimeBucket.subMap(low, true, high, true);
+            List<IntList> lists = new ArrayList<>(buckets.values());
+            int total = sizeOf(lists);
+            if (total < candidateSize) {
+                candidates = lists;
+            }
+        }
+
+        IntList matches = new IntList();
+        if (candidates == null) {
+            for (int ordinal = 0; ordinal < size; ordinal++) {
+                matches.add(ordinal);
+            }
+            return matches;
+        }
+
+        for (IntList list : candidates) {
+            for (int i = 0; i < list.size; i++) {
+                int ordinal = list.values[i];
+                if (matches(ordinal, query, areaId, titleId)) {
+                    matches.add(ordinal);
+                }
+            }
+        }
+        return matches;
+    }
+
+    private boolean matches(int ordinal, Query query, Integer areaId, Integer titleId) {
+        if (areaId != null && areaIds[ordinal] != areaId) {
+            return false;
+        }
+        if (titleId != null && titleIds[ordinal] != titleId) {
+            return false;
+        }
+        if (query.passed != null && passed[ordinal] != query.passed) {
+            return false;
+        }
+        if (query.minScore != null && scores[ordinal] < query.minScore) {
+            return false;
+        }
+        if (query.maxScore != null && scores[ordinal] > query.maxScore) {
+            return false;
+        }
+        if (query.from != null && endTimes[ordinal] < query.from) {
+            return false;
+        }
+        return query.to == null || endTimes[ordinal] < query.to;
+    }
+
+    private int[] sortMatches(IntList matches, Query query) {
+        int[] ordinals = Arrays.copyOf(matches.values, matches.size);
+        if (SORT_SCORE.equals(query.sortBy)) {
+            long[] keys = new long[ordinals.length];
+            for (int i = 0; i < ordinals.length; i++) {
+                // 评分相同时按写入顺序
+                keys[i] = ((long) scores[ordinals[i]] << 32) | ordinals[i];
+            }
+            Arrays.sort(keys);
+            for (int i = 0; i < keys.length; i++) {
+                ordinals[i] = (int) keys[i];
+            }
+        } else {
+            sortByTime(ordinals);
+        }
+
+        if (query.descending) {
+            for (int i = 0, j = ordinals.length - 1; i < j; i++, j--) {
+                int tmp = ordinals[i];
+                ordinals[i] = ordinals[j];
+                ordinals[j] = tmp;
+            }
+        }
+        return ordinals;
+    }
+
+    /**
+     * 按完成时间排序，时间相同时按写入顺序
+     * 完成时间减去最小值后与编号打包成一个long，一次Arrays.sort完成排序
+     */
+    private void sortByTime(int[] ordinals) {
+        if (ordinals.length < 2) {
+            return;
+        }
+        long minTime = Long.MAX_VALUE;
+        long maxTime = Long.MIN_VALUE;
+        for (int ordinal : ordinals) {
+            minTime = Math.min(minTime, endTimes[ordinal]);
+            maxTime = Math.max(maxTime, endTimes[ordinal]);
+        }
+        // 编号小于size，低位留出编号所需的位数，其余位放时间差
+        int ordinalBits = 32 - Integer.numberOfLeadingZeros(size);
+        long span = maxTime - minTime;
+        if (span < 0 || (span >>> (63 - ordinalBits)) != 0) {
+            // 时间跨度放不进剩余的位（异常的时间戳），退回比较器排序
+            Integer[] boxed = new Integer[ordinals.length];
+            for (int i = 0; i < ordinals.length; i++) {
+                boxed[i] = ordinals[i];
+            }
+            Arrays.sort(boxed, (a, b) -> endTimes[a] != endTimes[b]
+                    ? Long.compare(endTimes[a], endTimes[b]) : Integer.compare(a, b));
+            for (int i = 0; i < ordinals.length; i++) {
+                ordinals[i] = boxed[i];
+            }
+            return;
+        }
+        long[] keys = new long[ordinals.length];
+        for (int i = 0; i < ordinals.length; i++) {
+            keys[i] = ((endTimes[ordinals[i]] - minTime) << ordinalBits) | ordinals[i];
+        }
+        Arrays.sort(keys);
+        long mask = (1L << ordinalBits) - 1;
+        for (int i = 0; i < keys.length; i++) {
+            ordinals[i] = (int) (keys[i] & mask);
+        }
+    }
+
+    private void clear() {
+        size = 0;
+        areaDict.clear();
+        titleDict.clear();
+        byArea.clear();
+        byTitle.clear();
+        byScore.clear();
+        byTimeBucket.clear();
+        passedList.size = 0;
+        failedList.size = 0;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= positions.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, positions.length * 2);
+        positions = Arrays.copyOf(positions, newCapacity);
+        endTimes = Arrays.copyOf(endTimes, newCapacity);
+        scores = Arrays.copyOf(scores, newCapacity);
+        areaIds = Arrays.copyOf(areaIds, newCapacity);
+        titleIds = Arrays.copyOf(titleIds, newCapacity);
+        passed = Arrays.copyOf(passed, newCapacity);
+    }
+
+    private static int intern(Map<String, Integer> dict, String value) {
+        String key = value == null ? "" : value;
+        Integer id = dict.get(key);
+        if (id == null) {
+            id = dict.size();
+            dict.put(key, id);
+        }
+        return id;
+    }
+
+    private static <K> IntList listFor(Map<K, IntList> index, K key) {
+        IntList list = index.get(key);
+        if (list == null) {
+            list = new IntList();
+            index.put(key, list);
+        }
+        return list;
+    }
+
+    private static List<IntList> singleton(IntList list) {
+        List<IntList> lists = new ArrayList<>(1);
+        lists.add(list);
+        return lists;
+    }
+
+    private static int sizeOf(List<IntList> lists) {
+        int total = 0;
+        for (IntList list : lists) {
+            total += list.size;
+        }
+        return total;
+    }
+
+    /**
+     * 紧凑的int列表，避免装箱
+     */
+    private static class IntList {
+        int[] values = new int[4];
+        int size = 0;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+}
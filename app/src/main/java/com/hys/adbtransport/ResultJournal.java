@@ -0,0 +1,606 @@
+package com.hys.adbtransport;
+
+import android.util.Log;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * 测试结果日志
+ * 以追加方式把每条完成的测试结果写入分段的内存映射文件，支持可配置的刷盘策略、
+ * 分段滚动以及启动时的崩溃恢复
+ *
+ * 记录格式: [int 长度][int CRC32][负载]，负载为紧凑二进制编码的 {@link VoiceTestResult}；
+ * 分段文件预分配为固定大小，长度为0表示数据结束
+ */
+public class ResultJournal implements VoiceTestSDK.TestCallback {
+    private static final String TAG = "ResultJournal";
+
+    // 默认分段大小
+    public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+    // 默认定时刷盘间隔
+    public static final long DEFAULT_FSYNC_INTERVAL_MS = 1000;
+    // 记录头长度：长度 + CRC32
+    static final int RECORD_HEADER_SIZE = 8;
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    /**
+     * 刷盘策略
+     */
+    public enum FsyncPolicy {
+        ALWAYS,     // 每条记录刷盘
+        INTERVAL,   // 定时刷盘
+        NONE        // 由系统决定
+    }
+
+    /**
+     * 记录遍历回调
+     */
+    public interface RecordVisitor {
+        /**
+         * @param position 记录位置
+         * @param record 记录视图（含记录头），position为记录起点，limit为记录终点
+         * @return false表示停止遍历且不消费该记录
+         */
+        boolean visit(long position, ByteBuffer record);
+    }
+
+    /**
+     * 记录追加监听器（二级索引等），在日志锁内按写入顺序回调
+     */
+    public interface AppendListener {
+        void onAppend(long position, VoiceTestResult result);
+    }
+
+    private static final ResultJournal instance = new ResultJournal();
+
+    private final CRC32 crc = new CRC32();
+    private File dir;
+    private int segmentSize = DEFAULT_SEGMENT_SIZE;
+    private FsyncPolicy fsyncPolicy = FsyncPolicy.INTERVAL;
+    private long fsyncIntervalMs = DEFAULT_FSYNC_INTERVAL_MS;
+    private ScheduledExecutorService fsyncExecutor;
+    private final List<AppendListener> appendListeners = new CopyOnWriteArrayList<>();
+    // 已封存分段的只读映射，映射只占用虚拟地址空间
+    private final Map<Long, ByteBuffer> sealedSegments = new ConcurrentHashMap<>();
+
+    private final List<Long> segmentIds = new ArrayList<>();
+    private RandomAccessFile currentFile;
+    private MappedByteBuffer current;
+    private long currentSegmentId = -1;
+    private ByteBuffer encodeBuffer = ByteBuffer.allocate(1024);
+    private boolean dirty = false;
+    private long appendedCount = 0;
+    private long recoveredBytes = 0;
+    private long lastForceTime = 0;
+
+    private ResultJournal() {
+    }
+
+    public static ResultJournal getInstance() {
+        return instance;
+    }
+
+    /**
+     * 以默认配置打开日志
+     */
+    public void open(File journalDir) throws IOException {
+        open(journalDir, DEFAULT_SEGMENT_SIZE, FsyncPolicy.INTERVAL, DEFAULT_FSYNC_INTERVAL_MS);
+    }
+
+    /**
+     * 打开日志，恢复最后一个分段的写入位置
+     * @param journalDir 日志目录
+     * @param segSize 分段大小
+     * @param policy 刷盘策略
+     * @param intervalMs 定时刷盘间隔（仅INTERVAL策略）
+     */
+    public synchronized void open(File journalDir, int segSize, FsyncPolicy policy, long intervalMs) throws IOException {
+        if (current != null) {
+            Log.w(TAG, "结果日志已打开");
+            return;
+        }
+        if (!journalDir.exists() && !journalDir.mkdirs()) {
+            throw new IOException("创建日志目录失败: " + journalDir.getAbsolutePath());
+        }
+
+        dir = journalDir;
+        segmentSize = segSize;
+        segmentIds.clear();
+
+        File[] files = journalDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.endsWith(SEGMENT_SUFFIX)) {
+                    try {
+                        segmentIds.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+                    } catch (NumberFormatException e) {
+                        Log.w(TAG, "忽略无效的分段文件: " + name);
+                    }
+                }
+            }
+        }
+        Collections.sort(segmentIds);
+
+        if (segmentIds.isEmpty()) {
+            openSegment(0);
+        } else {
+            openSegment(segmentIds.get(segmentIds.size() - 1));
+            recover();
+        }
+
+        setFsyncPolicy(policy, intervalMs);
+        VoiceTestSDK.addResultListener(this);
+        Log.i(TAG, "结果日志已打开: " + segmentIds.size() + "个分段, 当前分段写入位置: " + current.position());
+    }
+
+    public void addAppendListener(AppendListener listener) {
+        if (!appendListeners.contains(listener)) {
+            appendListeners.add(listener);
+        }
+    }
+
+    public void removeAppendListener(AppendListener listener) {
+        appendListeners.remove(listener);
+    }
+
+    /**
+     * 检查日志是否已打开
+     */
+    public synchronized boolean isOpen() {
+        return current != null;
+    }
+
+    /**
+     * 设置刷盘策略
+     */
+    public synchronized void setFsyncPolicy(FsyncPolicy policy, long intervalMs) {
+        fsyncPolicy = policy;
+        fsyncIntervalMs = intervalMs;
+
+        if (fsyncExecutor != null) {
+            fsyncExecutor.shutdownNow();
+            fsyncExecutor = null;
+        }
+        if (policy == FsyncPolicy.INTERVAL && intervalMs > 0) {
+            // 定时器保证写入停止后最后一批记录也能落盘
+            fsyncExecutor = Executors.newSingleThreadScheduledExecutor();
+            fsyncExecutor.scheduleWithFixedDelay(this::flushIfDirty, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void onTestComplete(VoiceTestResult result) {
+        try {
+            append(result);
+        } catch (IOException e) {
+            Log.e(TAG, "写入结果日志失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 追加一条测试结果
+     * @return 记录位置（高32位为分段ID，低32位为分段内偏移），日志未打开时返回-1
+     */
+    public synchronized long append(VoiceTestResult result) throws IOException {
+        if (current == null) {
+            return -1;
+        }
+
+        ByteBuffer payload = encode(result);
+        int length = payload.remaining();
+        if (RECORD_HEADER_SIZE + length > segmentSize) {
+            throw new IOException("记录超过分段大小: " + length);
+        }
+        // 分段剩余空间不足时滚动到新分段，保留至少一个长度字段作为结束标记
+        if (current.remaining() < RECORD_HEADER_SIZE + length + 4) {
+            rollover();
+        }
+
+        crc.reset();
+        crc.update(payload.array(), payload.arrayOffset() + payload.position(), length);
+
+        int offset = current.position();
+        current.putInt(length);
+        current.putInt((int) crc.getValue());
+        current.put(payload);
+        appendedCount++;
+        dirty = true;
+
+        if (fsyncPolicy == FsyncPolicy.ALWAYS) {
+            forceLocked();
+        }
+
+        long position = toPosition(currentSegmentId, offset);
+        for (AppendListener listener : appendListeners) {
+            try {
+                listener.onAppend(position, result);
+            } catch (Exception e) {
+                Log.e(TAG, "追加监听器异常: " + e.getMessage());
+            }
+        }
+        return position;
+    }
+
+    /**
+     * 刷盘
+     */
+    public synchronized void flush() {
+        if (current != null && dirty) {
+            forceLocked();
+        }
+    }
+
+    /**
+     * 关闭日志
+     */
+    public synchronized void close() {
+        if (current == null) {
+            return;
+        }
+        VoiceTestSDK.removeResultListener(this);
+        if (fsyncExecutor != null) {
+            fsyncExecutor.shutdownNow();
+            fsyncExecutor = null;
+        }
+        forceLocked();
+        closeCurrent();
+        // 封存分段的映射按分段ID缓存，重新打开（可能是另一个目录）后不能沿用
+        sealedSegments.clear();
+        Log.i(TAG, "结果日志已关闭");
+    }
+
+    /**
+     * 获取日志统计信息
+     */
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("open", current != null);
+        stats.put("segments", segmentIds.size());
+        stats.put("segmentSize", segmentSize);
+        stats.put("currentSegment", currentSegmentId);
+        stats.put("currentOffset", current == null ? 0 : current.position());
+        stats.put("appended", appendedCount);
+        stats.put("recoveredBytes", recoveredBytes);
+        stats.put("fsyncPolicy", fsyncPolicy.name().toLowerCase(Locale.ROOT));
+        stats.put("fsyncIntervalMs", fsyncIntervalMs);
+        stats.put("lastForceTime", lastForceTime);
+        return stats;
+    }
+
+    /**
+     * 从指定位置开始按写入顺序遍历记录，直接读取映射内存，不整体加载
+     * 当前分段只读取到遍历开始时已写入的位置，之后追加的记录留给下次遍历
+     *
+     * @param from 起始位置，0表示从头开始
+     * @param visitor 记录回调
+     * @return 下次遍历的起始位置
+     */
+    public long scan(long from, RecordVisitor visitor) throws IOException {
+        List<Long> ids;
+        long activeId;
+        int activeLimit;
+        ByteBuffer activeView;
+        synchronized (this) {
+            if (current == null) {
+                throw new IOException("结果日志未打开");
+            }
+            ids = new ArrayList<>(segmentIds);
+            activeId = currentSegmentId;
+            activeLimit = current.position();
+            activeView = current.duplicate();
+        }
+
+        long fromSegment = from >>> 32;
+        int fromOffset = (int) from;
+        long next = from;
+
+        for (long id : ids) {
+            if (id < fromSegment) {
+                continue;
+            }
+            ByteBuffer buffer;
+            int limit;
+            if (id == activeId) {
+                buffer = activeView;
+                limit = activeLimit;
+            } else {
+                buffer = mapReadOnly(id);
+                limit = buffer.capacity();
+            }
+
+            int pos = id == fromSegment ? fromOffset : 0;
+            while (pos + RECORD_HEADER_SIZE <= limit) {
+                int length = buffer.getInt(pos);
+                if (length <= 0 || pos + RECORD_HEADER_SIZE + length > limit) {
+                    break;
+                }
+                ByteBuffer record = buffer.duplicate();
+                record.limit(pos + RECORD_HEADER_SIZE + length);
+                record.position(pos);
+                if (!visitor.visit(toPosition(id, pos), record)) {
+                    return toPosition(id, pos);
+                }
+                pos += RECORD_HEADER_SIZE + length;
+            }
+
+            if (id == activeId) {
+                return toPosition(id, pos);
+            }
+            // 已封存分段读完后从下一分段开头继续
+            next = toPosition(id + 1, 0);
+        }
+        return next;
+    }
+
+    /**
+     * 读取指定位置的记录
+     * @param position 记录位置
+     * @return 测试结果，位置无效时返回null
+     */
+    public VoiceTestResult read(long position) throws IOException {
+        long segmentId = position >>> 32;
+        int offset = (int) position;
+        ByteBuffer buffer;
+        int limit;
+        synchronized (this) {
+            if (current == null) {
+                throw new IOException("结果日志未打开");
+            }
+            if (segmentId == currentSegmentId) {
+                buffer = current.duplicate();
+                limit = current.position();
+            } else if (segmentIds.contains(segmentId)) {
+                buffer = null;
+                limit = 0;
+            } else {
+                return null;
+            }
+        }
+        if (buffer == null) {
+            buffer = mapReadOnly(segmentId);
+            limit = buffer.capacity();
+        }
+
+        if (offset < 0 || offset + RECORD_HEADER_SIZE > limit) {
+            return null;
+        }
+        int length = buffer.getInt(offset);
+        if (length <= 0 || offset + RECORD_HEADER_SIZE + length > limit) {
+            return null;
+        }
+        buffer.position(offset);
+        return decodeRecord(buffer);
+    }
+
+    /**
+     * 解码记录视图（含记录头）
+     */
+    public static VoiceTestResult decodeRecord(ByteBuffer record) {
+        ByteBuffer payload = record.duplicate();
+        payload.position(record.position() + RECORD_HEADER_SIZE);
+        return decode(payload);
+    }
+
+    private ByteBuffer mapReadOnly(long segmentId) throws IOException {
+        ByteBuffer mapped = sealedSegments.get(segmentId);
+        if (mapped == null) {
+            try (RandomAccessFile file = new RandomAccessFile(segmentFile(segmentId), "r")) {
+                mapped = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+            }
+            sealedSegments.put(segmentId, mapped);
+        }
+        // 每次返回独立视图，调用方可自由移动position
+        return mapped.duplicate();
+    }
+
+    /**
+     * 记录位置编码：高32位为分段ID，低32位为分段内偏移
+     */
+    static long toPosition(long segmentId, int offset) {
+        return (segmentId << 32) | (offset & 0xffffffffL);
+    }
+
+    /**
+     * 编码测试结果为紧凑二进制负载
+     */
+    private ByteBuffer encode(VoiceTestResult result) {
+        byte[] exeID = toBytes(result.exeID);
+        byte[] title = toBytes(result.title);
+        byte[] area = toBytes(result.area);
+        byte[] text = toBytes(result.result);
+        byte[] status = toBytes(result.status);
+
+        int size = 8 + 8 + 4 + 4 * 5 + length(exeID) + length(title) + length(area) + length(text) + length(status);
+        if (encodeBuffer.capacity() < size) {
+            encodeBuffer = ByteBuffer.allocate(Math.max(size, encodeBuffer.capacity() * 2));
+        }
+        ByteBuffer buffer = encodeBuffer;
+        buffer.clear();
+        buffer.putLong(result.startTime);
+        buffer.putLong(result.endTime);
+        buffer.putInt(result.score);
+        putBytes(buffer, exeID);
+        putBytes(buffer, title);
+        putBytes(buffer, area);
+        putBytes(buffer, text);
+        putBytes(buffer, status);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * 解码紧凑二进制负载
+     */
+    static VoiceTestResult decode(ByteBuffer payload) {
+        VoiceTestResult result = new VoiceTestResult();
+        result.startTime = payload.getLong();
+        result.endTime = payload.getLong();
+        result.score = payload.getInt();
+        result.exeID = getString(payload);
+        result.title = getString(payload);
+        result.area = getString(payload);
+        result.result = getString(payload);
+        result.status = getString(payload);
+        return result;
+    }
+
+    private static byte[] toBytes(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int length(byte[] bytes) {
+        return bytes == null ? 0 : bytes.length;
+    }
+
+    private static void putBytes(ByteBuffer buffer, byte[] bytes) {
+        if (bytes == null) {
+            buffer.putInt(-1);
+            return;
+        }
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        String value;
+        if (buffer.hasArray()) {
+            value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        } else {
+            byte[] bytes = new byte[length];
+            buffer.duplicate().get(bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+        }
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    /**
+     * 扫描当前分段，定位到最后一条完整记录之后；
+     * 遇到长度越界或CRC不匹配的残缺记录时清零其后的内容
+     */
+    private void recover() {
+        ByteBuffer scan = current.duplicate();
+        scan.position(0);
+        CRC32 check = new CRC32();
+        byte[] scratch = new byte[1024];
+
+        while (scan.remaining() >= RECORD_HEADER_SIZE) {
+            int start = scan.position();
+            int length = scan.getInt();
+            if (length == 0) {
+                scan.position(start);
+                break;
+            }
+            int expected = scan.getInt();
+            if (length < 0 || length > scan.remaining()) {
+                scan.position(start);
+                truncateFrom(start);
+                break;
+            }
+
+            check.reset();
+            int remaining = length;
+            while (remaining > 0) {
+                int n = Math.min(remaining, scratch.length);
+                scan.get(scratch, 0, n);
+                check.update(scratch, 0, n);
+                remaining -= n;
+            }
+            if ((int) check.getValue() != expected) {
+                scan.position(start);
+                truncateFrom(start);
+                break;
+            }
+        }
+
+        current.position(scan.position());
+        Log.i(TAG, "崩溃恢复完成，写入位置: " + current.position());
+    }
+
+    private void truncateFrom(int start) {
+        int end = current.capacity();
+        recoveredBytes += end - start;
+        Log.w(TAG, "发现残缺记录，清除分段" + currentSegmentId + "偏移" + start + "之后的内容");
+        for (int i = start; i < end; i++) {
+            if (current.get(i) != 0) {
+                current.put(i, (byte) 0);
+            }
+        }
+        current.force();
+    }
+
+    private void rollover() throws IOException {
+        forceLocked();
+        long nextId = currentSegmentId + 1;
+        closeCurrent();
+        openSegment(nextId);
+        Log.i(TAG, "结果日志滚动到新分段: " + nextId);
+    }
+
+    private void openSegment(long segmentId) throws IOException {
+        File file = segmentFile(segmentId);
+        currentFile = new RandomAccessFile(file, "rw");
+        if (currentFile.length() < segmentSize) {
+            currentFile.setLength(segmentSize);
+        }
+        current = currentFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, currentFile.length());
+        currentSegmentId = segmentId;
+        if (!segmentIds.contains(segmentId)) {
+            segmentIds.add(segmentId);
+        }
+    }
+
+    private void closeCurrent() {
+        try {
+            if (currentFile != null) {
+                currentFile.close();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "关闭分段文件失败: " + e.getMessage());
+        }
+        currentFile = null;
+        current = null;
+    }
+
+    File segmentFile(long segmentId) {
+        return new File(dir, String.format(Locale.ROOT, "%020d%s", segmentId, SEGMENT_SUFFIX));
+    }
+
+    private synchronized void flushIfDirty() {
+        if (current != null && dirty) {
+            forceLocked();
+        }
+    }
+
+    private void forceLocked() {
+        if (current == null) {
+            return;
+        }
+        current.force();
+        dirty = false;
+        lastForceTime = System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,305 @@
+package com.hys.adbtransport;
+
+import android.util.Log;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 语音测试模拟引擎
+ * 模拟测试以定时事件驱动，执行期间不占用线程；延迟分布、失败率和随机种子可配置，
+ * 相同种子和提交顺序下每条测试的延迟与结果可复现
+ *
+ * 虚拟时钟模式下事件按时间顺序立即触发，时钟直接跳到下一事件的时间，
+ * 用于在数秒内完成大批量的容量和回归测试
+ */
+public class SimulationEngine {
+    private static final String TAG = "SimulationEngine";
+
+    // 延迟分布
+    public static final String DIST_UNIFORM = "uniform";
+    public static final String DIST_NORMAL = "normal";
+    public static final String DIST_LOGNORMAL = "lognormal";
+    public static final String DIST_FIXED = "fixed";
+
+    private static final SimulationEngine instance = new SimulationEngine();
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+    private final AtomicLong sequence = new AtomicLong(0);
+
+    // 虚拟时钟
+    private final PriorityQueue<VirtualEvent> virtualEvents = new PriorityQueue<>();
+    private long virtualNow = 0;
+    private long virtualEventSeq = 0;
+    private Thread virtualDriver;
+
+    private volatile Config config = new Config();
+
+    /**
+     * 模拟参数
+     */
+    public static class Config {
+        public String distribution = DIST_UNIFORM;
+        public long minLatencyMs = 2000;
+        public long maxLatencyMs = 5000;
+        public long meanLatencyMs = 3500;   // normal/lognormal/fixed使用
+        public long stdDevLatencyMs = 750;  // normal/lognormal使用
+        public double failureRate = 0;      // SDK返回错误的概率
+        public int minScore = 75;
+        public int maxScore = 99;
+        public long seed = new Random().nextLong();
+        public boolean virtualClock = false;
+
+        Config copy() {
+            Config copy = new Config();
+            copy.distribution = distribution;
+            copy.minLatencyMs = minLatencyMs;
+            copy.maxLatencyMs = maxLatencyMs;
+            copy.meanLatencyMs = meanLatencyMs;
+            copy.stdDevLatencyMs = stdDevLatencyMs;
+            copy.failureRate = failureRate;
+            copy.minScore = minScore;
+            copy.maxScore = maxScore;
+            copy.seed = seed;
+            copy.virtualClock = virtualClock;
+            return copy;
+        }
+
+        void validate() {
+            if (!DIST_UNIFORM.equals(distribution) && !DIST_NORMAL.equals(distribution)
+                    && !DIST_LOGNORMAL.equals(distribution) && !DIST_FIXED.equals(distribution)) {
+                throw new IllegalArgumentException("不支持的延迟分布: " + distribution);
+            }
+            if (minLatencyMs < 0 || maxLatencyMs < minLatencyMs) {
+                throw new IllegalArgumentException("延迟范围无效: " + minLatencyMs + "~" + maxLatencyMs);
+            }
+            if (meanLatencyMs < 0 || stdDevLatencyMs < 0) {
+                throw new IllegalArgumentException("延迟均值和标准差不能为负数");
+            }
+            if (failureRate < 0 || failureRate > 1) {
+                throw new IllegalArgumentException("失败率必须在0~1之间");
+            }
+            if (minScore < 0 || maxScore < minScore) {
+                throw new IllegalArgumentException("评分范围无效: " + minScore + "~" + maxScore);
+            }
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new HashMap<>();
+            map.put("distribution", distribution);
+            map.put("minLatencyMs", minLatencyMs);
+            map.put("maxLatencyMs", maxLatencyMs);
+            map.put("meanLatencyMs", meanLatencyMs);
+            map.put("stdDevLatencyMs", stdDevLatencyMs);
+            map.put("failureRate", failureRate);
+            map.put("minScore", minScore);
+            map.put("maxScore", maxScore);
+            // 种子以字符串返回，避免客户端按双精度解析丢失精度
+            map.put("seed", String.valueOf(seed));
+            map.put("virtualClock", virtualClock);
+            return map;
+        }
+    }
+
+    /**
+     * 单条测试的模拟结果
+     */
+    public static class Outcome {
+        public final long latencyMs;
+        public final boolean failed;
+        public final int score;
+        // 该测试专用的随机数，用于生成结果描述
+        public final Random random;
+
+        Outcome(long latencyMs, boolean failed, int score, Random random) {
+            this.latencyMs = latencyMs;
+            this.failed = failed;
+            this.score = score;
+            this.random = random;
+        }
+    }
+
+    /**
+     * 虚拟时钟上的待触发事件
+     */
+    private static class VirtualEvent implements Comparable<VirtualEvent> {
+        final long time;
+        final long seq;
+        final FutureTask<Void> task;
+
+        VirtualEvent(long time, long seq, FutureTask<Void> task) {
+            this.time = time;
+            this.seq = seq;
+            this.task = task;
+        }
+
+        @Override
+        public int compareTo(VirtualEvent other) {
+            if (time != other.time) {
+                return Long.compare(time, other.time);
+            }
+            return Long.compare(seq, other.seq);
+        }
+    }
+
+    private SimulationEngine() {
+    }
+
+    public static SimulationEngine getInstance() {
+        return instance;
+    }
+
+    /**
+     * 更新模拟参数，测试序号从0重新计数，便于以相同种子复现
+     */
+    public void configure(Config newConfig) {
+        newConfig.validate();
+        Config applied = newConfig.copy();
+        synchronized (virtualEvents) {
+            if (applied.virtualClock && !config.virtualClock) {
+                // 虚拟时钟从当前真实时间起步，保证时间戳单调
+                virtualNow = Math.max(virtualNow, System.currentTimeMillis());
+            }
+            config = applied;
+            sequence.set(0);
+        }
+        Log.i(TAG, "模拟参数已更新: " + applied.toMap());
+    }
+
+    /**
+     * 获取当前模拟参数的副本
+     */
+    public Config getConfig() {
+        return config.copy();
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = config.toMap();
+        stats.put("testsSimulated", sequence.get());
+        synchronized (virtualEvents) {
+            stats.put("pendingVirtualEvents", virtualEvents.size());
+            if (config.virtualClock) {
+                stats.put("virtualNow", virtualNow);
+            }
+        }
+        return stats;
+    }
+
+    public boolean isVirtualClock() {
+        return config.virtualClock;
+    }
+
+    /**
+     * 当前时间，虚拟时钟模式下为虚拟时间
+     */
+    public long now() {
+        if (!config.virtualClock) {
+            return System.currentTimeMillis();
+        }
+        synchronized (virtualEvents) {
+            return virtualNow;
+        }
+    }
+
+    /**
+     * 为下一条测试抽样延迟、成败和评分
+     * 每条测试的随机数由种子和测试序号确定，与线程调度无关
+     */
+    public Outcome nextOutcome() {
+        Config current = config;
+        long seq = sequence.getAndIncrement();
+        Random random = new Random(current.seed + seq * 0x9E3779B97F4A7C15L);
+
+        long latency = sampleLatency(current, random);
+        boolean failed = random.nextDouble() < current.failureRate;
+        int score = current.minScore + random.nextInt(current.maxScore - current.minScore + 1);
+        return new Outcome(latency, failed, score, random);
+    }
+
+    /**
+     * 在指定时间（以now()为准）执行任务
+     * 真实时钟下由定时线程触发；虚拟时钟下按时间顺序立即触发
+     * @return 可用于取消的Future
+     */
+    public Future<?> scheduleAt(Runnable task, long time) {
+        if (!config.virtualClock) {
+            long delay = Math.max(0, time - System.currentTimeMillis());
+            return timer.schedule(task, delay, TimeUnit.MILLISECONDS);
+        }
+
+        FutureTask<Void> futureTask = new FutureTask<>(task, null);
+        synchronized (virtualEvents) {
+            virtualEvents.add(new VirtualEvent(Math.max(time, virtualNow), virtualEventSeq++, futureTask));
+            if (virtualDriver == null) {
+                virtualDriver = new Thread(this::runVirtualClock, "SimulationVirtualClock");
+                virtualDriver.setDaemon(true);
+                virtualDriver.start();
+            }
+            virtualEvents.notifyAll();
+        }
+        return futureTask;
+    }
+
+    /**
+     * 虚拟时钟驱动：取出最早的事件，把时钟推进到该事件的时间后执行
+     * 已取消的事件直接丢弃，不推进时钟
+     */
+    private void runVirtualClock() {
+        while (true) {
+            VirtualEvent event;
+            synchronized (virtualEvents) {
+                while (virtualEvents.isEmpty()) {
+                    try {
+                        virtualEvents.wait();
+                    } catch (InterruptedException e) {
+                        virtualDriver = null;
+                        return;
+                    }
+                }
+                event = virtualEvents.poll();
+                if (event.task.isCancelled()) {
+                    continue;
+                }
+                virtualNow = Math.max(virtualNow, event.time);
+            }
+
+            event.task.run();
+            try {
+                event.task.get();
+            } catch (Exception e) {
+                Log.e(TAG, "虚拟时钟事件异常: " + e.getMessage());
+            }
+        }
+    }
+
+    private static long sampleLatency(Config config, Random random) {
+        double latency;
+        switch (config.distribution) {
+            case DIST_FIXED:
+                return config.meanLatencyMs;
+            case DIST_NORMAL:
+                latency = config.meanLatencyMs + config.stdDevLatencyMs * random.nextGaussian();
+                break;
+            case DIST_LOGNORMAL: {
+                // 以均值和标准差换算对数正态参数
+                double mean = Math.max(1, config.meanLatencyMs);
+                double variance = (double) config.stdDevLatencyMs * config.stdDevLatencyMs;
+                double sigma2 = Math.log(1 + variance / (mean * mean));
+                double mu = Math.log(mean) - sigma2 / 2;
+                latency = Math.exp(mu + Math.sqrt(sigma2) * random.nextGaussian());
+                break;
+            }
+            default:
+                latency = config.minLatencyMs + random.nextDouble() * (config.maxLatencyMs - config.minLatencyMs);
+                break;
+        }
+        return Math.max(config.minLatencyMs, Math.min(config.maxLatencyMs, Math.round(latency)));
+    }
+}
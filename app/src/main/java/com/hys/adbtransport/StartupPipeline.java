@@ -0,0 +1,165 @@
+package com.hys.adbtransport;
+
+import android.app.Application;
+import android.os.SystemClock;
+import android.util.Log;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 启动流水线
+ * 在后台并行完成服务器绑定和语音SDK初始化，不占用UI线程；
+ * 对外提供就绪Future和状态，并记录从启动到就绪、到首条测试被接受的耗时
+ */
+public class StartupPipeline {
+    private static final String TAG = "StartupPipeline";
+
+    // SDK初始化状态
+    public static final String STATE_NOT_STARTED = "not_started";
+    public static final String STATE_INITIALIZING = "initializing";
+    public static final String STATE_READY = "ready";
+    public static final String STATE_FAILED = "failed";
+
+    private static final StartupPipeline instance = new StartupPipeline();
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final VoiceTestSDK voiceTestSDK = new VoiceTestSDK();
+
+    private volatile String sdkState = STATE_NOT_STARTED;
+    private volatile Application application;
+    private volatile CompletableFuture<Void> sdkReady = new CompletableFuture<>();
+    private volatile CompletableFuture<Integer> serverReady;
+    private volatile long startTime = 0;
+    private volatile String failure;
+
+    private StartupPipeline() {
+    }
+
+    public static StartupPipeline getInstance() {
+        return instance;
+    }
+
+    /**
+     * 启动流水线：服务器绑定与SDK初始化并行进行
+     * @param app 应用实例，用于定位结果日志、缓存等目录
+     * @param server 要启动的服务器，为null时只初始化SDK
+     * @return 两者都就绪时完成的Future
+     */
+    public CompletableFuture<Void> start(Application app, AdbServer server) {
+        application = app;
+        startTime = SystemClock.elapsedRealtime();
+
+        CompletableFuture<Void> serverFuture = CompletableFuture.completedFuture(null);
+        if (server != null) {
+            serverReady = server.start();
+            serverFuture = serverReady.thenAccept(port ->
+                    Metrics.set("startup.serverBindMs", SystemClock.elapsedRealtime() - startTime));
+        }
+        CompletableFuture<Void> sdkFuture = initializeSdk();
+
+        return CompletableFuture.allOf(serverFuture, sdkFuture).whenComplete((ignored, error) -> {
+            if (error == null) {
+                long elapsed = SystemClock.elapsedRealtime() - startTime;
+                Metrics.set("startup.timeToReadyMs", elapsed);
+                Log.i(TAG, "启动完成，耗时: " + elapsed + "ms");
+            }
+        });
+    }
+
+    /**
+     * 在后台初始化SDK，可重复调用：初始化中或已就绪时返回同一个Future，失败后重新初始化
+     * @return SDK就绪时完成的Future
+     */
+    public synchronized CompletableFuture<Void> initializeSdk() {
+        if (STATE_INITIALIZING.equals(sdkState) || STATE_READY.equals(sdkState)) {
+            return sdkReady;
+        }
+
+        // 上次失败的Future已完成，重新初始化时换一个新的
+        CompletableFuture<Void> future = sdkReady.isDone() ? new CompletableFuture<>() : sdkReady;
+        sdkReady = future;
+        sdkState = STATE_INITIALIZING;
+        failure = null;
+        if (startTime == 0) {
+            startTime = SystemClock.elapsedRealtime();
+        }
+        long initStart = SystemClock.elapsedRealtime();
+
+        executor.execute(() -> {
+            try {
+                voiceTestSDK.initSDK(application, application);
+                if (!VoiceTestSDK.isSDKInitialized()) {
+                    throw new IllegalStateException("语音测试SDK初始化失败");
+                }
+                Metrics.set("startup.sdkInitMs", SystemClock.elapsedRealtime() - initStart);
+                synchronized (this) {
+                    sdkState = STATE_READY;
+                }
+                future.complete(null);
+            } catch (Exception e) {
+                Log.e(TAG, "SDK初始化失败: " + e.getMessage());
+                Metrics.increment("startup.sdkInitFailures");
+                // 状态与Future一并更新，避免重试时拿到本次失败的Future
+                synchronized (this) {
+                    failure = e.getMessage();
+                    sdkState = STATE_FAILED;
+                    future.completeExceptionally(e);
+                }
+            }
+        });
+        return future;
+    }
+
+    /**
+     * SDK释放后回到未初始化状态
+     */
+    public synchronized void reset() {
+        sdkState = STATE_NOT_STARTED;
+        if (sdkReady.isDone()) {
+            sdkReady = new CompletableFuture<>();
+        }
+    }
+
+    /**
+     * SDK就绪Future，尚未开始初始化时不会完成
+     */
+    public CompletableFuture<Void> getSdkReady() {
+        return sdkReady;
+    }
+
+    public String getSdkState() {
+        return sdkState;
+    }
+
+    /**
+     * 记录首条测试被接受的时间，只在启动后第一次调用时生效
+     */
+    public void onTestAccepted() {
+        long start = startTime;
+        if (start > 0 && Metrics.get("startup.firstTestMs") == 0) {
+            // 并发提交时只有第一次写入生效
+            Metrics.setOnce("startup.firstTestMs", SystemClock.elapsedRealtime() - start);
+        }
+    }
+
+    /**
+     * 获取启动状态
+     */
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new HashMap<>();
+        status.put("sdkState", sdkState);
+        CompletableFuture<Integer> server = serverReady;
+        status.put("serverReady", server != null && server.isDone() && !server.isCompletedExceptionally());
+        if (failure != null) {
+            status.put("error", failure);
+        }
+        status.put("sdkInitMs", Metrics.get("startup.sdkInitMs"));
+        status.put("serverBindMs", Metrics.get("startup.serverBindMs"));
+        status.put("timeToReadyMs", Metrics.get("startup.timeToReadyMs"));
+        status.put("firstTestMs", Metrics.get("startup.firstTestMs"));
+        return status;
+    }
+}
@@ -0,0 +1,243 @@
+package com.hys.adbtransport;
+
+import android.util.Log;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 测试结果统计聚合
+ * 按音区和话术增量维护评分统计（数量、均值、最值、分位数、失败数），
+ * 每条结果O(1)更新，并支持最近N分钟和最近N条的窗口视图
+ */
+public class StatsAggregator implements ResultJournal.AppendListener {
+    private static final String TAG = "StatsAggregator";
+
+    // 分钟窗口保留的分钟数
+    public static final int MAX_WINDOW_MINUTES = 60;
+    // 每个键保留的最近结果条数
+    public static final int MAX_RECENT_TESTS = 256;
+    // 单独统计的话术数上限，超出后新出现的话术合并计入OTHER_TITLES
+    public static final int MAX_TITLES = 1024;
+    public static final String OTHER_TITLES = "(其他)";
+
+    private static final long MINUTE_MS = 60 * 1000;
+
+    private static final StatsAggregator instance = new StatsAggregator();
+
+    private final Map<String, KeyStats> byArea = new HashMap<>();
+    private final Map<String, KeyStats> byTitle = new HashMap<>();
+
+    /**
+     * 统计摘要
+     */
+    static class Summary {
+        long count = 0;
+        long failures = 0;
+        long scoreSum = 0;
+        long durationSum = 0;
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        final QuantileSketch sketch = new QuantileSketch();
+
+        void add(int score, boolean failed, long duration) {
+            count++;
+            scoreSum += score;
+            durationSum += duration;
+            min = Math.min(min, score);
+            max = Math.max(max, score);
+            if (failed) {
+                failures++;
+            }
+            sketch.add(score);
+        }
+
+        void merge(Summary other) {
+            count += other.count;
+            failures += other.failures;
+            scoreSum += other.scoreSum;
+            durationSum += other.durationSum;
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+            sketch.merge(other.sketch);
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new HashMap<>();
+            map.put("count", count);
+            map.put("failures", failures);
+            map.put("passRate", count == 0 ? 0 : (double) (count - failures) / count);
+            map.put("mean", count == 0 ? 0 : (double) scoreSum / count);
+            map.put("min", count == 0 ? 0 : min);
+            map.put("max", count == 0 ? 0 : max);
+            map.put("p50", sketch.quantile(0.5));
+            map.put("p90", sketch.quantile(0.9));
+            map.put("p99", sketch.quantile(0.99));
+            map.put("avgDurationMs", count == 0 ? 0 : durationSum / count);
+            return map;
+        }
+    }
+
+    /**
+     * 单个音区或话术的统计状态
+     */
+    private static class KeyStats {
+        final Summary total = new Summary();
+        // 按分钟的环形桶
+        final Summary[] minuteBuckets = new Summary[MAX_WINDOW_MINUTES];
+        final long[] bucketMinutes = new long[MAX_WINDOW_MINUTES];
+        // 最近结果的环形缓冲
+        final int[] recentScores = new int[MAX_RECENT_TESTS];
+        final boolean[] recentFailed = new boolean[MAX_RECENT_TESTS];
+        final long[] recentDurations = new long[MAX_RECENT_TESTS];
+        int recentCount = 0;
+        int recentNext = 0;
+
+        void add(long endTime, int score, boolean failed, long duration) {
+            total.add(score, failed, duration);
+
+            long minute = Math.floorDiv(endTime, MINUTE_MS);
+            int slot = (int) Math.floorMod(minute, (long) MAX_WINDOW_MINUTES);
+            // 最近N条按到达顺序计，迟到的结果同样计入
+            recordRecent(score, failed, duration);
+            if (minuteBuckets[slot] == null || bucketMinutes[slot] != minute) {
+                if (minuteBuckets[slot] != null && bucketMinutes[slot] > minute) {
+                    // 早于环形窗口的迟到结果不计入分钟窗口
+                    return;
+                }
+                minuteBuckets[slot] = new Summary();
+                bucketMinutes[slot] = minute;
+            }
+            minuteBuckets[slot].add(score, failed, duration);
+        }
+
+        private void recordRecent(int score, boolean failed, long duration) {
+            recentScores[recentNext] = score;
+            recentFailed[recentNext] = failed;
+            recentDurations[recentNext] = duration;
+            recentNext = (recentNext + 1) % MAX_RECENT_TESTS;
+            recentCount = Math.min(recentCount + 1, MAX_RECENT_TESTS);
+        }
+
+        Summary lastMinutes(int minutes, long now) {
+            Summary summary = new Summary();
+            long current = Math.floorDiv(now, MINUTE_MS);
+            for (int i = 0; i < MAX_WINDOW_MINUTES; i++) {
+                Summary bucket = minuteBuckets[i];
+                if (bucket != null && bucketMinutes[i] > current - minutes && bucketMinutes[i] <= current) {
+                    summary.merge(bucket);
+                }
+            }
+            return summary;
+        }
+
+        Summary lastTests(int tests) {
+            Summary summary = new Summary();
+            int n = Math.min(tests, recentCount);
+            for (int i = 1; i <= n; i++) {
+                int slot = (recentNext - i + MAX_RECENT_TESTS) % MAX_RECENT_TESTS;
+                summary.add(recentScores[slot], recentFailed[slot], recentDurations[slot]);
+            }
+            return summary;
+        }
+    }
+
+    private StatsAggregator() {
+    }
+
+    public static StatsAggregator getInstance() {
+        return instance;
+    }
+
+    /**
+     * 从日志重建统计并开始跟踪新写入的记录
+     */
+    public void attach(ResultJournal journal) throws IOException {
+        synchronized (journal) {
+            journal.removeAppendListener(this);
+            synchronized (this) {
+                byArea.clear();
+                byTitle.clear();
+            }
+            journal.scan(0, (position, record) -> {
+                add(ResultJournal.decodeRecord(record));
+                return true;
+            });
+            journal.addAppendListener(this);
+        }
+        Log.i(TAG, "统计已建立: " + byArea.size() + "个音区, " + byTitle.size() + "条话术");
+    }
+
+    @Override
+    public void onAppend(long position, VoiceTestResult result) {
+        add(result);
+    }
+
+    /**
+     * 获取统计
+     * @param area 只返回该音区，为null时返回全部音区
+     * @param title 只返回该话术，为null时返回全部话术
+     * @param windowMinutes 最近N分钟，0表示不按时间窗口
+     * @param lastTests 最近N条，0表示不按条数窗口
+     */
+    public synchronized Map<String, Object> getStats(String area, String title, int windowMinutes, int lastTests) {
+        long now = System.currentTimeMillis();
+        int minutes = Math.min(windowMinutes, MAX_WINDOW_MINUTES);
+        int tests = Math.min(lastTests, MAX_RECENT_TESTS);
+
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("areas", collect(byArea, area, minutes, tests, now));
+        if (title != null || area == null) {
+            stats.put("titles", collect(byTitle, title, minutes, tests, now));
+        }
+        if (minutes > 0) {
+            stats.put("windowMinutes", minutes);
+        }
+        if (tests > 0) {
+            stats.put("lastTests", tests);
+        }
+        stats.put("timestamp", now);
+        return stats;
+    }
+
+    private Map<String, Object> collect(Map<String, KeyStats> source, String key, int minutes, int tests, long now) {
+        Map<String, Object> result = new HashMap<>();
+        for (Map.Entry<String, KeyStats> entry : source.entrySet()) {
+            if (key != null && !key.equals(entry.getKey())) {
+                continue;
+            }
+            KeyStats keyStats = entry.getValue();
+            Summary summary = minutes > 0 ? keyStats.lastMinutes(minutes, now)
+                    : tests > 0 ? keyStats.lastTests(tests)
+                    : keyStats.total;
+            result.put(entry.getKey(), summary.toMap());
+        }
+        return result;
+    }
+
+    private synchronized void add(VoiceTestResult result) {
+        boolean failed = !result.isPassed();
+        long duration = result.getDuration();
+        statsFor(byArea, result.area, Integer.MAX_VALUE).add(result.endTime, result.score, failed, duration);
+        statsFor(byTitle, result.title, MAX_TITLES).add(result.endTime, result.score, failed, duration);
+    }
+
+    /**
+     * @param maxKeys 单独统计的键数上限，超出后新出现的键合并计入OTHER_TITLES
+     */
+    private static KeyStats statsFor(Map<String, KeyStats> map, String key, int maxKeys) {
+        String normalized = key == null ? "" : key;
+        KeyStats stats = map.get(normalized);
+        if (stats == null) {
+            if (map.size() >= maxKeys) {
+                normalized = OTHER_TITLES;
+                stats = map.get(normalized);
+            }
+            if (stats == null) {
+                stats = new KeyStats();
+                map.put(normalized, stats);
+            }
+        }
+        return stats;
+    }
+}
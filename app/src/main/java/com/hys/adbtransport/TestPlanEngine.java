@@ -0,0 +1,382 @@
+package com.hys.adbtransport;
+
+import android.util.Log;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 测试计划执行引擎
+ * PC端一次性上传测试计划（话术、音区、重复次数、节奏、停止条件），
+ * 由设备端独立驱动VoiceTestSDK执行，PC端断开或卡顿不影响执行
+ */
+public class TestPlanEngine {
+    private static final String TAG = "TestPlanEngine";
+
+    // 计划状态
+    public static final String STATE_IDLE = "idle";
+    public static final String STATE_READY = "ready";
+    public static final String STATE_RUNNING = "running";
+    public static final String STATE_PAUSED = "paused";
+    public static final String STATE_COMPLETED = "completed";
+    public static final String STATE_STOPPED = "stopped";
+    public static final String STATE_ABORTED = "aborted";
+
+    // 保留的最近结果条数
+    private static final int MAX_RECENT_RESULTS = 1000;
+    // 单条测试等待结果的最长时间
+    private static final long TEST_WAIT_TIMEOUT_MS = 60000;
+
+    private static final TestPlanEngine instance = new TestPlanEngine();
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final List<PlanListener> listeners = new CopyOnWriteArrayList<>();
+    private final Object pauseLock = new Object();
+    private final AtomicReference<String> state = new AtomicReference<>(STATE_IDLE);
+    private final ArrayDeque<Map<String, Object>> recentResults = new ArrayDeque<>();
+
+    private TestPlan plan;
+    // 开始计划的会话的未结束测试配额，计划中的测试与该会话直接提交的测试共用
+    private volatile RateLimiter quota;
+    private volatile String planId;
+    private volatile String stopReason;
+    // 正在等待结果的测试，中止计划时取消
+    private volatile String currentExeID;
+    private volatile long startTime;
+    private volatile int completedCount;
+    private volatile int failureCount;
+    private volatile int totalCount;
+
+    /**
+     * 计划事件监听器
+     */
+    public interface PlanListener {
+        void onPlanEvent(String type, Map<String, Object> data);
+    }
+
+    /**
+     * 测试计划
+     */
+    public static class TestPlan {
+        public List<String> phrases;      // 话术列表
+        public List<String> phraseRefs;   // 缓存中的话术哈希
+        public List<String> areas;        // 音区列表
+        public int repetitions = 1;       // 重复次数
+        public long intervalMs = 0;       // 两条测试之间的间隔
+        public int maxFailures = 0;       // 失败次数上限，0表示不限
+        public long maxDurationMs = 0;    // 最长执行时间，0表示不限
+        public int minScore = 0;          // 低于该评分视为失败
+    }
+
+    private TestPlanEngine() {
+    }
+
+    public static TestPlanEngine getInstance() {
+        return instance;
+    }
+
+    public void addListener(PlanListener listener) {
+        if (!listeners.contains(listener)) {
+            listeners.add(listener);
+        }
+    }
+
+    public void removeListener(PlanListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * 加载测试计划
+     * @return 计划ID
+     */
+    public synchronized String load(TestPlan newPlan) {
+        if (isActive()) {
+            throw new IllegalStateException("已有计划正在执行");
+        }
+        if (newPlan.phrases == null || newPlan.phrases.isEmpty()) {
+            throw new IllegalArgumentException("计划中没有话术");
+        }
+        if (newPlan.areas == null || newPlan.areas.isEmpty()) {
+            throw new IllegalArgumentException("计划中没有音区");
+        }
+        if (newPlan.repetitions < 1) {
+            throw new IllegalArgumentException("重复次数必须大于0");
+        }
+
+        plan = newPlan;
+        planId = "PLAN_" + System.currentTimeMillis();
+        totalCount = newPlan.phrases.size() * newPlan.areas.size() * newPlan.repetitions;
+        completedCount = 0;
+        failureCount = 0;
+        stopReason = null;
+        synchronized (recentResults) {
+            recentResults.clear();
+        }
+        state.set(STATE_READY);
+        Log.i(TAG, "测试计划已加载: " + planId + ", 共" + totalCount + "条测试");
+        return planId;
+    }
+
+    /**
+     * 开始执行已加载的计划
+     * @param sessionQuota 开始计划的会话的限流器，每条测试占用其未结束测试配额；为null时不受配额限制
+     */
+    public synchronized void start(RateLimiter sessionQuota) {
+        if (!state.compareAndSet(STATE_READY, STATE_RUNNING)) {
+            throw new IllegalStateException("当前状态无法开始: " + state.get());
+        }
+        quota = sessionQuota;
+        startTime = System.currentTimeMillis();
+        final TestPlan runPlan = plan;
+        executor.execute(() -> run(runPlan));
+    }
+
+    public boolean pause() {
+        return state.compareAndSet(STATE_RUNNING, STATE_PAUSED);
+    }
+
+    public boolean resume() {
+        if (state.compareAndSet(STATE_PAUSED, STATE_RUNNING)) {
+            synchronized (pauseLock) {
+                pauseLock.notifyAll();
+            }
+            return true;
+        }
+        return false;
+    }
+
+    public boolean abort() {
+        while (true) {
+            String current = state.get();
+            if (!STATE_RUNNING.equals(current) && !STATE_PAUSED.equals(current)
+                    && !STATE_READY.equals(current)) {
+                return false;
+            }
+            if (state.compareAndSet(current, STATE_ABORTED)) {
+                synchronized (pauseLock) {
+                    pauseLock.notifyAll();
+                }
+                // 取消正在执行的测试，计划线程不必等它跑完
+                String exeID = currentExeID;
+                if (exeID != null) {
+                    ZoneScheduler.getInstance().cancel(exeID);
+                }
+                return true;
+            }
+        }
+    }
+
+    public boolean isActive() {
+        String current = state.get();
+        return STATE_RUNNING.equals(current) || STATE_PAUSED.equals(current);
+    }
+
+    /**
+     * 获取计划执行状态
+     */
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new HashMap<>();
+        status.put("planId", planId);
+        status.put("state", state.get());
+        status.put("total", totalCount);
+        status.put("completed", completedCount);
+        status.put("failures", failureCount);
+        status.put("startTime", startTime);
+        if (stopReason != null) {
+            status.put("stopReason", stopReason);
+        }
+        return status;
+    }
+
+    /**
+     * 获取序号大于since的最近结果，供PC端断线重连后补取
+     */
+    public List<Map<String, Object>> getResultsSince(int since) {
+        List<Map<String, Object>> results = new ArrayList<>();
+        synchronized (recentResults) {
+            for (Map<String, Object> item : recentResults) {
+                if (((Number) item.get("seq")).intValue() > since) {
+                    results.add(item);
+                }
+            }
+        }
+        return results;
+    }
+
+    private void run(TestPlan runPlan) {
+        Log.i(TAG, "开始执行测试计划: " + planId);
+        int seq = 0;
+
+        outer:
+        for (int rep = 0; rep < runPlan.repetitions; rep++) {
+            for (String phrase : runPlan.phrases) {
+                for (String area : runPlan.areas) {
+                    if (!awaitRunnable()) {
+                        break outer;
+                    }
+                    String reason = checkStopConditions(runPlan);
+                    if (reason != null) {
+                        stopReason = reason;
+                        state.compareAndSet(STATE_RUNNING, STATE_STOPPED);
+                        break outer;
+                    }
+
+                    VoiceTestResult result = runSingleTest(phrase, area);
+                    seq++;
+                    recordResult(runPlan, seq, rep, result);
+
+                    if (runPlan.intervalMs > 0 && seq < totalCount) {
+                        try {
+                            Thread.sleep(runPlan.intervalMs);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            state.set(STATE_ABORTED);
+                            break outer;
+                        }
+                    }
+                }
+            }
+        }
+
+        state.compareAndSet(STATE_RUNNING, STATE_COMPLETED);
+        Log.i(TAG, "测试计划结束: " + planId + ", 状态: " + state.get());
+        notifyListeners(MessageHandler.MSG_TYPE_PLAN_COMPLETE, getStatus());
+    }
+
+    /**
+     * 暂停时阻塞等待，返回false表示计划已中止
+     */
+    private boolean awaitRunnable() {
+        synchronized (pauseLock) {
+            while (STATE_PAUSED.equals(state.get())) {
+                try {
+                    pauseLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return STATE_RUNNING.equals(state.get());
+    }
+
+    private String checkStopConditions(TestPlan runPlan) {
+        if (runPlan.maxFailures > 0 && failureCount >= runPlan.maxFailures) {
+            return "失败次数达到上限: " + runPlan.maxFailures;
+        }
+        if (runPlan.maxDurationMs > 0 && System.currentTimeMillis() - startTime >= runPlan.maxDurationMs) {
+            return "执行时间达到上限: " + runPlan.maxDurationMs + "ms";
+        }
+        return null;
+    }
+
+    private VoiceTestResult runSingleTest(String phrase, String area) {
+        CountDownLatch latch = new CountDownLatch(1);
+        AtomicReference<VoiceTestResult> holder = new AtomicReference<>();
+
+        // 经音区调度器执行，与PC端直接提交的测试互不覆盖
+        String testExeID = null;
+        String error = null;
+        RateLimiter sessionQuota = quota;
+        if (sessionQuota != null && !sessionQuota.tryAcquireTest()) {
+            // 会话的配额已被直接提交的测试占满，该条按中断计
+            error = "未结束的测试过多(" + sessionQuota.getMaxOutstandingTests() + ")";
+        } else {
+            try {
+                testExeID = ZoneScheduler.getInstance().submit(phrase, area, result -> {
+                    if (sessionQuota != null) {
+                        sessionQuota.releaseTest();
+                    }
+                    holder.set(result);
+                    latch.countDown();
+                }).exeID;
+            } catch (IllegalArgumentException | IllegalStateException e) {
+                if (sessionQuota != null) {
+                    sessionQuota.releaseTest();
+                }
+                error = e.getMessage();
+            }
+        }
+
+        if (testExeID != null) {
+            currentExeID = testExeID;
+            if (STATE_ABORTED.equals(state.get())) {
+                // 提交与登记之间计划已被中止，abort未能看到该测试
+                ZoneScheduler.getInstance().cancel(testExeID);
+            }
+            try {
+                if (!latch.await(TEST_WAIT_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                    // 不再等待的测试取消掉，释放其音区
+                    ZoneScheduler.getInstance().cancel(testExeID);
+                }
+            } catch (InterruptedException e) {
+                ZoneScheduler.getInstance().cancel(testExeID);
+                Thread.currentThread().interrupt();
+            } finally {
+                currentExeID = null;
+            }
+        }
+
+        VoiceTestResult result = holder.get();
+        if (result == null) {
+            result = new VoiceTestResult();
+            result.exeID = testExeID;
+            result.title = phrase;
+            result.area = area;
+            result.result = error != null ? error : "等待结果超时";
+            result.status = VoiceTestResult.STATUS_INTERRUPTED;
+            result.startTime = System.currentTimeMillis();
+            result.endTime = result.startTime;
+        }
+        return result;
+    }
+
+    private void recordResult(TestPlan runPlan, int seq, int repetition, VoiceTestResult result) {
+        boolean failed = !result.isCompleted() || (runPlan.minScore > 0 && result.score < runPlan.minScore);
+        completedCount = seq;
+        if (failed) {
+            failureCount++;
+        }
+
+        Map<String, Object> item = result.toMap();
+        item.put("planId", planId);
+        item.put("seq", seq);
+        item.put("repetition", repetition);
+        item.put("failed", failed);
+        synchronized (recentResults) {
+            recentResults.addLast(item);
+            if (recentResults.size() > MAX_RECENT_RESULTS) {
+                recentResults.removeFirst();
+            }
+        }
+
+        notifyListeners(MessageHandler.MSG_TYPE_PLAN_RESULT, item);
+
+        // 进度只带计数，可以合并；lastSeq用于发现丢失的plan_result
+        Map<String, Object> progress = new HashMap<>();
+        progress.put("planId", planId);
+        progress.put("completed", seq);
+        progress.put("lastSeq", seq);
+        progress.put("total", totalCount);
+        progress.put("failures", failureCount);
+        notifyListeners(MessageHandler.MSG_TYPE_PLAN_PROGRESS, progress);
+    }
+
+    private void notifyListeners(String type, Map<String, Object> data) {
+        for (PlanListener listener : listeners) {
+            try {
+                listener.onPlanEvent(type, data);
+            } catch (Exception e) {
+                Log.e(TAG, "通知计划监听器失败: " + e.getMessage());
+            }
+        }
+    }
+}
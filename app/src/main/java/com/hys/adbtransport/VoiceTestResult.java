@@ -0,0 +1,66 @@
+package com.hys.adbtransport;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 语音测试结果
+ * 一次测试结束后的完整记录
+ */
+public class VoiceTestResult {
+    // 测试状态
+    public static final String STATUS_COMPLETED = "completed";
+    public static final String STATUS_INTERRUPTED = "interrupted";
+    public static final String STATUS_FAILED = "failed";
+    public static final String STATUS_CANCELLED = "cancelled";
+    public static final String STATUS_TIMED_OUT = "timed_out";
+
+    // 通过评分线
+    public static final int PASS_SCORE = 80;
+
+    public String exeID;       // 执行ID
+    public String title;       // 测试话术
+    public String area;        // 音区
+    public String result;      // 结果描述
+    public int score;          // 评分
+    public String status;      // 测试状态
+    public long startTime;     // 开始时间
+    public long endTime;       // 结束时间
+
+    /**
+     * 测试是否正常完成
+     */
+    public boolean isCompleted() {
+        return STATUS_COMPLETED.equals(status);
+    }
+
+    /**
+     * 测试是否通过：正常完成且评分达到通过线
+     */
+    public boolean isPassed() {
+        return isCompleted() && score >= PASS_SCORE;
+    }
+
+    /**
+     * 测试耗时（毫秒）
+     */
+    public long getDuration() {
+        return endTime - startTime;
+    }
+
+    /**
+     * 转换为响应数据
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("exeID", exeID);
+        map.put("title", title);
+        map.put("area", area);
+        map.put("result", result);
+        map.put("score", score);
+        map.put("status", status);
+        map.put("startTime", startTime);
+        map.put("endTime", endTime);
+        return map;
+    }
+}
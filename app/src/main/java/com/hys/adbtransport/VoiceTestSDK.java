@@ -3,14 +3,25 @@ package com.hys.adbtransport;
 import android.app.Application;
 import android.content.Context;
 import android.util.Log;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
-import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
 
 /**
  * 语音测试SDK
@@ -19,16 +30,128 @@ import java.util.concurrent.atomic.AtomicInteger;
 public class VoiceTestSDK {
     private static final String TAG = "VoiceTestSDK";
     
-    // SDK状态
-    private static boolean isInitialized = false;
-    private static boolean ifreturn = false;
-    private static String ttsAns = "";
-    private static String exeID = "";
+    // 默认单条测试时限
+    public static final long DEFAULT_TEST_TIMEOUT_MS = 30000;
+
+    // SDK状态：不可变快照，每次状态变化以CAS发布新快照，读取方无锁且不会看到中间状态
+    private static final AtomicReference<State> state = new AtomicReference<>(State.initial());
     
     // 测试相关
+    // 测试结束时生成结果、写产物和通知监听器；测试执行期间不占用线程
     private static final ExecutorService executorService = Executors.newCachedThreadPool();
-    private static final AtomicInteger testCounter = new AtomicInteger(0);
-    private static final Random random = new Random();
+    private static final SimulationEngine simulation = SimulationEngine.getInstance();
+    // 全局结果监听器（结果日志、索引、统计等）
+    private static final List<TestCallback> resultListeners = new CopyOnWriteArrayList<>();
+
+    // 正在执行的测试，用于取消和超时
+    private static final Map<String, RunningTest> runningTests = new ConcurrentHashMap<>();
+
+    /**
+     * SDK状态快照
+     * 各字段来自同一次状态变化，状态信息表在创建时生成，查询时直接返回
+     */
+    public static final class State {
+        public final boolean initialized;
+        public final boolean hasResult;
+        public final String result;          // 最近一条结果
+        public final String resultExeID;     // 最近一条结果所属的执行ID
+        public final String currentExeID;    // 最近开始的测试
+        public final int testCount;
+        public final int runningCount;
+        public final long defaultTimeoutMs;
+        public final long timestamp;         // 快照发布时间
+        private final Map<String, Object> status;
+
+        private State(boolean initialized, boolean hasResult, String result, String resultExeID,
+                      String currentExeID, int testCount, int runningCount, long defaultTimeoutMs) {
+            this.initialized = initialized;
+            this.hasResult = hasResult;
+            this.result = result;
+            this.resultExeID = resultExeID;
+            this.currentExeID = currentExeID;
+            this.testCount = testCount;
+            this.runningCount = runningCount;
+            this.defaultTimeoutMs = defaultTimeoutMs;
+            this.timestamp = System.currentTimeMillis();
+
+            Map<String, Object> map = new HashMap<>();
+            map.put("initialized", initialized);
+            map.put("hasResult", hasResult);
+            map.put("currentExeID", currentExeID);
+            map.put("testCount", testCount);
+            map.put("runningCount", runningCount);
+            map.put("defaultTimeoutMs", defaultTimeoutMs);
+            map.put("timestamp", timestamp);
+            this.status = Collections.unmodifiableMap(map);
+        }
+
+        static State initial() {
+            return new State(false, false, "", "", "", 0, 0, DEFAULT_TEST_TIMEOUT_MS);
+        }
+
+        State withInitialized(boolean value) {
+            return new State(value, hasResult, result, resultExeID, currentExeID, testCount, runningCount,
+                    defaultTimeoutMs);
+        }
+
+        State withNextExeID() {
+            return new State(initialized, hasResult, result, resultExeID, currentExeID, testCount + 1,
+                    runningCount, defaultTimeoutMs);
+        }
+
+        // 开始新测试时清除上一条结果
+        State withTestStarted(String exeID) {
+            return new State(initialized, false, "", "", exeID, testCount, runningCount + 1, defaultTimeoutMs);
+        }
+
+        State withTestFinished(String exeID, String message) {
+            return new State(initialized, true, message, exeID, currentExeID, testCount,
+                    Math.max(0, runningCount - 1), defaultTimeoutMs);
+        }
+
+        State withResultTaken() {
+            return new State(initialized, false, result, resultExeID, currentExeID, testCount, runningCount,
+                    defaultTimeoutMs);
+        }
+
+        State withDefaultTimeout(long timeoutMs) {
+            return new State(initialized, hasResult, result, resultExeID, currentExeID, testCount, runningCount,
+                    timeoutMs);
+        }
+
+        State withRunningCount(int count) {
+            return new State(initialized, hasResult, result, resultExeID, currentExeID, testCount, count,
+                    defaultTimeoutMs);
+        }
+
+        State withResultCleared() {
+            return new State(initialized, false, "", "", "", testCount, runningCount, defaultTimeoutMs);
+        }
+
+        /**
+         * 状态信息表（只读）
+         */
+        public Map<String, Object> toMap() {
+            return status;
+        }
+    }
+
+    /**
+     * 正在执行的测试
+     * 完成、取消、超时三者竞争同一个结束标记，只有先到的一方产生最终结果
+     */
+    private static class RunningTest {
+        final VoiceTestResult result;
+        final TestCallback callback;
+        final AtomicBoolean finished = new AtomicBoolean(false);
+        volatile Future<?> future;
+        volatile Future<?> deadline;
+
+        RunningTest(VoiceTestResult result, TestCallback callback) {
+            this.result = result;
+            this.callback = callback;
+        }
+    }
     
     // 模拟的语音测试结果
     private static final String[] VOICE_RESULTS = {
@@ -55,69 +178,328 @@ public class VoiceTestSDK {
     public void initSDK(Application application, Context context) {
         Log.i(TAG, "开始初始化语音测试SDK");
         
+        // 测试产物、缓存和结果日志的加载与引擎初始化并行进行
+        Thread storageInit = null;
+        if (application != null) {
+            storageInit = new Thread(() -> initStorage(application), "VoiceSDKStorageInit");
+            storageInit.start();
+        }
+
         // 模拟初始化过程
         try {
             Thread.sleep(1000); // 模拟初始化耗时
-            isInitialized = true;
+            if (storageInit != null) {
+                storageInit.join();
+            }
+            update(current -> current.withInitialized(true));
             Log.i(TAG, "语音测试SDK初始化成功");
         } catch (InterruptedException e) {
             Log.e(TAG, "SDK初始化被中断", e);
-            isInitialized = false;
+            update(current -> current.withInitialized(false));
         }
     }
     
+    /**
+     * 加载测试产物（录音、日志按exeID存放在应用私有目录）、话术缓存和结果日志
+     */
+    private static void initStorage(Application application) {
+        ArtifactStore.init(new File(application.getFilesDir(), "artifacts"), ArtifactStore.DEFAULT_MAX_BYTES);
+        BlobCache.init(new File(application.getFilesDir(), "blobs"), BlobCache.DEFAULT_MAX_BYTES);
+        try {
+            ResultJournal.getInstance().open(new File(application.getFilesDir(), "journal"));
+            ResultIndex.getInstance().attach(ResultJournal.getInstance());
+            StatsAggregator.getInstance().attach(ResultJournal.getInstance());
+        } catch (IOException e) {
+            Log.e(TAG, "打开结果日志失败: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * 测试完成回调
+     */
+    public interface TestCallback {
+        void onTestComplete(VoiceTestResult result);
+    }
+    
+    /**
+     * 注册全局结果监听器，每条测试结束后都会收到结果
+     */
+    public static void addResultListener(TestCallback listener) {
+        if (!resultListeners.contains(listener)) {
+            resultListeners.add(listener);
+        }
+    }
+    
+    /**
+     * 注销全局结果监听器
+     */
+    public static void removeResultListener(TestCallback listener) {
+        resultListeners.remove(listener);
+    }
+    
     /**
      * 执行一条测试，传入话术，音区
      * @param title 测试话术/标题
      * @param area 音区
      */
     public static void startTest(String title, String area) {
-        if (!isInitialized) {
+        startTest(title, area, null);
+    }
+    
+    /**
+     * 执行一条测试，测试结束后通过回调返回完整结果
+     * @param title 测试话术/标题
+     * @param area 音区
+     * @param callback 完成回调，可为null
+     * @return 执行ID，SDK未初始化时返回null
+     */
+    public static String startTest(String title, String area, TestCallback callback) {
+        return startTest(null, title, area, callback);
+    }
+    
+    /**
+     * 以预先分配的执行ID执行一条测试（排队调度时使用）
+     * @param presetExeID 预分配的执行ID，为null时自动生成
+     * @param title 测试话术/标题
+     * @param area 音区
+     * @param callback 完成回调，可为null
+     * @return 执行ID，SDK未初始化时返回null
+     */
+    public static String startTest(String presetExeID, String title, String area, TestCallback callback) {
+        return startTest(presetExeID, title, area, 0, callback);
+    }
+    
+    /**
+     * 以预先分配的执行ID和时限执行一条测试
+     * 超过时限的测试被中断并以超时结果结束
+     * @param presetExeID 预分配的执行ID，为null时自动生成
+     * @param title 测试话术/标题
+     * @param area 音区
+     * @param timeoutMs 时限（毫秒），不大于0时使用默认时限
+     * @param callback 完成回调，可为null
+     * @return 执行ID，SDK未初始化时返回null
+     */
+    public static String startTest(String presetExeID, String title, String area, long timeoutMs,
+                                   TestCallback callback) {
+        if (!state.get().initialized) {
             Log.w(TAG, "SDK未初始化，无法执行测试");
-            return;
+            return null;
         }
         
         Log.i(TAG, "开始语音测试 - 话术: " + title + ", 音区: " + area);
         
-        // 重置结果状态
-        ifreturn = false;
-        ttsAns = "";
-        exeID = "";
-        
         // 生成执行ID
-        int testId = testCounter.incrementAndGet();
-        exeID = "VOICE_TEST_" + testId + "_" + System.currentTimeMillis();
+        String exeID = presetExeID != null ? presetExeID : newExeID();
+        
+        VoiceTestResult testResult = new VoiceTestResult();
+        testResult.exeID = exeID;
+        testResult.title = title;
+        testResult.area = area;
         
-        // 异步执行测试
-        executorService.execute(() -> {
+        RunningTest running = new RunningTest(testResult, callback);
+        runningTests.put(testResult.exeID, running);
+        // 清除上一条结果，记录当前测试
+        State started = update(current -> current.withTestStarted(exeID));
+        
+        // 按模拟参数抽样本次测试的延迟和结果，到时由定时器触发完成
+        SimulationEngine.Outcome outcome = simulation.nextOutcome();
+        // 开始时间紧挨着定时读取，减少虚拟时钟在两者之间被其他事件推进
+        testResult.startTime = simulation.now();
+        Runnable complete = () -> completeTest(running, outcome);
+        running.future = simulation.scheduleAt(simulation.isVirtualClock() ? complete
+                : () -> executorService.execute(complete), testResult.startTime + outcome.latencyMs);
+        
+        long limit = timeoutMs > 0 ? timeoutMs : started.defaultTimeoutMs;
+        if (limit > 0) {
+            running.deadline = simulation.scheduleAt(
+                    () -> abort(running, VoiceTestResult.STATUS_TIMED_OUT, "测试超时(" + limit + "ms)"),
+                    testResult.startTime + limit);
+            if (running.finished.get()) {
+                running.deadline.cancel(false);
+            }
+        }
+        
+        return testResult.exeID;
+    }
+    
+    /**
+     * 取消正在执行的测试
+     * 测试以取消结果结束，尚未触发的完成事件被撤销
+     * @param testExeID 执行ID
+     * @return 测试正在执行并已取消时返回true
+     */
+    public static boolean cancelTest(String testExeID) {
+        RunningTest running = testExeID == null ? null : runningTests.get(testExeID);
+        if (running == null) {
+            return false;
+        }
+        return abort(running, VoiceTestResult.STATUS_CANCELLED, "测试已取消");
+    }
+    
+    /**
+     * 设置默认单条测试时限
+     * @param timeoutMs 时限（毫秒），0表示不限
+     */
+    public static void setDefaultTimeout(long timeoutMs) {
+        if (timeoutMs < 0) {
+            throw new IllegalArgumentException("时限不能为负数");
+        }
+        update(current -> current.withDefaultTimeout(timeoutMs));
+    }
+    
+    /**
+     * 获取默认单条测试时限
+     */
+    public static long getDefaultTimeout() {
+        return state.get().defaultTimeoutMs;
+    }
+    
+    /**
+     * 模拟测试到时完成：生成结果并保存测试产物
+     */
+    private static void completeTest(RunningTest running, SimulationEngine.Outcome outcome) {
+        if (running.finished.get()) {
+            return;
+        }
+        VoiceTestResult testResult = running.result;
+        if (outcome.failed) {
+            if (finish(running, VoiceTestResult.STATUS_FAILED, "SDK返回错误", 0)) {
+                Log.w(TAG, "语音测试失败 - ID: " + testResult.exeID);
+            }
+            return;
+        }
+
+        String result = generateTestResult(testResult.title, testResult.area, outcome.score, outcome.random);
+        // 虚拟时钟下完成事件在模拟线程上依次触发，不写产物，避免每条测试上百KB的磁盘写入拖慢批量执行
+        if (!simulation.isVirtualClock()) {
+            writeTestArtifacts(testResult.exeID, testResult.title, testResult.area, result, (int) outcome.latencyMs);
+        }
+        if (finish(running, VoiceTestResult.STATUS_COMPLETED, result, outcome.score)) {
+            Log.i(TAG, "语音测试完成 - ID: " + testResult.exeID + ", 结果: " + result);
+        }
+    }
+    
+    /**
+     * 以取消或超时结束测试，并撤销尚未触发的完成事件
+     */
+    private static boolean abort(RunningTest running, String status, String message) {
+        if (!finish(running, status, message, 0)) {
+            return false;
+        }
+        Log.w(TAG, "语音测试终止 - ID: " + running.result.exeID + ", " + message);
+        Future<?> future = running.future;
+        if (future != null) {
+            future.cancel(true);
+        }
+        return true;
+    }
+    
+    /**
+     * 写入最终结果并通知监听器，每条测试只生效一次
+     */
+    private static boolean finish(RunningTest running, String status, String message, int score) {
+        if (!running.finished.compareAndSet(false, true)) {
+            return false;
+        }
+        runningTests.remove(running.result.exeID);
+        Future<?> deadline = running.deadline;
+        if (deadline != null) {
+            deadline.cancel(false);
+        }
+
+        VoiceTestResult testResult = running.result;
+        testResult.score = score;
+        testResult.result = message;
+        testResult.status = status;
+        testResult.endTime = simulation.now();
+        // 结果与所属执行ID一并发布，标记结果可用
+        update(current -> current.withTestFinished(testResult.exeID, testResult.result));
+
+        publishResult(testResult, running.callback);
+        return true;
+    }
+    
+    /**
+     * 将最终结果通知全局监听器和完成回调
+     * 未进入执行的测试（如排队中被取消）也经由这里产生结果
+     */
+    static void publishResult(VoiceTestResult testResult, TestCallback callback) {
+        for (TestCallback listener : resultListeners) {
             try {
-                // 模拟测试执行时间 (2-5秒)
-                int testDuration = 2000 + random.nextInt(3000);
-                Thread.sleep(testDuration);
-                
-                // 生成测试结果
-                generateTestResult(title, area);
-                
-                // 标记结果可用
-                ifreturn = true;
-                
-                Log.i(TAG, "语音测试完成 - ID: " + exeID + ", 结果: " + ttsAns);
-                
-            } catch (InterruptedException e) {
-                Log.e(TAG, "语音测试被中断", e);
-                ttsAns = "测试中断";
-                ifreturn = true;
+                listener.onTestComplete(testResult);
+            } catch (Exception e) {
+                Log.e(TAG, "结果监听器异常: " + e.getMessage());
             }
-        });
+        }
+        if (callback != null) {
+            try {
+                callback.onTestComplete(testResult);
+            } catch (Exception e) {
+                Log.e(TAG, "测试完成回调异常: " + e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * 生成新的执行ID
+     * @return 执行ID，格式: VOICE_TEST_{序号}_{时间戳}
+     */
+    public static String newExeID() {
+        int testId = update(State::withNextExeID).testCount;
+        return "VOICE_TEST_" + testId + "_" + System.currentTimeMillis();
+    }
+
+    /**
+     * 以CAS发布新的状态快照，并发的状态变化互不覆盖
+     * @return 发布的新快照
+     */
+    private static State update(UnaryOperator<State> transition) {
+        while (true) {
+            State current = state.get();
+            State next = transition.apply(current);
+            if (state.compareAndSet(current, next)) {
+                return next;
+            }
+        }
+    }
+
+    /**
+     * 当前状态快照，无锁读取
+     */
+    public static State getState() {
+        return state.get();
+    }
+    
+    /**
+     * 获取支持的音区列表
+     */
+    public static List<String> getVoiceAreas() {
+        return Collections.unmodifiableList(Arrays.asList(VOICE_AREAS));
     }
     
     /**
      * 获取结果
-     * @return 测试结果和执行ID，格式: "结果,执行ID"
+     * @return 测试结果和执行ID，格式: "结果,执行ID"；没有结果时返回null
      */
     public static String getAns() {
-        ifreturn = false; // 获取结果后重置状态
-        return ttsAns + "," + exeID;
+        State taken = takeResult();
+        return taken != null ? taken.result + "," + taken.resultExeID : null;
+    }
+
+    /**
+     * 取走结果：检查与取走在同一次CAS中完成，并发调用时只有一方取到
+     * @return 被取走的那份快照；没有结果时返回null
+     */
+    public static State takeResult() {
+        while (true) {
+            State current = state.get();
+            if (!current.hasResult) {
+                return null;
+            }
+            if (state.compareAndSet(current, current.withResultTaken())) {
+                return current;
+            }
+        }
     }
     
     /**
@@ -125,7 +507,7 @@ public class VoiceTestSDK {
      * @return true表示有结果可获取，false表示测试还在进行中
      */
     public static boolean ifRetrunAns() {
-        return ifreturn;
+        return state.get().hasResult;
     }
     
     /**
@@ -133,29 +515,26 @@ public class VoiceTestSDK {
      * @return true表示已初始化，false表示未初始化
      */
     public static boolean isSDKInitialized() {
-        return isInitialized;
+        return state.get().initialized;
     }
     
     /**
      * 获取SDK状态信息
-     * @return SDK状态信息
+     * @return 当前快照的状态信息表（只读），timestamp为快照发布时间
      */
     public static Map<String, Object> getSDKStatus() {
-        Map<String, Object> status = new HashMap<>();
-        status.put("initialized", isInitialized);
-        status.put("hasResult", ifreturn);
-        status.put("currentExeID", exeID);
-        status.put("testCount", testCounter.get());
-        status.put("timestamp", System.currentTimeMillis());
-        return status;
+        return state.get().toMap();
     }
     
     /**
      * 生成测试结果
      * @param title 测试话术
      * @param area 音区
+     * @param score 评分
+     * @param random 本条测试的随机数
+     * @return 结果描述
      */
-    private static void generateTestResult(String title, String area) {
+    private static String generateTestResult(String title, String area, int score, Random random) {
         // 根据话术和音区生成相应的测试结果
         StringBuilder result = new StringBuilder();
         
@@ -191,22 +570,65 @@ public class VoiceTestSDK {
             }
         }
         
-        // 添加随机评分
-        int score = 75 + random.nextInt(25); // 75-99分
+        // 添加评分
         result.append(", 评分: ").append(score);
         
-        ttsAns = result.toString();
+        return result.toString();
     }
     
+    /**
+     * 保存测试产物：模拟录音（16kHz/16bit/单声道PCM）和SDK日志
+     * @param testExeID 执行ID
+     * @param title 测试话术
+     * @param area 音区
+     * @param result 测试结果
+     * @param durationMs 测试时长（毫秒）
+     */
+    private static void writeTestArtifacts(String testExeID, String title, String area, String result, int durationMs) {
+        if (!ArtifactStore.isAvailable()) {
+            return;
+        }
+
+        try (FileOutputStream out = ArtifactStore.createArtifact(testExeID, "recording.pcm")) {
+            // 以1kHz正弦波模拟录音，按块写出，避免一次性分配整段音频
+            byte[] block = new byte[3200]; // 100ms
+            for (int i = 0; i < block.length / 2; i++) {
+                short sample = (short) (Math.sin(2 * Math.PI * 1000 * i / 16000.0) * 8000);
+                block[i * 2] = (byte) sample;
+                block[i * 2 + 1] = (byte) (sample >> 8);
+            }
+            for (int written = 0; written < durationMs; written += 100) {
+                out.write(block);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "保存录音产物失败: " + e.getMessage());
+        }
+
+        try (FileOutputStream out = ArtifactStore.createArtifact(testExeID, "sdk.log")) {
+            String log = "exeID=" + testExeID + "\n"
+                    + "title=" + title + "\n"
+                    + "area=" + area + "\n"
+                    + "durationMs=" + durationMs + "\n"
+                    + "result=" + result + "\n";
+            out.write(log.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            Log.e(TAG, "保存日志产物失败: " + e.getMessage());
+        }
+
+        try {
+            ArtifactStore.commit(testExeID);
+        } catch (IOException e) {
+            Log.e(TAG, "登记测试产物失败: " + e.getMessage());
+        }
+    }
+
     /**
      * 重置SDK状态（用于测试）
      */
     public static void resetSDK() {
-        isInitialized = false;
-        ifreturn = false;
-        ttsAns = "";
-        exeID = "";
-        testCounter.set(0);
+        // 保留执行中的测试数和默认时限
+        update(current -> State.initial().withDefaultTimeout(current.defaultTimeoutMs)
+                .withRunningCount(current.runningCount));
         Log.i(TAG, "SDK状态已重置");
     }
     
@@ -215,13 +637,24 @@ public class VoiceTestSDK {
      */
     public static void release() {
         Log.i(TAG, "释放语音测试SDK资源");
-        isInitialized = false;
-        ifreturn = false;
-        ttsAns = "";
-        exeID = "";
+        update(current -> current.withInitialized(false));
         
-        if (executorService != null && !executorService.isShutdown()) {
-            executorService.shutdown();
+        // 仍未结束的测试以取消结束，结果照常通知监听器、写入结果日志，不会丢失
+        int cancelled = ZoneScheduler.getInstance().cancelAll();
+        for (RunningTest running : new ArrayList<>(runningTests.values())) {
+            if (abort(running, VoiceTestResult.STATUS_CANCELLED, "SDK已释放")) {
+                cancelled++;
+            }
+        }
+        if (cancelled > 0) {
+            Log.w(TAG, "释放时取消了" + cancelled + "条未结束的测试");
         }
+        
+        update(State::withResultCleared);
+        
+        // 已完成的结果落盘
+        ResultJournal.getInstance().flush();
+        
+        // 线程池不关闭：服务重建后SDK会在同一进程内重新初始化，空闲线程会自行回收
     }
 }
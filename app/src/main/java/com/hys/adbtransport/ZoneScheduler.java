@@ -0,0 +1,436 @@
+package com.hys.adbtransport;
+
+import android.util.Log;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 音区调度器
+ * 在VoiceTestSDK之前为每个音区维护一个队列：不同音区并行执行，同一音区内按提交顺序执行。
+ * 全局并发达到上限时按音区轮转取任务，避免某个音区的长队列饿死其他音区
+ */
+public class ZoneScheduler {
+    private static final String TAG = "ZoneScheduler";
+
+    // 每个音区默认同时执行的测试数
+    public static final int DEFAULT_ZONE_CONCURRENCY = 1;
+
+    private static final ZoneScheduler instance = new ZoneScheduler();
+
+    private final Map<String, ZoneQueue> zones = new LinkedHashMap<>();
+    private final List<String> zoneOrder = new ArrayList<>();
+    // 已出队、尚未结束的测试
+    private final Map<String, ScheduledTest> activeTests = new HashMap<>();
+    private int maxConcurrent;
+    private int running = 0;
+    private int nextZoneIndex = 0;
+    // 服务器关闭排空期间不再接受新测试
+    private volatile boolean accepting = true;
+
+    /**
+     * 已提交的测试
+     */
+    public static class ScheduledTest {
+        public final String exeID;
+        public final String title;
+        public final String area;
+        public final long timeoutMs;
+        public final long submitTime;
+        public volatile long startTime;
+        // 开始执行时的System.nanoTime()，用于追踪的阶段时间，不受墙上时钟和虚拟时钟影响
+        volatile long startNanos;
+        final VoiceTestSDK.TestCallback callback;
+        volatile boolean cancelRequested;
+
+        ScheduledTest(String exeID, String title, String area, long timeoutMs, VoiceTestSDK.TestCallback callback) {
+            this.exeID = exeID;
+            this.title = title;
+            this.area = area;
+            this.timeoutMs = timeoutMs;
+            this.callback = callback;
+            this.submitTime = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * 单个音区的队列与统计
+     */
+    private static class ZoneQueue {
+        final ArrayDeque<ScheduledTest> queue = new ArrayDeque<>();
+        int concurrency = DEFAULT_ZONE_CONCURRENCY;
+        int running = 0;
+        long submitted = 0;
+        long started = 0;
+        long completed = 0;
+        long cancelled = 0;
+        long totalWaitMs = 0;
+        long maxWaitMs = 0;
+    }
+
+    private ZoneScheduler() {
+        for (String area : VoiceTestSDK.getVoiceAreas()) {
+            zones.put(area, new ZoneQueue());
+            zoneOrder.add(area);
+        }
+        maxConcurrent = zoneOrder.size();
+    }
+
+    public static ZoneScheduler getInstance() {
+        return instance;
+    }
+
+    /**
+     * 提交一条测试
+     * @param title 测试话术
+     * @param area 音区
+     * @param callback 完成回调，可为null
+     * @return 已提交的测试，执行ID在提交时即已分配
+     */
+    public ScheduledTest submit(String title, String area, VoiceTestSDK.TestCallback callback) {
+        return submit(title, area, 0, callback);
+    }
+
+    /**
+     * 提交一条带时限的测试，时限从开始执行时计算
+     * @param title 测试话术
+     * @param area 音区
+     * @param timeoutMs 时限（毫秒），不大于0时使用SDK默认时限
+     * @param callback 完成回调，可为null
+     * @return 已提交的测试，执行ID在提交时即已分配
+     */
+    public ScheduledTest submit(String title, String area, long timeoutMs, VoiceTestSDK.TestCallback callback) {
+        if (!VoiceTestSDK.isSDKInitialized()) {
+            throw new IllegalStateException("语音测试SDK未初始化");
+        }
+        if (!accepting) {
+            throw new IllegalStateException("服务器正在关闭，不再接受新测试");
+        }
+
+        ScheduledTest test;
+        synchronized (this) {
+            ZoneQueue zone = zones.get(area);
+            if (zone == null) {
+                throw new IllegalArgumentException("无效的音区: " + area);
+            }
+            test = new ScheduledTest(VoiceTestSDK.newExeID(), title, area, timeoutMs, callback);
+            zone.queue.addLast(test);
+            zone.submitted++;
+        }
+        Log.d(TAG, "测试已排队 - ID: " + test.exeID + ", 音区: " + area);
+        StartupPipeline.getInstance().onTestAccepted();
+
+        dispatch();
+        return test;
+    }
+
+    /**
+     * 取消测试
+     * 排队中的测试直接出队，正在执行的测试交由SDK中断，两者都以取消结果结束
+     * @param exeID 执行ID
+     * @return 找到并取消了测试时返回true
+     */
+    public boolean cancel(String exeID) {
+        ScheduledTest queued = null;
+        ScheduledTest active;
+        synchronized (this) {
+            for (ZoneQueue zone : zones.values()) {
+                Iterator<ScheduledTest> it = zone.queue.iterator();
+                while (it.hasNext()) {
+                    ScheduledTest test = it.next();
+                    if (test.exeID.equals(exeID)) {
+                        it.remove();
+                        zone.cancelled++;
+                        queued = test;
+                        break;
+                    }
+                }
+                if (queued != null) {
+                    break;
+                }
+            }
+            if (queued != null) {
+                notifyAll();
+            }
+            active = activeTests.get(exeID);
+            if (active != null) {
+                // 已出队但可能尚未交给SDK，由dispatch在启动后补做取消
+                active.cancelRequested = true;
+            }
+        }
+
+        if (queued != null) {
+            VoiceTestResult result = new VoiceTestResult();
+            result.exeID = queued.exeID;
+            result.title = queued.title;
+            result.area = queued.area;
+            result.result = "测试已取消";
+            result.status = VoiceTestResult.STATUS_CANCELLED;
+            result.startTime = queued.submitTime;
+            result.endTime = System.currentTimeMillis();
+            Log.d(TAG, "排队中的测试已取消 - ID: " + exeID);
+            VoiceTestSDK.publishResult(result, queued.callback);
+            return true;
+        }
+        return VoiceTestSDK.cancelTest(exeID) || active != null;
+    }
+
+    /**
+     * 取消所有尚未结束的测试
+     * @return 取消的测试数
+     */
+    public int cancelAll() {
+        List<String> queued = new ArrayList<>();
+        List<String> active;
+        synchronized (this) {
+            for (ZoneQueue zone : zones.values()) {
+                for (ScheduledTest test : zone.queue) {
+                    queued.add(test.exeID);
+                }
+            }
+            active = new ArrayList<>(activeTests.keySet());
+        }
+        int cancelled = 0;
+        // 先撤销排队的测试，避免执行中的测试结束后又把它们调度起来
+        for (String exeID : queued) {
+            if (cancel(exeID)) {
+                cancelled++;
+            }
+        }
+        for (String exeID : active) {
+            if (cancel(exeID)) {
+                cancelled++;
+            }
+        }
+        return cancelled;
+    }
+
+    /**
+     * 设置是否接受新测试，排队中和执行中的测试不受影响
+     */
+    public void setAccepting(boolean accepting) {
+        this.accepting = accepting;
+        Log.i(TAG, accepting ? "恢复接受新测试" : "停止接受新测试");
+    }
+
+    public boolean isAccepting() {
+        return accepting;
+    }
+
+    /**
+     * 尚未结束的测试：排队中的和执行中的执行ID
+     */
+    public synchronized List<String> getPendingTests() {
+        List<String> pending = new ArrayList<>(activeTests.keySet());
+        for (ZoneQueue zone : zones.values()) {
+            for (ScheduledTest test : zone.queue) {
+                pending.add(test.exeID);
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * 等待排队中和执行中的测试全部结束
+     * @param timeoutMs 最长等待时间（毫秒）
+     * @return 全部结束时返回true，超时返回false
+     */
+    public synchronized boolean awaitIdle(long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (running > 0 || hasQueuedLocked()) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        return true;
+    }
+
+    private boolean hasQueuedLocked() {
+        for (ZoneQueue zone : zones.values()) {
+            if (!zone.queue.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 获取音区当前排队数
+     */
+    public synchronized int getQueueDepth(String area) {
+        ZoneQueue zone = zones.get(area);
+        return zone == null ? 0 : zone.queue.size();
+    }
+
+    /**
+     * 设置单个音区的并发数
+     */
+    public void setZoneConcurrency(String area, int concurrency) {
+        synchronized (this) {
+            ZoneQueue zone = zones.get(area);
+            if (zone == null) {
+                throw new IllegalArgumentException("无效的音区: " + area);
+            }
+            if (concurrency < 1) {
+                throw new IllegalArgumentException("并发数必须大于0");
+            }
+            zone.concurrency = concurrency;
+        }
+        dispatch();
+    }
+
+    /**
+     * 设置全局并发上限
+     */
+    public void setMaxConcurrent(int max) {
+        if (max < 1) {
+            throw new IllegalArgumentException("并发数必须大于0");
+        }
+        synchronized (this) {
+            maxConcurrent = max;
+        }
+        dispatch();
+    }
+
+    /**
+     * 获取调度统计信息：各音区的排队数、执行数和等待时间
+     */
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("maxConcurrent", maxConcurrent);
+        stats.put("running", running);
+        stats.put("defaultTimeoutMs", VoiceTestSDK.getDefaultTimeout());
+        stats.put("accepting", accepting);
+
+        Map<String, Object> zoneStats = new HashMap<>();
+        for (Map.Entry<String, ZoneQueue> entry : zones.entrySet()) {
+            ZoneQueue zone = entry.getValue();
+            Map<String, Object> item = new HashMap<>();
+            item.put("queueDepth", zone.queue.size());
+            item.put("running", zone.running);
+            item.put("concurrency", zone.concurrency);
+            item.put("submitted", zone.submitted);
+            item.put("completed", zone.completed);
+            item.put("cancelled", zone.cancelled);
+            item.put("avgWaitMs", zone.started == 0 ? 0 : zone.totalWaitMs / zone.started);
+            item.put("maxWaitMs", zone.maxWaitMs);
+            ScheduledTest head = zone.queue.peekFirst();
+            item.put("oldestWaitMs", head == null ? 0 : System.currentTimeMillis() - head.submitTime);
+            zoneStats.put(entry.getKey(), item);
+        }
+        stats.put("zones", zoneStats);
+        return stats;
+    }
+
+    /**
+     * 在全局和音区并发允许时按音区轮转启动排队的测试
+     * SDK拒绝启动的测试在本轮结束后依次以中断结果完成，释放的并发名额在下一轮继续分配；
+     * 循环而非递归，排队很多时SDK被释放也不会耗尽调用栈
+     */
+    private void dispatch() {
+        while (true) {
+            List<ScheduledTest> toStart = new ArrayList<>();
+            synchronized (this) {
+                while (running < maxConcurrent) {
+                    ScheduledTest next = pollNextLocked();
+                    if (next == null) {
+                        break;
+                    }
+                    toStart.add(next);
+                }
+            }
+            if (toStart.isEmpty()) {
+                return;
+            }
+
+            // SDK调用在锁外执行
+            List<ScheduledTest> failedTests = new ArrayList<>();
+            List<VoiceTestResult> failed = new ArrayList<>();
+            for (ScheduledTest test : toStart) {
+                String started = VoiceTestSDK.startTest(test.exeID, test.title, test.area, test.timeoutMs,
+                        result -> onTestComplete(test, result));
+                if (started != null && test.cancelRequested) {
+                    VoiceTestSDK.cancelTest(test.exeID);
+                }
+                if (started == null) {
+                    VoiceTestResult result = new VoiceTestResult();
+                    result.exeID = test.exeID;
+                    result.title = test.title;
+                    result.area = test.area;
+                    result.result = "SDK未初始化";
+                    result.status = VoiceTestResult.STATUS_INTERRUPTED;
+                    result.startTime = test.startTime;
+                    result.endTime = System.currentTimeMillis();
+                    failedTests.add(test);
+                    failed.add(result);
+                }
+            }
+            if (failed.isEmpty()) {
+                return;
+            }
+
+            // 按启动顺序完成，经publishResult让结果日志等全局监听器也收到这些结果
+            for (int i = 0; i < failedTests.size(); i++) {
+                ScheduledTest test = failedTests.get(i);
+                release(test);
+                VoiceTestSDK.publishResult(failed.get(i), test.callback);
+            }
+        }
+    }
+
+    /**
+     * 归还测试占用的全局和音区并发名额
+     */
+    private synchronized void release(ScheduledTest test) {
+        ZoneQueue zone = zones.get(test.area);
+        zone.running--;
+        zone.completed++;
+        running--;
+        activeTests.remove(test.exeID);
+        notifyAll();
+    }
+
+    private ScheduledTest pollNextLocked() {
+        int count = zoneOrder.size();
+        for (int i = 0; i < count; i++) {
+            int index = (nextZoneIndex + i) % count;
+            ZoneQueue zone = zones.get(zoneOrder.get(index));
+            if (zone.queue.isEmpty() || zone.running >= zone.concurrency) {
+                continue;
+            }
+
+            ScheduledTest test = zone.queue.pollFirst();
+            test.startTime = System.currentTimeMillis();
+            test.startNanos = System.nanoTime();
+            long waitMs = test.startTime - test.submitTime;
+            zone.running++;
+            zone.started++;
+            zone.totalWaitMs += waitMs;
+            zone.maxWaitMs = Math.max(zone.maxWaitMs, waitMs);
+            running++;
+            activeTests.put(test.exeID, test);
+            nextZoneIndex = (index + 1) % count;
+            return test;
+        }
+        return null;
+    }
+
+    private void onTestComplete(ScheduledTest test, VoiceTestResult result) {
+        release(test);
+        dispatch();
+
+        if (test.callback != null) {
+            try {
+                test.callback.onTestComplete(result);
+            } catch (Exception e) {
+                Log.e(TAG, "测试完成回调异常: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.hys.adbtransport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * ChannelMultiplexer的发送窗口、接收额度归还与通道生命周期
+ */
+public class ChannelMultiplexerTest {
+
+    private static final long TIMEOUT_MS = 2000;
+
+    private final BlockingQueue<String> written = new LinkedBlockingQueue<>();
+    private ConnectionManager connection;
+    private MessageHandler handler;
+    private ChannelMultiplexer multiplexer;
+
+    /**
+     * 把写出的每一行放入written，供测试按行读取
+     */
+    private class LineCapture extends OutputStream {
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+        @Override
+        public synchronized void write(int b) {
+            if (b == '\n') {
+                written.offer(new String(line.toByteArray(), StandardCharsets.UTF_8));
+                line.reset();
+            } else {
+                line.write(b);
+            }
+        }
+    }
+
+    private class TestEndpoint implements ClientEndpoint {
+        private final OutputStream output = new LineCapture();
+
+        @Override
+        public InputStream getInputStream() {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return output;
+        }
+
+        @Override
+        public String getRemoteAddress() {
+            return "test";
+        }
+
+        @Override
+        public boolean isClosed() {
+            return false;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Before
+    public void setUp() {
+        connection = new ConnectionManager(new TestEndpoint(), null, null);
+        handler = new MessageHandler(connection);
+        multiplexer = new ChannelMultiplexer(connection, handler);
+    }
+
+    @After
+    public void tearDown() {
+        multiplexer.closeAll();
+        connection.closeConnection();
+    }
+
+    private void frame(String json) {
+        multiplexer.onFrame(handler.parse(json));
+    }
+
+    private void open(int channel, int window) throws InterruptedException {
+        frame("{\"type\":\"channel_open\",\"channel\":" + channel + ",\"data\":{\"window\":" + window + "}}");
+        assertTrue(next().contains("\"channel_opened\""));
+    }
+
+    private void ping(int channel, String id) {
+        frame("{\"type\":\"ping\",\"channel\":" + channel + ",\"id\":\"" + id + "\"}");
+    }
+
+    private void grant(int channel, long increment) {
+        frame("{\"type\":\"channel_window\",\"channel\":" + channel + ",\"data\":{\"increment\":" + increment + "}}");
+    }
+
+    private String next() throws InterruptedException {
+        String line = written.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        assertNotNull(line);
+        return line;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object stat(int channel, String key) {
+        return ((Map<String, Object>) multiplexer.getChannelStats().get(String.valueOf(channel))).get(key);
+    }
+
+    @Test
+    public void responsesWaitForSendWindow() throws InterruptedException {
+        open(5, 2);
+        ping(5, "p1");
+        ping(5, "p2");
+        ping(5, "p3");
+        assertTrue(next().contains("\"p1\""));
+        assertTrue(next().contains("\"p2\""));
+        // 第三条响应等待客户端授予额度
+        assertNull(written.poll(300, TimeUnit.MILLISECONDS));
+        assertEquals(1, stat(5, "pendingOutbound"));
+
+        grant(5, 1);
+        String third = next();
+        assertTrue(third.contains("\"p3\""));
+        assertTrue(third.startsWith("{\"channel\":5,"));
+        assertEquals(0, stat(5, "pendingOutbound"));
+    }
+
+    @Test
+    public void returnsReceiveCreditAfterHalfWindow() throws InterruptedException {
+        open(3, 100);
+        int half = ChannelMultiplexer.DEFAULT_WINDOW / 2;
+        for (int i = 0; i < half; i++) {
+            ping(3, "p" + i);
+        }
+        int responses = 0;
+        String update = null;
+        while (update == null) {
+            String line = next();
+            if (line.contains("\"channel_window\"")) {
+                update = line;
+            } else {
+                responses++;
+            }
+        }
+        assertEquals(half, responses);
+        assertTrue(update.contains("\"increment\":" + half));
+    }
+
+    @Test
+    public void sendCreditSaturatesInsteadOfOverflowing() throws InterruptedException {
+        open(7, Integer.MAX_VALUE);
+        grant(7, Integer.MAX_VALUE);
+        grant(7, Integer.MAX_VALUE);
+        assertEquals(Integer.MAX_VALUE, stat(7, "sendCredit"));
+    }
+
+    @Test
+    public void negativeWindowIsTreatedAsZero() throws InterruptedException {
+        open(8, -5);
+        assertEquals(0, stat(8, "sendCredit"));
+        ping(8, "p1");
+        assertNull(written.poll(300, TimeUnit.MILLISECONDS));
+        grant(8, 1);
+        assertTrue(next().contains("\"p1\""));
+    }
+
+    @Test
+    public void rejectsFramesOnUnopenedChannel() throws InterruptedException {
+        ping(9, "p1");
+        assertTrue(next().contains("通道未打开: 9"));
+    }
+
+    @Test
+    public void closingChannelDropsPendingResponses() throws InterruptedException {
+        open(4, 0);
+        ping(4, "p1");
+        Thread.sleep(100);
+        frame("{\"type\":\"channel_close\",\"channel\":4}");
+        assertTrue(next().contains("\"channel_closed\""));
+        assertEquals(0, multiplexer.getChannelCount());
+
+        grant(4, 1);
+        assertNull(written.poll(300, TimeUnit.MILLISECONDS));
+    }
+}
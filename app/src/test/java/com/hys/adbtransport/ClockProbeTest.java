@@ -0,0 +1,86 @@
+package com.hys.adbtransport;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * ClockProbe的偏差、误差上限与样本筛选
+ */
+public class ClockProbeTest {
+
+    private static final double DELTA = 1e-9;
+
+    @Test
+    public void symmetricDelayGivesExactOffset() {
+        // 设备时钟快1000ms，单程5ms，设备处理1ms
+        ClockProbe.Estimate estimate = ClockProbe.estimate(Arrays.asList(
+                new ClockProbe.Sample(0, 1005, 1006, 11)));
+        assertEquals(1000, estimate.offsetMs, DELTA);
+        assertEquals(10, estimate.rttMs, DELTA);
+        assertEquals(10 / 2.0 + ClockProbe.DEVICE_CLOCK_RESOLUTION_MS, estimate.errorMs, DELTA);
+        assertEquals(1, estimate.samples);
+        assertEquals(0, estimate.discarded);
+    }
+
+    @Test
+    public void usesSampleWithSmallestRoundTrip() {
+        ClockProbe.Estimate estimate = ClockProbe.estimate(Arrays.asList(
+                // 去程多排队30ms，偏差被高估15ms
+                new ClockProbe.Sample(0, 1030, 1031, 41),
+                new ClockProbe.Sample(100, 1105, 1106, 111),
+                new ClockProbe.Sample(200, 1210, 1211, 221)));
+        assertEquals(1000, estimate.offsetMs, DELTA);
+        assertEquals(10, estimate.rttMs, DELTA);
+        assertEquals(20, estimate.medianRttMs, DELTA);
+        assertEquals(3, estimate.samples);
+    }
+
+    @Test
+    public void medianOfEvenSampleCountIsAveraged() {
+        ClockProbe.Estimate estimate = ClockProbe.estimate(Arrays.asList(
+                new ClockProbe.Sample(0, 1005, 1006, 11),
+                new ClockProbe.Sample(0, 1010, 1011, 21)));
+        assertEquals(15, estimate.medianRttMs, DELTA);
+    }
+
+    @Test
+    public void discardsInconsistentSamples() {
+        ClockProbe.Estimate estimate = ClockProbe.estimate(Arrays.asList(
+                // 设备回复早于收到
+                new ClockProbe.Sample(0, 1006, 1005, 11),
+                // 往返时延为负且超出时钟分辨率
+                new ClockProbe.Sample(10, 5, 6, 5),
+                new ClockProbe.Sample(0, 1005, 1006, 11)));
+        assertEquals(1, estimate.samples);
+        assertEquals(2, estimate.discarded);
+        assertEquals(1000, estimate.offsetMs, DELTA);
+    }
+
+    @Test
+    public void negativeRoundTripWithinResolutionCountsAsZero() {
+        ClockProbe.Estimate estimate = ClockProbe.estimate(Arrays.asList(
+                new ClockProbe.Sample(0, 1000, 1001, 0.5)));
+        assertEquals(0, estimate.rttMs, DELTA);
+        assertEquals(ClockProbe.DEVICE_CLOCK_RESOLUTION_MS, estimate.errorMs, DELTA);
+        assertEquals(0, estimate.discarded);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsWhenNoSampleIsValid() {
+        List<ClockProbe.Sample> samples = new ArrayList<>();
+        samples.add(new ClockProbe.Sample(10, 5, 6, 5));
+        ClockProbe.estimate(samples);
+    }
+
+    @Test
+    public void convertsDeviceTimeToHostTime() {
+        ClockProbe.Estimate estimate = ClockProbe.estimate(Arrays.asList(
+                new ClockProbe.Sample(0, 1005, 1006, 11)));
+        assertEquals(4000, estimate.toHost(5000));
+    }
+}
@@ -0,0 +1,156 @@
+package com.hys.adbtransport;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+/**
+ * LineDecoder的分行、超长帧丢弃与流结束处理
+ */
+public class LineDecoderTest {
+
+    /**
+     * 每次最多返回chunkSize字节，模拟数据分多次到达
+     */
+    private static class ChunkedInputStream extends InputStream {
+        private final byte[] data;
+        private final int chunkSize;
+        private int position = 0;
+
+        ChunkedInputStream(String text, int chunkSize) {
+            this.data = text.getBytes(StandardCharsets.UTF_8);
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        public int read() {
+            return position < data.length ? data[position++] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (position >= data.length) {
+                return -1;
+            }
+            int count = Math.min(Math.min(length, chunkSize), data.length - position);
+            System.arraycopy(data, position, buffer, offset, count);
+            position += count;
+            return count;
+        }
+    }
+
+    private static LineDecoder decoder(String text, int maxFrameLength) {
+        return new LineDecoder(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)), maxFrameLength);
+    }
+
+    @Test
+    public void splitsLinesAndStripsCrlf() throws IOException {
+        LineDecoder decoder = decoder("first\r\nsecond\n\nthird\r\n", 64);
+        assertEquals("first", decoder.readLine());
+        assertEquals("second", decoder.readLine());
+        assertEquals("", decoder.readLine());
+        assertEquals("third", decoder.readLine());
+        assertNull(decoder.readLine());
+        decoder.release();
+    }
+
+    @Test
+    public void returnsIncompleteLastLineAtEof() throws IOException {
+        LineDecoder decoder = decoder("done\npartial", 64);
+        assertEquals("done", decoder.readLine());
+        assertEquals("partial", decoder.readLine());
+        assertNull(decoder.readLine());
+        decoder.release();
+    }
+
+    @Test
+    public void returnsNullForEmptyStream() throws IOException {
+        LineDecoder decoder = decoder("", 64);
+        assertNull(decoder.readLine());
+        decoder.release();
+    }
+
+    @Test
+    public void reassemblesLinesSplitAcrossReads() throws IOException {
+        // 多字节字符被拆到不同的读取中
+        LineDecoder decoder = new LineDecoder(new ChunkedInputStream("打开空调\r\n{\"type\":\"ping\"}\n", 1), 64);
+        assertEquals("打开空调", decoder.readLine());
+        assertEquals("{\"type\":\"ping\"}", decoder.readLine());
+        assertNull(decoder.readLine());
+        decoder.release();
+    }
+
+    @Test
+    public void acceptsLineOfExactlyMaxLength() throws IOException {
+        LineDecoder decoder = decoder("abcd\nnext\n", 4);
+        assertEquals("abcd", decoder.readLine());
+        assertEquals("next", decoder.readLine());
+        decoder.release();
+    }
+
+    @Test
+    public void discardsOversizeLineAndContinues() throws IOException {
+        LineDecoder decoder = new LineDecoder(new ChunkedInputStream("0123456789abcdef\nok\n", 3), 8);
+        try {
+            decoder.readLine();
+            fail("超长帧应抛出FrameTooLongException");
+        } catch (LineDecoder.FrameTooLongException e) {
+            assertEquals(8, e.maxFrameLength);
+        }
+        assertEquals("ok", decoder.readLine());
+        assertNull(decoder.readLine());
+        decoder.release();
+    }
+
+    @Test
+    public void discardsOversizeLineSpanningManyBuffers() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 50000; i++) {
+            text.append('x');
+        }
+        text.append("\nnext\n");
+        LineDecoder decoder = decoder(text.toString(), 100);
+        try {
+            decoder.readLine();
+            fail("超长帧应抛出FrameTooLongException");
+        } catch (LineDecoder.FrameTooLongException expected) {
+            // 剩余部分在下一次读取时跳过
+        }
+        assertEquals("next", decoder.readLine());
+        decoder.release();
+    }
+
+    @Test
+    public void oversizeLineAtEofIsNotReturned() throws IOException {
+        LineDecoder decoder = new LineDecoder(new ChunkedInputStream("0123456789abcdef", 4), 8);
+        try {
+            decoder.readLine();
+            fail("超长帧应抛出FrameTooLongException");
+        } catch (LineDecoder.FrameTooLongException expected) {
+            // 流在丢弃过程中结束
+        }
+        assertNull(decoder.readLine());
+        decoder.release();
+    }
+
+    @Test
+    public void readRawReturnsBufferedBytesAfterHeader() throws IOException {
+        LineDecoder decoder = decoder("header\nRAWDATA", 64);
+        assertEquals("header", decoder.readLine());
+        byte[] buffer = new byte[16];
+        int count = decoder.readRaw(buffer, 0, buffer.length);
+        assertEquals("RAWDATA", new String(buffer, 0, count, StandardCharsets.UTF_8));
+        assertEquals(-1, decoder.readRaw(buffer, 0, buffer.length));
+        decoder.release();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonPositiveMaxFrameLength() {
+        decoder("", 0);
+    }
+}
@@ -0,0 +1,143 @@
+package com.hys.adbtransport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * OutboundQueue按策略处理队列满：等待超时、合并与丢弃
+ */
+public class OutboundQueueTest {
+
+    private OutboundQueue queue;
+
+    @Before
+    public void setUp() {
+        // 2帧、100字节，不等待
+        OutboundQueue.setDefaults(2, 100, 0);
+        queue = new OutboundQueue();
+    }
+
+    @After
+    public void tearDown() {
+        OutboundQueue.setDefaults(OutboundQueue.DEFAULT_MAX_FRAMES, OutboundQueue.DEFAULT_MAX_BYTES,
+                OutboundQueue.DEFAULT_SLOW_CONSUMER_TIMEOUT_MS);
+    }
+
+    private static OutboundQueue.Frame text(String text) {
+        return OutboundQueue.Frame.text(text, null);
+    }
+
+    @Test
+    public void pollsFramesInOrder() {
+        assertEquals(OutboundQueue.Result.QUEUED, queue.offer(text("a"), OutboundPolicy.BLOCK, true));
+        assertEquals(OutboundQueue.Result.QUEUED, queue.offer(text("b"), OutboundPolicy.BLOCK, true));
+        assertEquals("a", queue.poll().text);
+        assertEquals("b", queue.poll().text);
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void fullQueueReportsSlowConsumerForBlockPolicy() {
+        queue.offer(text("a"), OutboundPolicy.BLOCK, true);
+        queue.offer(text("b"), OutboundPolicy.BLOCK, true);
+        assertEquals(OutboundQueue.Result.SLOW_CONSUMER, queue.offer(text("c"), OutboundPolicy.BLOCK, false));
+        // 时限为0时等待立即超时
+        assertEquals(OutboundQueue.Result.SLOW_CONSUMER, queue.offer(text("c"), OutboundPolicy.BLOCK, true));
+    }
+
+    @Test
+    public void fullQueueDropsDroppableFrames() {
+        queue.offer(text("a"), OutboundPolicy.BLOCK, true);
+        queue.offer(text("b"), OutboundPolicy.BLOCK, true);
+        assertEquals(OutboundQueue.Result.DROPPED, queue.offer(text("log"), OutboundPolicy.DROP, true));
+        assertEquals(1L, queue.getStats().get("dropped"));
+        assertEquals(2, queue.size());
+    }
+
+    @Test
+    public void coalescesInPlaceUntilWritten() {
+        queue.offer(OutboundQueue.Frame.text("progress 1", "p"), OutboundPolicy.COALESCE, true);
+        queue.offer(text("result"), OutboundPolicy.BLOCK, true);
+        assertEquals(OutboundQueue.Result.COALESCED,
+                queue.offer(OutboundQueue.Frame.text("progress 2", "p"), OutboundPolicy.COALESCE, true));
+
+        // 保持原来的位置，内容为最新一条
+        assertEquals("progress 2", queue.poll().text);
+        assertEquals("result", queue.poll().text);
+
+        // 已写出后同一键重新入队
+        assertEquals(OutboundQueue.Result.QUEUED,
+                queue.offer(OutboundQueue.Frame.text("progress 3", "p"), OutboundPolicy.COALESCE, true));
+    }
+
+    @Test
+    public void byteLimitCountsQueuedSize() {
+        // 文本帧计入换行
+        queue.offer(text(repeat(59)), OutboundPolicy.BLOCK, true);
+        assertEquals(OutboundQueue.Result.DROPPED, queue.offer(text(repeat(59)), OutboundPolicy.DROP, true));
+        assertEquals(OutboundQueue.Result.QUEUED, queue.offer(text(repeat(39)), OutboundPolicy.DROP, true));
+    }
+
+    @Test
+    public void textSizeIsUtf8ByteLength() {
+        assertEquals(1, OutboundQueue.Frame.utf8Length(""));
+        assertEquals(4, OutboundQueue.Frame.utf8Length("abc"));
+        assertEquals(13, OutboundQueue.Frame.utf8Length("打开空调"));
+        assertEquals(7, OutboundQueue.Frame.utf8Length("é\uD83D\uDE00"));
+        assertEquals("打开空调".getBytes(java.nio.charset.StandardCharsets.UTF_8).length + 1,
+                text("打开空调").size);
+    }
+
+    @Test
+    public void sessionPolicyOverridesGlobalPolicy() {
+        assertEquals(OutboundPolicy.BLOCK, queue.policyFor(MessageHandler.MSG_TYPE_RESPONSE));
+        queue.setPolicy(MessageHandler.MSG_TYPE_TRACE, OutboundPolicy.BLOCK);
+        assertEquals(OutboundPolicy.BLOCK, queue.policyFor(MessageHandler.MSG_TYPE_TRACE));
+        // 其他连接仍使用全局策略
+        assertEquals(OutboundPolicy.DROP, new OutboundQueue().policyFor(MessageHandler.MSG_TYPE_TRACE));
+    }
+
+    @Test
+    public void configureAppliesToThisQueueOnly() {
+        queue.configure(3, 100, 0);
+        queue.offer(text("a"), OutboundPolicy.BLOCK, false);
+        queue.offer(text("b"), OutboundPolicy.BLOCK, false);
+        assertEquals(OutboundQueue.Result.QUEUED, queue.offer(text("c"), OutboundPolicy.BLOCK, false));
+        assertEquals(2, new OutboundQueue().getStats().get("maxFrames"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsCapacityAboveHardCap() {
+        queue.configure(OutboundQueue.MAX_FRAMES + 1, 100, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsDefaultsAboveHardCap() {
+        OutboundQueue.setDefaults(2, OutboundQueue.MAX_BYTES + 1, 0);
+    }
+
+    @Test
+    public void emptyQueueAcceptsFrameLargerThanByteLimit() {
+        assertEquals(OutboundQueue.Result.QUEUED, queue.offer(text(repeat(500)), OutboundPolicy.BLOCK, false));
+        assertEquals(OutboundQueue.Result.DROPPED, queue.offer(text("a"), OutboundPolicy.DROP, true));
+    }
+
+    @Test
+    public void closedQueueRejectsFrames() {
+        queue.offer(text("a"), OutboundPolicy.BLOCK, true);
+        queue.close();
+        assertTrue(queue.isEmpty());
+        assertEquals(OutboundQueue.Result.CLOSED, queue.offer(text("b"), OutboundPolicy.BLOCK, true));
+    }
+
+    private static String repeat(int length) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            builder.append('x');
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,88 @@
+package com.hys.adbtransport;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * QuantileSketch的相对误差、合并与边界值
+ */
+public class QuantileSketchTest {
+
+    private static final double[] QUANTILES = {0, 0.01, 0.25, 0.5, 0.9, 0.99, 1.0};
+
+    /**
+     * 1..n的精确分位数
+     */
+    private static double exact(double q, int n) {
+        return Math.max(1, Math.ceil(q * n));
+    }
+
+    @Test
+    public void emptySketchReturnsZero() {
+        QuantileSketch sketch = new QuantileSketch();
+        assertEquals(0, sketch.quantile(0.5), 0);
+        assertEquals(0, sketch.getCount());
+    }
+
+    @Test
+    public void estimatesStayWithinRelativeAccuracy() {
+        QuantileSketch sketch = new QuantileSketch();
+        int n = 10000;
+        for (int i = n; i >= 1; i--) {
+            sketch.add(i);
+        }
+        assertEquals(n, sketch.getCount());
+        for (double q : QUANTILES) {
+            double expected = exact(q, n);
+            assertEquals("q=" + q, expected, sketch.quantile(q), expected * QuantileSketch.DEFAULT_ACCURACY);
+        }
+    }
+
+    @Test
+    public void mergedSketchMatchesSketchOfAllValues() {
+        QuantileSketch low = new QuantileSketch();
+        QuantileSketch high = new QuantileSketch();
+        QuantileSketch all = new QuantileSketch();
+        for (int i = 1; i <= 1000; i++) {
+            (i <= 300 ? low : high).add(i);
+            all.add(i);
+        }
+        // 合并到空草图与合并到已有数据的草图结果一致
+        QuantileSketch merged = new QuantileSketch();
+        merged.merge(high);
+        merged.merge(low);
+        low.merge(high);
+        assertEquals(all.getCount(), merged.getCount());
+        for (double q : QUANTILES) {
+            assertEquals(all.quantile(q), merged.quantile(q), 0);
+            assertEquals(all.quantile(q), low.quantile(q), 0);
+        }
+    }
+
+    @Test
+    public void nonPositiveValuesCountAsZero() {
+        QuantileSketch sketch = new QuantileSketch();
+        sketch.add(0);
+        sketch.add(-5);
+        sketch.add(100);
+        assertEquals(0, sketch.quantile(0.5), 0);
+        assertEquals(100, sketch.quantile(1.0), 100 * QuantileSketch.DEFAULT_ACCURACY);
+    }
+
+    @Test
+    public void quantileOutsideRangeIsClamped() {
+        QuantileSketch sketch = new QuantileSketch();
+        sketch.add(10);
+        sketch.add(1000);
+        assertEquals(10, sketch.quantile(-1), 10 * QuantileSketch.DEFAULT_ACCURACY);
+        assertEquals(1000, sketch.quantile(2), 1000 * QuantileSketch.DEFAULT_ACCURACY);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMergeWithDifferentAccuracy() {
+        QuantileSketch other = new QuantileSketch(0.05);
+        other.add(1);
+        new QuantileSketch().merge(other);
+    }
+}
@@ -0,0 +1,67 @@
+package com.hys.adbtransport;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * RateLimiter的令牌桶、未结束测试配额与限额比较
+ */
+public class RateLimiterTest {
+
+    @Test
+    public void allowsBurstThenRejectsWithRetryHint() {
+        RateLimiter limiter = new RateLimiter();
+        limiter.setLimit(CommandClass.TEST, new RateLimiter.Limit(1, 3));
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, limiter.tryAcquire(CommandClass.TEST));
+        }
+        long retryAfterMs = limiter.tryAcquire(CommandClass.TEST);
+        assertTrue(retryAfterMs > 0);
+        assertTrue(retryAfterMs <= 1000);
+    }
+
+    @Test
+    public void unlimitedClassAlwaysAllows() {
+        RateLimiter limiter = new RateLimiter();
+        limiter.setLimit(CommandClass.QUERY, new RateLimiter.Limit(0, 0));
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(0, limiter.tryAcquire(CommandClass.QUERY));
+        }
+    }
+
+    @Test
+    public void outstandingTestQuotaIsEnforcedAndReleased() {
+        RateLimiter limiter = new RateLimiter();
+        limiter.setMaxOutstandingTests(2);
+        assertTrue(limiter.tryAcquireTest());
+        assertTrue(limiter.tryAcquireTest());
+        assertFalse(limiter.tryAcquireTest());
+        assertEquals(2, limiter.getOutstandingTests());
+
+        limiter.releaseTest();
+        assertTrue(limiter.tryAcquireTest());
+    }
+
+    @Test
+    public void onlyStricterLimitsAreTightening() {
+        RateLimiter limiter = new RateLimiter();
+        limiter.setLimit(CommandClass.TEST, new RateLimiter.Limit(20, 50));
+        assertTrue(limiter.isTightening(CommandClass.TEST, new RateLimiter.Limit(10, 20)));
+        assertTrue(limiter.isTightening(CommandClass.TEST, new RateLimiter.Limit(20, 50)));
+        assertFalse(limiter.isTightening(CommandClass.TEST, new RateLimiter.Limit(30, 20)));
+        assertFalse(limiter.isTightening(CommandClass.TEST, new RateLimiter.Limit(10, 60)));
+        // 改为不限是放宽
+        assertFalse(limiter.isTightening(CommandClass.TEST, new RateLimiter.Limit(0, 0)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsLimitWithoutBurst() {
+        new RateLimiter.Limit(5, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonPositiveTestQuota() {
+        new RateLimiter().setMaxOutstandingTests(0);
+    }
+}
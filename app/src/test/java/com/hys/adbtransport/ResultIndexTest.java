@@ -0,0 +1,158 @@
+package com.hys.adbtransport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * ResultIndex的条件过滤、排序与截断
+ */
+public class ResultIndexTest {
+
+    private final ResultJournal journal = ResultJournal.getInstance();
+    private final ResultIndex index = ResultIndex.getInstance();
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("index").toFile();
+        journal.open(dir, 64 * 1024, ResultJournal.FsyncPolicy.NONE, 0);
+        index.attach(journal);
+    }
+
+    @After
+    public void tearDown() {
+        journal.removeAppendListener(index);
+        journal.close();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    private void append(String exeID, String area, int score, long endTime) throws IOException {
+        VoiceTestResult result = new VoiceTestResult();
+        result.exeID = exeID;
+        result.title = "打开空调";
+        result.area = area;
+        result.result = "识别成功";
+        result.score = score;
+        result.status = VoiceTestResult.STATUS_COMPLETED;
+        result.startTime = endTime - 100;
+        result.endTime = endTime;
+        journal.append(result);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<String> exeIDs(Map<String, Object> response) {
+        List<String> ids = new ArrayList<>();
+        for (Map<String, Object> result : (List<Map<String, Object>>) response.get("results")) {
+            ids.add((String) result.get("exeID"));
+        }
+        return ids;
+    }
+
+    private static ResultIndex.Query ascendingByTime() {
+        ResultIndex.Query query = new ResultIndex.Query();
+        query.descending = false;
+        return query;
+    }
+
+    @Test
+    public void sortsByCompletionTimeWithTiesInWriteOrder() throws IOException {
+        // 完成顺序与写入顺序不一致
+        append("c", "1", 90, 3000);
+        append("a", "1", 90, 1000);
+        append("b1", "1", 90, 2000);
+        append("b2", "1", 90, 2000);
+
+        assertEquals(Arrays.asList("a", "b1", "b2", "c"), exeIDs(index.query(ascendingByTime())));
+
+        // 默认按完成时间从新到旧
+        assertEquals(Arrays.asList("c", "b2", "b1", "a"), exeIDs(index.query(new ResultIndex.Query())));
+    }
+
+    @Test
+    public void sortsByScore() throws IOException {
+        append("low", "1", 60, 1000);
+        append("high", "1", 95, 2000);
+        append("mid", "1", 80, 3000);
+
+        ResultIndex.Query query = ascendingByTime();
+        query.sortBy = ResultIndex.SORT_SCORE;
+        assertEquals(Arrays.asList("low", "mid", "high"), exeIDs(index.query(query)));
+    }
+
+    @Test
+    public void sortsTimestampsTooFarApartToPack() throws IOException {
+        append("late", "1", 90, Long.MAX_VALUE / 2);
+        append("early", "1", 90, -Long.MAX_VALUE / 2);
+        assertEquals(Arrays.asList("early", "late"), exeIDs(index.query(ascendingByTime())));
+    }
+
+    @Test
+    public void filtersOnEveryCondition() throws IOException {
+        append("1a", "1", 90, 60_000);
+        append("1b", "1", 70, 120_000);
+        append("2a", "2", 95, 180_000);
+        append("2b", "2", 50, 240_000);
+
+        ResultIndex.Query query = ascendingByTime();
+        query.area = "2";
+        assertEquals(Arrays.asList("2a", "2b"), exeIDs(index.query(query)));
+
+        query = ascendingByTime();
+        query.passed = false;
+        assertEquals(Arrays.asList("1b", "2b"), exeIDs(index.query(query)));
+
+        query = ascendingByTime();
+        query.minScore = 70;
+        query.maxScore = 90;
+        assertEquals(Arrays.asList("1a", "1b"), exeIDs(index.query(query)));
+
+        // 时间范围含下限、不含上限
+        query = ascendingByTime();
+        query.from = 120_000L;
+        query.to = 240_000L;
+        assertEquals(Arrays.asList("1b", "2a"), exeIDs(index.query(query)));
+
+        query = ascendingByTime();
+        query.area = "3";
+        assertEquals(0, index.query(query).get("total"));
+    }
+
+    @Test
+    public void limitTruncatesButTotalCountsAllMatches() throws IOException {
+        for (int i = 0; i < 10; i++) {
+            append("t" + i, "1", 90, 1000 + i);
+        }
+        ResultIndex.Query query = new ResultIndex.Query();
+        query.limit = 3;
+        Map<String, Object> response = index.query(query);
+        assertEquals(10, response.get("total"));
+        assertEquals(Arrays.asList("t9", "t8", "t7"), exeIDs(response));
+    }
+
+    @Test
+    public void attachRebuildsFromJournal() throws IOException {
+        append("a", "1", 90, 1000);
+        append("b", "2", 90, 2000);
+        index.attach(journal);
+        assertEquals(2, index.size());
+        append("c", "1", 90, 3000);
+        assertEquals(3, index.size());
+    }
+}
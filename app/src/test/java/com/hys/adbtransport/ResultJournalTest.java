@@ -0,0 +1,168 @@
+package com.hys.adbtransport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * ResultJournal的追加读取、分段滚动与崩溃恢复
+ */
+public class ResultJournalTest {
+
+    private static final int SEGMENT_SIZE = 4096;
+
+    private final ResultJournal journal = ResultJournal.getInstance();
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("journal").toFile();
+        open();
+    }
+
+    @After
+    public void tearDown() {
+        journal.close();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    private void open() throws IOException {
+        journal.open(dir, SEGMENT_SIZE, ResultJournal.FsyncPolicy.NONE, 0);
+    }
+
+    private static VoiceTestResult result(int n) {
+        VoiceTestResult result = new VoiceTestResult();
+        result.exeID = "VOICE_TEST_" + n;
+        result.title = "打开空调" + n;
+        result.area = String.valueOf(n % 4 + 1);
+        result.result = "识别成功";
+        result.score = 80 + n % 20;
+        result.status = VoiceTestResult.STATUS_COMPLETED;
+        result.startTime = 1000L * n;
+        result.endTime = 1000L * n + 500;
+        return result;
+    }
+
+    private List<String> scanExeIDs() throws IOException {
+        List<String> ids = new ArrayList<>();
+        journal.scan(0, (position, record) -> {
+            ids.add(ResultJournal.decodeRecord(record).exeID);
+            return true;
+        });
+        return ids;
+    }
+
+    @Test
+    public void readsBackAppendedRecord() throws IOException {
+        long position = journal.append(result(1));
+        VoiceTestResult read = journal.read(position);
+        assertEquals("VOICE_TEST_1", read.exeID);
+        assertEquals("打开空调1", read.title);
+        assertEquals("2", read.area);
+        assertEquals(81, read.score);
+        assertEquals(1500L, read.endTime);
+        assertNull(journal.read(position + 4));
+    }
+
+    @Test
+    public void rollsOverToNewSegmentsInOrder() throws IOException {
+        for (int i = 0; i < 100; i++) {
+            journal.append(result(i));
+        }
+        assertTrue(((Number) journal.getStats().get("segments")).intValue() > 1);
+        List<String> ids = scanExeIDs();
+        assertEquals(100, ids.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals("VOICE_TEST_" + i, ids.get(i));
+        }
+    }
+
+    @Test
+    public void scanResumesFromReturnedPosition() throws IOException {
+        journal.append(result(1));
+        long next = journal.scan(0, (position, record) -> true);
+        journal.append(result(2));
+        List<String> ids = new ArrayList<>();
+        journal.scan(next, (position, record) -> {
+            ids.add(ResultJournal.decodeRecord(record).exeID);
+            return true;
+        });
+        assertEquals(1, ids.size());
+        assertEquals("VOICE_TEST_2", ids.get(0));
+    }
+
+    @Test
+    public void reopenContinuesAfterLastRecord() throws IOException {
+        journal.append(result(1));
+        journal.append(result(2));
+        journal.close();
+        open();
+        journal.append(result(3));
+        assertEquals(3, scanExeIDs().size());
+        assertEquals(0L, journal.getStats().get("recoveredBytes"));
+    }
+
+    @Test
+    public void recoveryDropsRecordWithBadCrc() throws IOException {
+        journal.append(result(1));
+        long second = journal.append(result(2));
+        journal.close();
+
+        // 改写第二条记录负载中的一个字节
+        int offset = (int) second + ResultJournal.RECORD_HEADER_SIZE + 10;
+        try (RandomAccessFile file = new RandomAccessFile(journal.segmentFile(0), "rw")) {
+            file.seek(offset);
+            int value = file.read();
+            file.seek(offset);
+            file.write(value ^ 0xFF);
+        }
+
+        open();
+        List<String> ids = scanExeIDs();
+        assertEquals(1, ids.size());
+        assertEquals("VOICE_TEST_1", ids.get(0));
+        assertTrue(((Number) journal.getStats().get("recoveredBytes")).longValue() > 0);
+        // 新记录覆盖残缺记录的位置
+        assertEquals(second, journal.append(result(3)));
+    }
+
+    @Test
+    public void recoveryDropsRecordWithTornLength() throws IOException {
+        journal.append(result(1));
+        long end = journal.scan(0, (position, record) -> true);
+        journal.close();
+
+        // 残缺的记录头：长度超出分段
+        try (RandomAccessFile file = new RandomAccessFile(journal.segmentFile(0), "rw")) {
+            file.seek((int) end);
+            file.writeInt(SEGMENT_SIZE);
+            file.writeInt(0);
+        }
+
+        open();
+        assertEquals(1, scanExeIDs().size());
+        ByteBuffer header = ByteBuffer.allocate(4);
+        try (RandomAccessFile file = new RandomAccessFile(journal.segmentFile(0), "r")) {
+            file.seek((int) end);
+            file.getChannel().read(header);
+        }
+        header.flip();
+        assertEquals(0, header.getInt());
+    }
+}
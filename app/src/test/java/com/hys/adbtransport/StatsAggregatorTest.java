@@ -0,0 +1,152 @@
+package com.hys.adbtransport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * StatsAggregator的累计统计、时间与条数窗口及话术数上限
+ */
+public class StatsAggregatorTest {
+
+    private static final long MINUTE_MS = 60 * 1000;
+
+    private final ResultJournal journal = ResultJournal.getInstance();
+    private final StatsAggregator aggregator = StatsAggregator.getInstance();
+    private File dir;
+    private long now;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("stats").toFile();
+        journal.open(dir, 1024 * 1024, ResultJournal.FsyncPolicy.NONE, 0);
+        aggregator.attach(journal);
+        now = System.currentTimeMillis();
+    }
+
+    @After
+    public void tearDown() {
+        journal.removeAppendListener(aggregator);
+        journal.close();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    private void append(String title, String area, int score, long endTime) throws IOException {
+        VoiceTestResult result = new VoiceTestResult();
+        result.exeID = "VOICE_TEST_" + endTime;
+        result.title = title;
+        result.area = area;
+        result.result = "识别成功";
+        result.score = score;
+        result.status = VoiceTestResult.STATUS_COMPLETED;
+        result.startTime = endTime - 200;
+        result.endTime = endTime;
+        journal.append(result);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> summary(Map<String, Object> stats, String group, String key) {
+        return (Map<String, Object>) ((Map<String, Object>) stats.get(group)).get(key);
+    }
+
+    @Test
+    public void keepsTotalsPerAreaAndTitle() throws IOException {
+        append("打开空调", "1", 90, now);
+        append("打开空调", "1", 70, now);
+        append("关闭车窗", "2", 100, now);
+
+        Map<String, Object> stats = aggregator.getStats(null, null, 0, 0);
+        Map<String, Object> area1 = summary(stats, "areas", "1");
+        assertEquals(2L, area1.get("count"));
+        // 低于通过线的计为失败
+        assertEquals(1L, area1.get("failures"));
+        assertEquals(80.0, (Double) area1.get("mean"), 1e-9);
+        assertEquals(70, area1.get("min"));
+        assertEquals(90, area1.get("max"));
+        assertEquals(0.5, (Double) area1.get("passRate"), 1e-9);
+        assertEquals(200L, area1.get("avgDurationMs"));
+
+        assertEquals(2L, summary(stats, "titles", "打开空调").get("count"));
+        assertEquals(1L, summary(stats, "titles", "关闭车窗").get("count"));
+    }
+
+    @Test
+    public void filtersByArea() throws IOException {
+        append("打开空调", "1", 90, now);
+        append("打开空调", "2", 90, now);
+
+        Map<String, Object> stats = aggregator.getStats("2", null, 0, 0);
+        assertEquals(1, ((Map<?, ?>) stats.get("areas")).size());
+        // 只按音区查询时不返回话术
+        assertNull(stats.get("titles"));
+    }
+
+    @Test
+    public void minuteWindowOnlyCountsRecentResults() throws IOException {
+        append("打开空调", "1", 60, now - 30 * MINUTE_MS);
+        append("打开空调", "1", 90, now);
+
+        Map<String, Object> window = summary(aggregator.getStats("1", null, 5, 0), "areas", "1");
+        assertEquals(1L, window.get("count"));
+        assertEquals(90, window.get("max"));
+
+        Map<String, Object> total = summary(aggregator.getStats("1", null, 0, 0), "areas", "1");
+        assertEquals(2L, total.get("count"));
+    }
+
+    @Test
+    public void lateResultOlderThanRingIsOnlyCountedInTotal() throws IOException {
+        append("打开空调", "1", 90, now);
+        // 与上一条落在同一个环形槽位，但早了一整圈
+        append("打开空调", "1", 50, now - StatsAggregator.MAX_WINDOW_MINUTES * MINUTE_MS);
+
+        Map<String, Object> window = summary(
+                aggregator.getStats("1", null, StatsAggregator.MAX_WINDOW_MINUTES, 0), "areas", "1");
+        assertEquals(1L, window.get("count"));
+        assertEquals(2L, summary(aggregator.getStats("1", null, 0, 0), "areas", "1").get("count"));
+    }
+
+    @Test
+    public void lastTestsWindowUsesMostRecentArrivals() throws IOException {
+        for (int i = 0; i < 10; i++) {
+            append("打开空调", "1", 50 + i, now + i);
+        }
+        Map<String, Object> window = summary(aggregator.getStats("1", null, 0, 3), "areas", "1");
+        assertEquals(3L, window.get("count"));
+        assertEquals(57, window.get("min"));
+        assertEquals(59, window.get("max"));
+    }
+
+    @Test
+    public void titlesBeyondLimitAreMergedIntoOther() throws IOException {
+        for (int i = 0; i < StatsAggregator.MAX_TITLES + 5; i++) {
+            append("话术" + i, "1", 90, now);
+        }
+        Map<?, ?> titles = (Map<?, ?>) aggregator.getStats(null, null, 0, 0).get("titles");
+        // 前MAX_TITLES条单独统计，其余计入OTHER_TITLES
+        assertEquals(StatsAggregator.MAX_TITLES + 1, titles.size());
+        assertEquals(5L, summary(aggregator.getStats(null, StatsAggregator.OTHER_TITLES, 0, 0),
+                "titles", StatsAggregator.OTHER_TITLES).get("count"));
+    }
+
+    @Test
+    public void attachRebuildsFromJournal() throws IOException {
+        append("打开空调", "1", 90, now);
+        append("打开空调", "1", 90, now);
+        aggregator.attach(journal);
+        assertEquals(2L, summary(aggregator.getStats("1", null, 0, 0), "areas", "1").get("count"));
+    }
+}
@@ -0,0 +1,129 @@
+package com.hys.adbtransport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * ZoneScheduler的音区轮转、音区内顺序与并发上限
+ */
+public class ZoneSchedulerTest {
+
+    private static final long LATENCY_MS = 100;
+
+    private final ZoneScheduler scheduler = ZoneScheduler.getInstance();
+    private SimulationEngine.Config savedConfig;
+    private final List<String> completed = Collections.synchronizedList(new ArrayList<>());
+    private final Semaphore callbacks = new Semaphore(0);
+
+    @Before
+    public void setUp() {
+        if (!VoiceTestSDK.isSDKInitialized()) {
+            new VoiceTestSDK().initSDK(null, null);
+        }
+        savedConfig = SimulationEngine.getInstance().getConfig();
+        SimulationEngine.Config config = savedConfig.copy();
+        config.distribution = SimulationEngine.DIST_FIXED;
+        config.meanLatencyMs = LATENCY_MS;
+        config.failureRate = 0;
+        config.virtualClock = false;
+        SimulationEngine.getInstance().configure(config);
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        scheduler.cancelAll();
+        assertTrue(scheduler.awaitIdle(5000));
+        scheduler.setMaxConcurrent(VoiceTestSDK.getVoiceAreas().size());
+        for (String area : VoiceTestSDK.getVoiceAreas()) {
+            scheduler.setZoneConcurrency(area, ZoneScheduler.DEFAULT_ZONE_CONCURRENCY);
+        }
+        SimulationEngine.getInstance().configure(savedConfig);
+    }
+
+    private void submit(String title, String area) {
+        scheduler.submit(title, area, result -> {
+            completed.add(result.title);
+            callbacks.release();
+        });
+    }
+
+    /**
+     * 等待count个完成回调；调度器归还名额后才调用回调，awaitIdle返回时回调可能尚未执行
+     */
+    private void awaitCallbacks(int count) throws InterruptedException {
+        assertTrue(callbacks.tryAcquire(count, 5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void rotatesAcrossZonesWhenGloballyLimited() throws InterruptedException {
+        scheduler.setMaxConcurrent(1);
+        // 音区1先积压多条，之后其他音区各来一条
+        submit("a1", "1");
+        submit("a2", "1");
+        submit("a3", "1");
+        submit("a4", "1");
+        submit("b1", "2");
+        submit("c1", "3");
+        awaitCallbacks(6);
+
+        // 一次只执行一条，完成顺序即启动顺序：后到的音区不会排在音区1的积压之后
+        assertEquals(Arrays.asList("a1", "b1", "c1", "a2", "a3", "a4"), completed);
+    }
+
+    @Test
+    public void keepsSubmissionOrderWithinZone() throws InterruptedException {
+        for (int i = 0; i < 5; i++) {
+            submit("t" + i, "2");
+        }
+        awaitCallbacks(5);
+        assertEquals(Arrays.asList("t0", "t1", "t2", "t3", "t4"), completed);
+    }
+
+    @Test
+    public void zonesRunInParallelButEachZoneIsSerial() throws InterruptedException {
+        long start = System.currentTimeMillis();
+        for (String area : VoiceTestSDK.getVoiceAreas()) {
+            submit("x" + area, area);
+            submit("y" + area, area);
+        }
+        assertEquals(1, scheduler.getQueueDepth("1"));
+        awaitCallbacks(8);
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertEquals(8, completed.size());
+        // 每个音区串行两条，四个音区并行：约两倍时延，全部串行则为八倍
+        assertTrue("elapsed " + elapsed, elapsed >= 2 * LATENCY_MS);
+        assertTrue("elapsed " + elapsed, elapsed < 6 * LATENCY_MS);
+        for (String area : VoiceTestSDK.getVoiceAreas()) {
+            assertTrue(completed.indexOf("x" + area) < completed.indexOf("y" + area));
+        }
+    }
+
+    @Test
+    public void cancelsQueuedTestWithoutRunningIt() throws InterruptedException {
+        scheduler.setMaxConcurrent(1);
+        submit("first", "1");
+        String queued = scheduler.submit("second", "2", result -> {
+            completed.add(result.status);
+            callbacks.release();
+        }).exeID;
+        assertTrue(scheduler.cancel(queued));
+        awaitCallbacks(2);
+        assertEquals(Arrays.asList(VoiceTestResult.STATUS_CANCELLED, "first"), completed);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownZone() {
+        submit("x", "9");
+    }
+}